@@ -0,0 +1,126 @@
+package org.adaway.db;
+
+import static org.adaway.db.DatabaseProfile.Synchronous.FULL;
+import static org.adaway.db.DatabaseProfile.Synchronous.NORMAL;
+import static org.adaway.db.DatabaseProfile.Synchronous.OFF;
+import static org.adaway.db.DatabaseProfile.TempStore.DEFAULT;
+import static org.adaway.db.DatabaseProfile.TempStore.MEMORY;
+import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.room.RoomDatabase.JournalMode;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * This class benchmarks the insert rate and lookup latency of each {@link DatabaseProfile} setting.<br>
+ * Results are logged with the {@value #TAG} tag.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseProfileBenchmark {
+    private static final String TAG = "DatabaseProfileBenchmark";
+    private static final String DATABASE_NAME = "benchmark.db";
+    private static final int ITEM_COUNT = 100_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int LOOKUP_COUNT = 10_000;
+    private static final long MMAP_SIZE = 64 * 1024 * 1024;
+    /**
+     * SQLite defaults, with 2 MiB page cache and no memory mapped I/O.
+     */
+    private static final DatabaseProfile SQLITE_DEFAULT = new DatabaseProfile(FULL, 2 * 1024, 0, DEFAULT, 1000);
+
+    @Test
+    public void benchmark() throws IOException {
+        run("rollback journal", JournalMode.TRUNCATE, SQLITE_DEFAULT);
+        run("write-ahead log", JournalMode.WRITE_AHEAD_LOGGING, SQLITE_DEFAULT);
+        run("+ synchronous normal", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(NORMAL, 2 * 1024, 0, DEFAULT, 1000));
+        run("+ synchronous off", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(OFF, 2 * 1024, 0, DEFAULT, 1000));
+        run("+ 32 MiB page cache", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(NORMAL, 32 * 1024, 0, DEFAULT, 1000));
+        run("+ memory mapped I/O", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(NORMAL, 2 * 1024, MMAP_SIZE, DEFAULT, 1000));
+        run("+ memory temp store", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(NORMAL, 2 * 1024, 0, MEMORY, 1000));
+        run("+ 10000 pages checkpoint", JournalMode.WRITE_AHEAD_LOGGING,
+                new DatabaseProfile(NORMAL, 2 * 1024, 0, DEFAULT, 10000));
+        run("default profile", JournalMode.WRITE_AHEAD_LOGGING, DatabaseProfile.DEFAULT);
+        run("bulk load profile", JournalMode.WRITE_AHEAD_LOGGING, DatabaseProfile.BULK_LOAD);
+    }
+
+    private void run(String label, JournalMode journalMode, DatabaseProfile profile) throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        AppDatabase database = Room.databaseBuilder(context, AppDatabase.class, DATABASE_NAME)
+                .setJournalMode(journalMode)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            SupportSQLiteDatabase writableDatabase = database.getOpenHelper().getWritableDatabase();
+            profile.apply(writableDatabase);
+            writableDatabase.execSQL("INSERT INTO `hosts_sources` (`id`, `label`, `url`, `enabled`, `allowEnabled`, `redirectEnabled`, `size`) " +
+                    "VALUES (?, 'benchmark', 'content://benchmark', 1, 0, 0, 0)", new Object[]{USER_SOURCE_ID});
+            // Insert items in batches as the source loader does
+            long insertStart = System.nanoTime();
+            try (SupportSQLiteStatement nameStatement = database.compileStatement("INSERT INTO `host_names` " +
+                    "(`id`, `host`, `reversed_host`) VALUES (?, ?, '')");
+                 SupportSQLiteStatement statement = database.compileStatement("INSERT INTO `hosts_lists` " +
+                         "(`host_id`, `type`, `enabled`, `source_id`) VALUES (?, 0, 1, ?)")) {
+                for (int batch = 0; batch < ITEM_COUNT; batch += BATCH_SIZE) {
+                    int first = batch;
+                    database.runInTransaction(() -> {
+                        for (int i = first; i < first + BATCH_SIZE; i++) {
+                            nameStatement.bindLong(1, i + 1);
+                            nameStatement.bindString(2, host(i));
+                            nameStatement.executeInsert();
+                            statement.bindLong(1, i + 1);
+                            statement.bindLong(2, USER_SOURCE_ID);
+                            statement.executeInsert();
+                        }
+                    });
+                }
+            }
+            long insertTime = System.nanoTime() - insertStart;
+            // Look up random hosts
+            Random random = new Random(0);
+            int found = 0;
+            long lookupStart = System.nanoTime();
+            for (int i = 0; i < LOOKUP_COUNT; i++) {
+                try (Cursor cursor = database.query("SELECT `hosts_lists`.`id` FROM `hosts_lists` " +
+                        "JOIN `host_names` ON `host_names`.`id` = `host_id` WHERE `host` = ?",
+                        new Object[]{host(random.nextInt(ITEM_COUNT))})) {
+                    if (cursor.moveToFirst()) {
+                        found++;
+                    }
+                }
+            }
+            long lookupTime = System.nanoTime() - lookupStart;
+            assertEquals(LOOKUP_COUNT, found);
+            Log.i(TAG, String.format("%s (%s): %d rows/s inserted, %.1fµs per lookup.",
+                    label, profile, ITEM_COUNT * 1_000_000_000L / insertTime, lookupTime / 1000.0 / LOOKUP_COUNT));
+        } finally {
+            database.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private static String host(int index) {
+        return "host" + index + ".example.com";
+    }
+}
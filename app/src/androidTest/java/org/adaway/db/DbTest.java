@@ -9,11 +9,14 @@ import static org.junit.Assert.fail;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Observer;
 import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
@@ -45,6 +48,7 @@ public abstract class DbTest {
     protected HostsSourceDao hostsSourceDao;
     protected HostListItemDao hostListItemDao;
     protected HostEntryDao hostEntryDao;
+    protected HostEntryBuilder hostEntryBuilder;
     protected LiveData<Integer> blockedHostCount;
     protected LiveData<Integer> allowedHostCount;
     protected LiveData<Integer> redirectedHostCount;
@@ -79,6 +83,12 @@ public abstract class DbTest {
     protected void createDb() {
         Context context = ApplicationProvider.getApplicationContext();
         this.db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(new RoomDatabase.Callback() {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        AppDatabase.createTriggers(db);
+                    }
+                })
                 .allowMainThreadQueries()
                 .build();
     }
@@ -87,6 +97,7 @@ public abstract class DbTest {
         this.hostsSourceDao = this.db.hostsSourceDao();
         this.hostListItemDao = this.db.hostsListItemDao();
         this.hostEntryDao = this.db.hostEntryDao();
+        this.hostEntryBuilder = new HostEntryBuilder(this.db);
         this.blockedHostCount = this.hostListItemDao.getBlockedHostCount();
         this.allowedHostCount = this.hostListItemDao.getAllowedHostCount();
         this.redirectedHostCount = this.hostListItemDao.getRedirectHostCount();
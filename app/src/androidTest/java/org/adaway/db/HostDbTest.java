@@ -1,10 +1,13 @@
 package org.adaway.db;
 
 import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
+import static org.adaway.db.entity.ListType.ALLOWED;
+import static org.adaway.db.entity.ListType.BLOCKED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import org.adaway.db.entity.HostEntry;
+import org.adaway.db.entity.HostListItem;
 import org.junit.Test;
 
 import java.util.List;
@@ -28,7 +31,7 @@ public class HostDbTest extends DbTest {
         // Insert blocked hosts
         insertBlockedHost("advertising.apple.com", USER_SOURCE_ID);
         insertBlockedHost("an.facebook.com", USER_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Check inserting
         assertEquals(2, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(0, getOrAwaitValue(this.allowedHostCount).intValue());
@@ -36,7 +39,7 @@ public class HostDbTest extends DbTest {
         assertEquals(2, this.hostEntryDao.getAll().size());
         // Remove block hosts
         this.hostListItemDao.deleteUserFromHost("advertising.apple.com");
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Check deletion
         assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(0, getOrAwaitValue(this.allowedHostCount).intValue());
@@ -48,7 +51,7 @@ public class HostDbTest extends DbTest {
     public void testDuplicateBlockedHosts() throws InterruptedException {
         insertBlockedHost("advertising.apple.com", USER_SOURCE_ID);
         insertBlockedHost("advertising.apple.com", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
     }
@@ -57,7 +60,7 @@ public class HostDbTest extends DbTest {
     public void testDuplicateAllowedHosts() throws InterruptedException {
         insertAllowedHost("adaway.org", USER_SOURCE_ID);
         insertAllowedHost("adaway.org", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.allowedHostCount).intValue());
         assertEquals(0, this.hostEntryDao.getAll().size());
     }
@@ -66,7 +69,7 @@ public class HostDbTest extends DbTest {
     public void testDuplicateRedirectedHosts() throws InterruptedException {
         insertRedirectedHost("github.com", "1.1.1.1", USER_SOURCE_ID);
         insertRedirectedHost("github.com", "2.2.2.2", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.redirectedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
     }
@@ -76,7 +79,7 @@ public class HostDbTest extends DbTest {
         // Insert two redirects for the same host
         insertRedirectedHost("adaway.org", "1.1.1.1", USER_SOURCE_ID);
         insertRedirectedHost("adaway.org", "2.2.2.2", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted redirected hosts
         assertEquals(1, getOrAwaitValue(this.redirectedHostCount).intValue());
         // Test inserted redirect
@@ -87,4 +90,39 @@ public class HostDbTest extends DbTest {
         assertNotNull(entry);
         assertEquals("1.1.1.1", entry.getRedirection());
     }
+
+    @Test
+    public void testCountersFollowItemChanges() throws InterruptedException {
+        // Insert hosts without rebuilding host entries
+        insertBlockedHost("advertising.apple.com", USER_SOURCE_ID);
+        insertBlockedHost("advertising.apple.com", EXTERNAL_SOURCE_ID);
+        insertAllowedHost("adaway.org", USER_SOURCE_ID);
+        assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
+        assertEquals(1, getOrAwaitValue(this.allowedHostCount).intValue());
+        assertEquals(0, getOrAwaitValue(this.redirectedHostCount).intValue());
+        // Disable the allowed host
+        HostListItem item = this.hostListItemDao.getUserList()
+                .stream()
+                .filter(userItem -> userItem.getType() == ALLOWED)
+                .findAny()
+                .orElseThrow(AssertionError::new);
+        item.setEnabled(false);
+        this.hostListItemDao.update(item);
+        assertEquals(0, getOrAwaitValue(this.allowedHostCount).intValue());
+        // Turn it into an enabled blocked host
+        item.setEnabled(true);
+        item.setType(BLOCKED);
+        item.setHost("an.facebook.com");
+        this.hostListItemDao.update(item);
+        assertEquals(2, getOrAwaitValue(this.blockedHostCount).intValue());
+        assertEquals(0, getOrAwaitValue(this.allowedHostCount).intValue());
+        // Remove a duplicated host then a source
+        this.hostListItemDao.deleteUserFromHost("advertising.apple.com");
+        assertEquals(2, getOrAwaitValue(this.blockedHostCount).intValue());
+        this.hostListItemDao.clearSourceHosts(EXTERNAL_SOURCE_ID);
+        assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
+        // Replace the remaining item
+        this.hostListItemDao.insert(item);
+        assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
+    }
 }
@@ -0,0 +1,184 @@
+package org.adaway.db;
+
+import static org.adaway.db.entity.ListType.BLOCKED;
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.db.entity.HostEntry;
+import org.adaway.db.entity.ListType;
+import org.adaway.util.ReversedHost;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * This class benchmarks the host entry lookups of the VPN, with a {@link LruCache} over the
+ * database and with the {@link HostEntryIndex}.<br>
+ * Queried hosts follow a Zipf-like distribution, half of them being blocked. Subdomain wildcard
+ * lookups are benchmarked with names of {@value #SUBDOMAIN_LABEL_COUNT} labels.<br>
+ * Results are logged with the {@value #TAG} tag.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostEntryIndexBenchmark extends DbTest {
+    private static final String TAG = "HostEntryIndexBenchmark";
+    private static final int ENTRY_COUNT = 100_000;
+    private static final int REDIRECTED_COUNT = 100;
+    private static final int CACHE_SIZE = 4 * 1024;
+    private static final int QUERY_COUNT = 100_000;
+    private static final int RUN_COUNT = 5;
+    private static final int SUBDOMAIN_LABEL_COUNT = 7;
+
+    @Test
+    public void benchmark() {
+        insertEntries();
+        String[] queries = generateQueries();
+        long cache = timeCache(queries);
+        long loadStart = System.nanoTime();
+        HostEntryIndex index = HostEntryIndex.load(this.db);
+        long load = System.nanoTime() - loadStart;
+        assertEquals(ENTRY_COUNT, index.size());
+        long indexed = timeIndex(index, queries);
+        Log.i(TAG, String.format("cache: %dns per lookup, index: %dns per lookup, index load: %.1fms.",
+                cache / QUERY_COUNT, indexed / QUERY_COUNT, load / 1e6));
+    }
+
+    @Test
+    public void benchmarkSubdomains() {
+        insertDomains();
+        HostEntryIndex index = HostEntryIndex.load(this.db);
+        assertEquals(2 * ENTRY_COUNT, index.size());
+        Random random = new Random(0);
+        String[] queries = new String[QUERY_COUNT];
+        int expected = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            boolean blocked = random.nextBoolean();
+            StringBuilder builder = new StringBuilder();
+            for (int label = 0; label < SUBDOMAIN_LABEL_COUNT - 2; label++) {
+                builder.append('l').append(random.nextInt(10)).append('.');
+            }
+            builder.append(blocked ? "tracker" : "other").append(random.nextInt(ENTRY_COUNT)).append(".com");
+            queries[i] = builder.toString();
+            if (blocked) {
+                expected++;
+            }
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            int blocked = 0;
+            long start = System.nanoTime();
+            for (String query : queries) {
+                if (index.getType(query) == BLOCKED) {
+                    blocked++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(expected, blocked);
+        }
+        Log.i(TAG, String.format("subdomain index: %dns per lookup.", best / QUERY_COUNT));
+    }
+
+    private void insertDomains() {
+        this.db.runInTransaction(() -> {
+            try (SupportSQLiteStatement statement = this.db.compileStatement("INSERT INTO `host_entries` " +
+                    "(`host`, `type`, `reversed_host`) VALUES (?, 0, ?)")) {
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    String host = host(i);
+                    statement.bindString(1, host);
+                    statement.bindString(2, ReversedHost.reverse(host));
+                    statement.executeInsert();
+                    String wildcard = "*.tracker" + i + ".com";
+                    statement.bindString(1, wildcard);
+                    statement.bindString(2, ReversedHost.reverse(wildcard));
+                    statement.executeInsert();
+                }
+            }
+            return null;
+        });
+    }
+
+    private void insertEntries() {
+        this.db.runInTransaction(() -> {
+            try (SupportSQLiteStatement statement = this.db.compileStatement("INSERT INTO `host_entries` " +
+                    "(`host`, `type`, `redirection`, `reversed_host`) VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    String host = host(i);
+                    statement.bindString(1, host);
+                    if (i < REDIRECTED_COUNT) {
+                        statement.bindLong(2, ListType.REDIRECTED.getValue());
+                        statement.bindString(3, "127.0.0.1");
+                    } else {
+                        statement.bindLong(2, BLOCKED.getValue());
+                        statement.bindNull(3);
+                    }
+                    statement.bindString(4, ReversedHost.reverse(host));
+                    statement.executeInsert();
+                }
+            }
+            return null;
+        });
+    }
+
+    private static String[] generateQueries() {
+        Random random = new Random(0);
+        String[] queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            // Pick a rank with a heavy head and a long tail
+            int rank = (int) Math.pow(ENTRY_COUNT, random.nextDouble()) - 1;
+            queries[i] = random.nextBoolean() ? host(rank) : "allowed" + rank + ".example.org";
+        }
+        return queries;
+    }
+
+    private long timeCache(String[] queries) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            LruCache<String, HostEntry> cache = new LruCache<String, HostEntry>(CACHE_SIZE) {
+                @Override
+                protected HostEntry create(String key) {
+                    HostEntry entry = hostEntryDao.getEntry(key);
+                    if (entry == null) {
+                        entry = new HostEntry();
+                        entry.setHost(key);
+                        entry.setType(ListType.ALLOWED);
+                    }
+                    return entry;
+                }
+            };
+            int blocked = 0;
+            long start = System.nanoTime();
+            for (String query : queries) {
+                if (cache.get(query).getType() == BLOCKED) {
+                    blocked++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            Log.d(TAG, "Cache blocked " + blocked + " queries.");
+        }
+        return best;
+    }
+
+    private long timeIndex(HostEntryIndex index, String[] queries) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            int blocked = 0;
+            long start = System.nanoTime();
+            for (String query : queries) {
+                if (index.getType(query) == BLOCKED) {
+                    blocked++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            Log.d(TAG, "Index blocked " + blocked + " queries.");
+        }
+        return best;
+    }
+
+    private static String host(int index) {
+        return "host" + index + ".example.com";
+    }
+}
@@ -0,0 +1,77 @@
+package org.adaway.db;
+
+import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
+import static org.adaway.db.entity.ListType.BLOCKED;
+import static org.adaway.db.entity.ListType.REDIRECTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.adaway.db.entity.HostEntry;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class tests the {@link HostEntryIndex} lookups against the host entries built by the
+ * {@link HostEntryBuilder} from the same hosts lists.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostEntryIndexTest extends DbTest {
+    private static final int HOST_COUNT = 100;
+
+    @Test
+    public void testExactLookupsMatchBuilder() {
+        for (int i = 0; i < HOST_COUNT; i++) {
+            insertBlockedHost("host" + i + ".example.com", EXTERNAL_SOURCE_ID);
+        }
+        insertAllowedHost("host1?.example.com", USER_SOURCE_ID);
+        insertRedirectedHost("host0.example.com", "1.1.1.1", EXTERNAL_SOURCE_ID);
+        insertRedirectedHost("host0.example.com", "2.2.2.2", USER_SOURCE_ID);
+        insertRedirectedHost("redirected.example.com", "3.3.3.3", USER_SOURCE_ID);
+        // Block hosts of redirected domains
+        insertRedirectedHost("*.example.com", "4.4.4.4", USER_SOURCE_ID);
+        insertBlockedHost("ads.example.org", EXTERNAL_SOURCE_ID);
+        insertRedirectedHost("*.example.org", "5.5.5.5", USER_SOURCE_ID);
+        insertBlockedHost("hôte.example.net", EXTERNAL_SOURCE_ID);
+        this.hostEntryBuilder.rebuild();
+        HostEntryIndex index = HostEntryIndex.load(this.db);
+        // Check each built entry is looked up as is
+        List<HostEntry> entries = this.hostEntryDao.getAll();
+        for (HostEntry entry : entries) {
+            String host = entry.getHost();
+            assertEquals(host + " type", entry.getType(), index.getType(host));
+            assertEquals(host + " redirection", entry.getRedirection(), index.getRedirection(host));
+        }
+        assertEquals(entries.size(), index.size());
+        // Check hosts without built entry
+        for (String host : Arrays.asList("host10.example.net", "example.org", "unknown.test")) {
+            assertNull(host + " type", this.hostEntryDao.getTypeOfHost(host));
+            assertNull(host + " type", index.getType(host));
+        }
+    }
+
+    @Test
+    public void testSubdomainLookups() {
+        insertBlockedHost("*.tracker.com", USER_SOURCE_ID);
+        insertAllowedHost("safe.tracker.com", USER_SOURCE_ID);
+        insertBlockedHost("ads.example.org", USER_SOURCE_ID);
+        insertRedirectedHost("*.example.org", "1.1.1.1", USER_SOURCE_ID);
+        insertRedirectedHost("*.cdn.example.org", "2.2.2.2", USER_SOURCE_ID);
+        this.hostEntryBuilder.rebuild();
+        HostEntryIndex index = HostEntryIndex.load(this.db);
+        // Check blocked domains, unless allowed
+        assertEquals(BLOCKED, index.getType("a.b.tracker.com"));
+        assertNull(index.getType("safe.tracker.com"));
+        assertNull(index.getType("tracker.com"));
+        // Check the exact entry applies before the redirected domain
+        assertEquals(BLOCKED, index.getType("ads.example.org"));
+        assertNull(index.getRedirection("ads.example.org"));
+        // Check the closest redirected domain gives the redirection
+        assertEquals(REDIRECTED, index.getType("www.example.org"));
+        assertEquals("1.1.1.1", index.getRedirection("www.example.org"));
+        assertEquals(REDIRECTED, index.getType("img.cdn.example.org"));
+        assertEquals("2.2.2.2", index.getRedirection("img.cdn.example.org"));
+    }
+}
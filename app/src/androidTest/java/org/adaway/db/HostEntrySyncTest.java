@@ -0,0 +1,98 @@
+package org.adaway.db;
+
+import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+
+import org.adaway.db.entity.HostListItem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class tests the {@link org.adaway.db.dao.HostEntryDao#syncChanges()} host entries against a
+ * {@link HostEntryBuilder#rebuild()} of the same hosts lists, and the host entries observers
+ * notification on rebuild.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostEntrySyncTest extends DbTest {
+    private static final String SELECT_ENTRIES_STATEMENT = "SELECT `host`, `type`, `redirection` " +
+            "FROM `host_entries` ORDER BY `host`";
+    private static final int HOST_COUNT = 100;
+
+    @Test
+    public void testSyncMatchesRebuild() {
+        for (int i = 0; i < HOST_COUNT; i++) {
+            insertBlockedHost("host" + i + ".example.com", EXTERNAL_SOURCE_ID);
+        }
+        insertRedirectedHost("host0.example.com", "1.1.1.1", EXTERNAL_SOURCE_ID);
+        this.hostEntryBuilder.rebuild();
+        // Allow, block, redirect and disable hosts
+        insertAllowedHost("host1?.example.com", USER_SOURCE_ID);
+        insertBlockedHost("new.example.com", USER_SOURCE_ID);
+        insertRedirectedHost("host0.example.com", "2.2.2.2", USER_SOURCE_ID);
+        insertRedirectedHost("host2.example.com", "3.3.3.3", USER_SOURCE_ID);
+        HostListItem item = this.hostListItemDao.getUserList()
+                .stream()
+                .filter(userItem -> "new.example.com".equals(userItem.getHost()))
+                .findAny()
+                .orElseThrow(AssertionError::new);
+        item.setEnabled(false);
+        this.hostListItemDao.update(item);
+        this.hostListItemDao.deleteUserFromHost("host2.example.com");
+        // Check the synchronized entries against the rebuilt ones
+        assertTrue(this.hostEntryDao.syncChanges());
+        List<String> syncedEntries = getEntries();
+        this.hostEntryBuilder.rebuild();
+        List<String> rebuiltEntries = getEntries();
+        assertEquals(rebuiltEntries, syncedEntries);
+        assertEquals(HOST_COUNT - 10, rebuiltEntries.size());
+    }
+
+    @Test
+    public void testRebuildNotifiesObservers() throws InterruptedException {
+        insertBlockedHost("host.example.com", EXTERNAL_SOURCE_ID);
+        this.hostEntryBuilder.rebuild();
+        AtomicReference<CountDownLatch> invalidation = new AtomicReference<>(new CountDownLatch(1));
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("host_entries") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidation.get().countDown();
+            }
+        };
+        this.db.getInvalidationTracker().addObserver(observer);
+        try {
+            // Check each rebuild notifies, the previous one keeping the observed table
+            for (int i = 0; i < 2; i++) {
+                CountDownLatch latch = new CountDownLatch(1);
+                invalidation.set(latch);
+                insertBlockedHost("host" + i + ".example.com", EXTERNAL_SOURCE_ID);
+                this.hostEntryBuilder.rebuild();
+                assertTrue(latch.await(2, TimeUnit.SECONDS));
+            }
+        } finally {
+            this.db.getInvalidationTracker().removeObserver(observer);
+        }
+    }
+
+    private List<String> getEntries() {
+        try (Cursor cursor = this.db.query(SELECT_ENTRIES_STATEMENT, null)) {
+            List<String> entries = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                entries.add(cursor.getString(0) + " " + cursor.getInt(1) + " " + cursor.getString(2));
+            }
+            return entries;
+        }
+    }
+}
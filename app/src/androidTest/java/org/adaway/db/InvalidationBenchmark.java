@@ -0,0 +1,101 @@
+package org.adaway.db;
+
+import static org.adaway.db.entity.ListType.BLOCKED;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+
+import org.adaway.db.entity.HostListItem;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class benchmarks batch writes to the hosts lists while observed, as with the home screen
+ * open, through the DAO and through the {@link HostListItemBulkLoader}.<br>
+ * Results are logged with the {@value #TAG} tag.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class InvalidationBenchmark extends DbTest {
+    private static final String TAG = "InvalidationBenchmark";
+    private static final int BATCH_COUNT = 200;
+    private static final int BATCH_SIZE = 500;
+    private static final int SETTLE_TIME = 1000;
+
+    @Test
+    public void benchmark() throws IOException, InterruptedException {
+        run("DAO batches", () -> {
+            for (int batch = 0; batch < BATCH_COUNT; batch++) {
+                List<HostListItem> items = new ArrayList<>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    HostListItem item = new HostListItem();
+                    item.setType(BLOCKED);
+                    item.setHost(getHost(batch, i));
+                    item.setEnabled(true);
+                    item.setSourceId(EXTERNAL_SOURCE_ID);
+                    items.add(item);
+                }
+                this.hostListItemDao.insert(items);
+            }
+        });
+        this.hostListItemDao.clearSourceHosts(EXTERNAL_SOURCE_ID);
+        HostListItemBulkLoader bulkLoader = new HostListItemBulkLoader(this.db);
+        AtomicInteger batchCount = new AtomicInteger();
+        run("bulk loader", () -> bulkLoader.swap(bulkLoader.load(EXTERNAL_SOURCE_ID, () -> {
+            int batchIndex = batchCount.getAndIncrement();
+            if (batchIndex == BATCH_COUNT) {
+                return null;
+            }
+            HostListItemBulkLoader.Batch batch = new HostListItemBulkLoader.Batch(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                String host = getHost(batchIndex, i);
+                batch.add(host, BLOCKED, null, HostListItemBulkLoader.fingerprint(host, BLOCKED, null));
+            }
+            return batch;
+        })));
+    }
+
+    private void run(String label, Writer writer) throws IOException, InterruptedException {
+        AtomicInteger notifications = new AtomicInteger();
+        // Re-run a distinct host count on each notification, as the observed queries do
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("hosts_lists") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                notifications.incrementAndGet();
+                try (Cursor cursor = db.query("SELECT COUNT(DISTINCT host_id) FROM hosts_lists WHERE type = 0 AND enabled = 1", null)) {
+                    cursor.moveToFirst();
+                }
+            }
+        };
+        this.db.getInvalidationTracker().addObserver(observer);
+        long start = System.nanoTime();
+        this.db.enterBulkLoad();
+        try {
+            writer.write();
+        } finally {
+            this.db.exitBulkLoad();
+        }
+        long time = System.nanoTime() - start;
+        // Let the pending notifications run
+        Thread.sleep(SETTLE_TIME);
+        this.db.getInvalidationTracker().removeObserver(observer);
+        Log.i(TAG, String.format("%s: %d items written in %dms, %d notifications.",
+                label, BATCH_COUNT * BATCH_SIZE, time / 1_000_000, notifications.get()));
+    }
+
+    private static String getHost(int batch, int index) {
+        return "host" + (batch * BATCH_SIZE + index) + ".example.com";
+    }
+
+    private interface Writer {
+        void write() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,94 @@
+package org.adaway.db;
+
+import static org.adaway.db.entity.ListType.BLOCKED;
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.db.entity.HostListItem;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * This class benchmarks the latency of the first and the 5000th page of the hosts lists, paged by
+ * offset and by key.<br>
+ * Results are logged with the {@value #TAG} tag.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class ListPagingBenchmark extends DbTest {
+    private static final String TAG = "ListPagingBenchmark";
+    private static final int PAGE_SIZE = 50;
+    private static final int DEEP_PAGE = 5000;
+    private static final int ITEM_COUNT = (DEEP_PAGE + 10) * PAGE_SIZE;
+    private static final int RUN_COUNT = 5;
+    private static final String OFFSET_QUERY = "SELECT l.id, h.host FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id " +
+            "WHERE l.type = 0 AND h.host LIKE '%%' AND ((1 == 0 AND l.source_id == 1) || (1 == 1)) GROUP BY h.host ORDER BY h.host ASC LIMIT ? OFFSET ?";
+
+    @Test
+    public void benchmark() {
+        insertItems();
+        // Get the key of the deep page, the last host of the previous page
+        String deepKey;
+        try (Cursor cursor = this.db.query(OFFSET_QUERY, new Object[]{1, DEEP_PAGE * PAGE_SIZE - 1})) {
+            cursor.moveToFirst();
+            deepKey = cursor.getString(cursor.getColumnIndexOrThrow("host"));
+        }
+        long offsetFirst = timeOffset(0);
+        long offsetDeep = timeOffset(DEEP_PAGE * PAGE_SIZE);
+        long keysetFirst = timeKeyset("");
+        long keysetDeep = timeKeyset(deepKey);
+        Log.i(TAG, String.format("offset: page 1 %.2fms, page %d %.2fms.", offsetFirst / 1e6, DEEP_PAGE + 1, offsetDeep / 1e6));
+        Log.i(TAG, String.format("keyset: page 1 %.2fms, page %d %.2fms.", keysetFirst / 1e6, DEEP_PAGE + 1, keysetDeep / 1e6));
+    }
+
+    private void insertItems() {
+        this.db.runInTransaction(() -> {
+            try (SupportSQLiteStatement nameStatement = this.db.compileStatement("INSERT INTO `host_names` " +
+                    "(`id`, `host`, `reversed_host`) VALUES (?, ?, '')");
+                 SupportSQLiteStatement statement = this.db.compileStatement("INSERT INTO `hosts_lists` " +
+                         "(`host_id`, `type`, `enabled`, `source_id`) VALUES (?, 0, 1, ?)")) {
+                for (int i = 0; i < ITEM_COUNT; i++) {
+                    nameStatement.bindLong(1, i + 1);
+                    nameStatement.bindString(2, String.format("host%07d.example.com", i));
+                    nameStatement.executeInsert();
+                    statement.bindLong(1, i + 1);
+                    statement.bindLong(2, EXTERNAL_SOURCE_ID);
+                    statement.executeInsert();
+                }
+            }
+            return null;
+        });
+    }
+
+    private long timeOffset(int offset) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            long start = System.nanoTime();
+            int count = 0;
+            try (Cursor cursor = this.db.query(OFFSET_QUERY, new Object[]{PAGE_SIZE, offset})) {
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(PAGE_SIZE, count);
+        }
+        return best;
+    }
+
+    private long timeKeyset(String after) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            long start = System.nanoTime();
+            List<HostListItem> items = this.hostListItemDao.getListAfter(BLOCKED.getValue(), true, "%%", after, PAGE_SIZE);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(PAGE_SIZE, items.size());
+        }
+        return best;
+    }
+}
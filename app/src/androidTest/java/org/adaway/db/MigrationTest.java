@@ -0,0 +1,101 @@
+package org.adaway.db;
+
+import static org.adaway.db.Migrations.MIGRATION_10_11;
+import static org.adaway.db.Migrations.MIGRATION_11_12;
+import static org.adaway.db.Migrations.MIGRATION_12_13;
+import static org.adaway.db.Migrations.MIGRATION_13_14;
+import static org.adaway.db.Migrations.MIGRATION_7_8;
+import static org.adaway.db.Migrations.MIGRATION_8_9;
+import static org.adaway.db.Migrations.MIGRATION_9_10;
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+
+import androidx.room.migration.Migration;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * This class tests the database migrations from the first exported schema to the latest one.<br>
+ * Each migrated schema is validated against the exported one.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String TEST_DB = "migration-test";
+    private static final int FIRST_EXPORTED_VERSION = 7;
+    private static final int LATEST_VERSION = 14;
+    private static final Migration[] MIGRATIONS = {
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12,
+            MIGRATION_12_13,
+            MIGRATION_13_14
+    };
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            AppDatabase.class
+    );
+
+    @Test
+    public void testMigrateToLatest() throws IOException {
+        try (SupportSQLiteDatabase db = this.helper.createDatabase(TEST_DB, FIRST_EXPORTED_VERSION)) {
+            db.execSQL("INSERT INTO `hosts_sources` (`id`, `label`, `url`, `enabled`, `allowEnabled`, `redirectEnabled`, `size`) VALUES " +
+                    "(1, 'User', 'content://org.adaway/user/hosts', 1, 1, 1, 3), " +
+                    "(2, 'AdAway', 'https://adaway.org/hosts.txt', 1, 0, 0, 2)");
+            db.execSQL("INSERT INTO `hosts_lists` (`host`, `type`, `enabled`, `redirection`, `source_id`) VALUES " +
+                    "('ads.example.com', 0, 1, NULL, 1), " +
+                    "('ads.example.com', 0, 1, NULL, 2), " +
+                    "('tracker.example.com', 0, 0, NULL, 2), " +
+                    "('adaway.org', 1, 1, NULL, 1), " +
+                    "('github.com', 2, 1, '1.1.1.1', 1)");
+            // Add an entry left without hosts list item
+            db.execSQL("INSERT INTO `host_entries` (`host`, `type`, `redirection`) VALUES " +
+                    "('ads.example.com', 0, NULL), " +
+                    "('github.com', 2, '1.1.1.1'), " +
+                    "('stale.example.com', 0, NULL)");
+        }
+        SupportSQLiteDatabase db = this.helper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true, MIGRATIONS);
+        // Check hosts lists items and host dictionary
+        assertEquals(5, queryInt(db, "SELECT COUNT(*) FROM `hosts_lists`"));
+        assertEquals(4, queryInt(db, "SELECT COUNT(*) FROM `host_names`"));
+        // Check host dictionary full-text search index
+        assertEquals(2, queryInt(db, "SELECT COUNT(*) FROM `host_names_fts` WHERE `host_names_fts` MATCH '\"example com*\"'"));
+        // Check reversed hosts, including the entry left without hosts list item
+        assertEquals(1, queryInt(db, "SELECT COUNT(*) FROM `host_names` WHERE `reversed_host` = 'com.example.ads'"));
+        assertEquals(0, queryInt(db, "SELECT COUNT(*) FROM `host_names` WHERE `reversed_host` = `host`"));
+        assertEquals(1, queryInt(db, "SELECT COUNT(*) FROM `host_entries` WHERE `reversed_host` = 'com.example.stale'"));
+        assertEquals(0, queryInt(db, "SELECT COUNT(*) FROM `host_entries` WHERE `reversed_host` = ''"));
+        // Check all hosts are marked as changed
+        assertEquals(4, queryInt(db, "SELECT COUNT(*) FROM `host_entry_changes`"));
+        // Check host counters
+        assertEquals(1, queryInt(db, "SELECT `count` FROM `host_counters` WHERE `type` = 0"));
+        assertEquals(1, queryInt(db, "SELECT `count` FROM `host_counters` WHERE `type` = 1"));
+        assertEquals(1, queryInt(db, "SELECT `count` FROM `host_counters` WHERE `type` = 2"));
+        // Check host counters follow hosts lists changes
+        db.execSQL("UPDATE `hosts_lists` SET `enabled` = 1 WHERE `host_id` = (SELECT `id` FROM `host_names` WHERE `host` = 'tracker.example.com')");
+        assertEquals(2, queryInt(db, "SELECT `count` FROM `host_counters` WHERE `type` = 0"));
+        // Check hosts sources
+        assertEquals(0, queryInt(db, "SELECT COUNT(*) FROM `hosts_sources` WHERE `contentDigest` IS NOT NULL OR `contentUnchanged` = 1"));
+    }
+
+    private static int queryInt(SupportSQLiteDatabase db, String query) {
+        try (Cursor cursor = db.query(query)) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+}
@@ -27,13 +27,13 @@ public class SourceDbTest extends DbTest {
         // Insert blocked hosts
         insertBlockedHost("bingads.microsoft.com", EXTERNAL_SOURCE_ID);
         insertBlockedHost("ads.yahoo.com", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted blocked hosts
         assertEquals(2, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(2, this.hostEntryDao.getAll().size());
         // Delete source
         this.hostsSourceDao.delete(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         List<HostsSource> sources = this.hostsSourceDao.getAll();
         assertEquals(0, sources.size());
         // Check related hosts cleaning
@@ -50,18 +50,18 @@ public class SourceDbTest extends DbTest {
         insertBlockedHost("ads.google.com", USER_SOURCE_ID);
         insertBlockedHost("bingads.microsoft.com", EXTERNAL_SOURCE_ID);
         insertBlockedHost("ads.yahoo.com", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted blocked hosts
         assertEquals(5, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(5, this.hostEntryDao.getAll().size());
         // Disabled external source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(3, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(3, this.hostEntryDao.getAll().size());
         // Re-enable external source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(5, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(5, this.hostEntryDao.getAll().size());
     }
@@ -71,20 +71,20 @@ public class SourceDbTest extends DbTest {
         // Insert blocked and allowed host
         insertBlockedHost("adaway.org", USER_SOURCE_ID);
         insertAllowedHost("adaway.org", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted blocked hosts
         assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(1, getOrAwaitValue(this.allowedHostCount).intValue());
         assertEquals(0, this.hostEntryDao.getAll().size());
         // Disabled a source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(0, getOrAwaitValue(this.allowedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
         // Re-enable a source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(1, getOrAwaitValue(this.allowedHostCount).intValue());
         assertEquals(0, this.hostEntryDao.getAll().size());
@@ -95,18 +95,18 @@ public class SourceDbTest extends DbTest {
         // Insert redirected hosts
         insertRedirectedHost("github.com", "1.1.1.1", USER_SOURCE_ID);
         insertRedirectedHost("github.com", "2.2.2.2", EXTERNAL_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted blocked hosts
         assertEquals(1, getOrAwaitValue(this.redirectedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
         // Disabled a source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.redirectedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
         // Re-enable a source
         this.hostsSourceDao.toggleEnabled(this.externalHostSource);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         assertEquals(1, getOrAwaitValue(this.redirectedHostCount).intValue());
         assertEquals(1, this.hostEntryDao.getAll().size());
     }
@@ -0,0 +1,92 @@
+package org.adaway.db;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.db.entity.HostListItem;
+import org.adaway.util.ReversedHost;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * This class benchmarks the lookup of a domain and its subdomains in the hosts lists, with a
+ * {@code LIKE} suffix scan on hosts and with a range scan on reversed hosts.<br>
+ * Results are logged with the {@value #TAG} tag.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class SubdomainQueryBenchmark extends DbTest {
+    private static final String TAG = "SubdomainQueryBenchmark";
+    private static final int DOMAIN_COUNT = 50_000;
+    private static final int SUBDOMAIN_COUNT = 4;
+    private static final int RUN_COUNT = 5;
+    private static final String DOMAIN = "domain12345.com";
+    private static final String LIKE_QUERY = "SELECT l.id, h.host FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id " +
+            "WHERE h.host = ? OR h.host LIKE '%.' || ? ORDER BY h.host";
+
+    @Test
+    public void benchmark() {
+        insertItems();
+        long like = timeLike();
+        long reversed = timeReversed();
+        Log.i(TAG, String.format("like: %.2fms, reversed range: %.2fms.", like / 1e6, reversed / 1e6));
+    }
+
+    private void insertItems() {
+        this.db.runInTransaction(() -> {
+            try (SupportSQLiteStatement nameStatement = this.db.compileStatement("INSERT INTO `host_names` " +
+                    "(`host`, `reversed_host`) VALUES (?, ?)");
+                 SupportSQLiteStatement statement = this.db.compileStatement("INSERT INTO `hosts_lists` " +
+                         "(`host_id`, `type`, `enabled`, `source_id`) VALUES (?, 0, 1, ?)")) {
+                for (int i = 0; i < DOMAIN_COUNT; i++) {
+                    String domain = "domain" + i + ".com";
+                    insertItem(nameStatement, statement, domain);
+                    for (int j = 0; j < SUBDOMAIN_COUNT; j++) {
+                        insertItem(nameStatement, statement, "sub" + j + "." + domain);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private void insertItem(SupportSQLiteStatement nameStatement, SupportSQLiteStatement statement, String host) {
+        nameStatement.bindString(1, host);
+        nameStatement.bindString(2, ReversedHost.reverse(host));
+        statement.bindLong(1, nameStatement.executeInsert());
+        statement.bindLong(2, EXTERNAL_SOURCE_ID);
+        statement.executeInsert();
+    }
+
+    private long timeLike() {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            long start = System.nanoTime();
+            int count = 0;
+            try (Cursor cursor = this.db.query(LIKE_QUERY, new Object[]{DOMAIN, DOMAIN})) {
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(SUBDOMAIN_COUNT + 1, count);
+        }
+        return best;
+    }
+
+    private long timeReversed() {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            long start = System.nanoTime();
+            List<HostListItem> items = this.hostListItemDao.getItemsUnder(DOMAIN);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(SUBDOMAIN_COUNT + 1, items.size());
+        }
+        return best;
+    }
+}
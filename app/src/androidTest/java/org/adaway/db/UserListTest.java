@@ -31,7 +31,7 @@ public class UserListTest extends DbTest {
         insertBlockedHost("ads.google.com", USER_SOURCE_ID);
         insertBlockedHost("bingads.microsoft.com", USER_SOURCE_ID);
         insertBlockedHost("ads.yahoo.com", USER_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted blocked hosts
         assertEquals(5, getOrAwaitValue(this.blockedHostCount).intValue());
         assertEquals(5, this.hostEntryDao.getAll().size());
@@ -68,7 +68,7 @@ public class UserListTest extends DbTest {
         insertAllowedHost("*.google.com", USER_SOURCE_ID);
         insertAllowedHost("ads.yahoo.com", USER_SOURCE_ID);
         insertAllowedHost("adaway.org", USER_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted allowed hosts
         assertEquals(3, getOrAwaitValue(this.allowedHostCount).intValue());
         // Test overall list
@@ -106,7 +106,7 @@ public class UserListTest extends DbTest {
         // Insert redirected hosts
         insertRedirectedHost("ads.yahoo.com", "1.2.3.4", USER_SOURCE_ID);
         insertRedirectedHost("github.com", "1.2.3.4", USER_SOURCE_ID);
-        this.hostEntryDao.sync();
+        this.hostEntryBuilder.rebuild();
         // Test inserted redirected hosts
         assertEquals(2, getOrAwaitValue(this.redirectedHostCount).intValue());
         // Test overall list
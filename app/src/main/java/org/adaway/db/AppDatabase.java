@@ -15,9 +15,13 @@ import org.adaway.db.converter.ZonedDateTimeConverter;
 import org.adaway.db.dao.HostEntryDao;
 import org.adaway.db.dao.HostListItemDao;
 import org.adaway.db.dao.HostsSourceDao;
-import org.adaway.db.entity.HostListItem;
+import org.adaway.db.entity.HostListRecord;
+import org.adaway.db.entity.HostName;
+import org.adaway.db.entity.HostNameFts;
 import org.adaway.db.entity.HostsSource;
 import org.adaway.db.entity.HostEntry;
+import org.adaway.db.entity.HostEntryChange;
+import org.adaway.db.entity.HostCounter;
 import org.adaway.util.AppExecutors;
 
 import static org.adaway.db.Migrations.MIGRATION_1_2;
@@ -26,6 +30,13 @@ import static org.adaway.db.Migrations.MIGRATION_3_4;
 import static org.adaway.db.Migrations.MIGRATION_4_5;
 import static org.adaway.db.Migrations.MIGRATION_5_6;
 import static org.adaway.db.Migrations.MIGRATION_6_7;
+import static org.adaway.db.Migrations.MIGRATION_7_8;
+import static org.adaway.db.Migrations.MIGRATION_8_9;
+import static org.adaway.db.Migrations.MIGRATION_9_10;
+import static org.adaway.db.Migrations.MIGRATION_10_11;
+import static org.adaway.db.Migrations.MIGRATION_11_12;
+import static org.adaway.db.Migrations.MIGRATION_12_13;
+import static org.adaway.db.Migrations.MIGRATION_13_14;
 import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
 import static org.adaway.db.entity.HostsSource.USER_SOURCE_URL;
 
@@ -34,13 +45,17 @@ import static org.adaway.db.entity.HostsSource.USER_SOURCE_URL;
  *
  * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
  */
-@Database(entities = {HostsSource.class, HostListItem.class, HostEntry.class}, version = 7)
+@Database(entities = {HostsSource.class, HostListRecord.class, HostName.class, HostEntry.class, HostEntryChange.class, HostCounter.class, HostNameFts.class}, version = 14)
 @TypeConverters({ListTypeConverter.class, ZonedDateTimeConverter.class})
 public abstract class AppDatabase extends RoomDatabase {
     /**
      * The database singleton instance.
      */
     private static volatile AppDatabase instance;
+    /**
+     * The number of bulk loads in progress.
+     */
+    private int bulkLoadCount;
 
     /**
      * Get the database instance.
@@ -56,20 +71,35 @@ public abstract class AppDatabase extends RoomDatabase {
                             context.getApplicationContext(),
                             AppDatabase.class,
                             "app.db"
+                    ).setJournalMode(
+                            JournalMode.WRITE_AHEAD_LOGGING
                     ).addCallback(new Callback() {
                         @Override
                         public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                            createTriggers(db);
                             AppExecutors.getInstance().diskIO().execute(
                                     () -> AppDatabase.initialize(context, instance)
                             );
                         }
+
+                        @Override
+                        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                            DatabaseProfile.DEFAULT.apply(db);
+                        }
                     }).addMigrations(
                             MIGRATION_1_2,
                             MIGRATION_2_3,
                             MIGRATION_3_4,
                             MIGRATION_4_5,
                             MIGRATION_5_6,
-                            MIGRATION_6_7
+                            MIGRATION_6_7,
+                            MIGRATION_7_8,
+                            MIGRATION_8_9,
+                            MIGRATION_9_10,
+                            MIGRATION_10_11,
+                            MIGRATION_11_12,
+                            MIGRATION_12_13,
+                            MIGRATION_13_14
                     ).build();
                 }
             }
@@ -77,6 +107,16 @@ public abstract class AppDatabase extends RoomDatabase {
         return instance;
     }
 
+    /**
+     * Create the triggers of a new database.
+     *
+     * @param db The database to create the triggers into.
+     */
+    static void createTriggers(SupportSQLiteDatabase db) {
+        HostEntryChangeTriggers.create(db);
+        HostCounterTriggers.create(db);
+    }
+
     /**
      * Initialize the database content.
      */
@@ -111,6 +151,28 @@ public abstract class AppDatabase extends RoomDatabase {
         hostsSourceDao.insert(source3);
     }
 
+    /**
+     * Enter bulk load mode, applying the {@link DatabaseProfile#BULK_LOAD} profile.<br>
+     * Each call must be paired with a call to {@link #exitBulkLoad()}, outside of any transaction.
+     */
+    public synchronized void enterBulkLoad() {
+        if (this.bulkLoadCount++ == 0) {
+            DatabaseProfile.BULK_LOAD.apply(getOpenHelper().getWritableDatabase());
+        }
+    }
+
+    /**
+     * Exit bulk load mode, reverting to the {@link DatabaseProfile#DEFAULT} profile and truncating
+     * the write-ahead log once the last bulk load exits.
+     */
+    public synchronized void exitBulkLoad() {
+        if (this.bulkLoadCount > 0 && --this.bulkLoadCount == 0) {
+            SupportSQLiteDatabase database = getOpenHelper().getWritableDatabase();
+            DatabaseProfile.DEFAULT.apply(database);
+            DatabaseProfile.checkpoint(database);
+        }
+    }
+
     /**
      * Get the hosts source DAO.
      *
@@ -0,0 +1,128 @@
+package org.adaway.db;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * This class is a SQLite performance profile, applied to the database connection with pragmas.<br>
+ * The {@link #DEFAULT} profile is applied at open time. The {@link #BULK_LOAD} profile is applied
+ * while sources are updated to favor write throughput.<br>
+ * Pragmas apply to the primary connection, which runs all the writes. The read connections of the
+ * write-ahead log pool keep the SQLite defaults.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class DatabaseProfile {
+    /**
+     * The default profile: synchronization at checkpoints, 8 MiB page cache, 64 MiB memory mapped
+     * I/O, in memory temporary tables and checkpoints every 1000 pages.
+     */
+    public static final DatabaseProfile DEFAULT = new DatabaseProfile(Synchronous.NORMAL, 8 * 1024, 64 * 1024 * 1024, TempStore.MEMORY, 1000);
+    /**
+     * The bulk load profile: the default profile with 32 MiB page cache and checkpoints every
+     * 10000 pages.<br>
+     * Synchronization is kept as turning it off brings no measurable gain with write-ahead log but
+     * could corrupt the user lists on power loss.
+     */
+    public static final DatabaseProfile BULK_LOAD = new DatabaseProfile(Synchronous.NORMAL, 32 * 1024, 64 * 1024 * 1024, TempStore.MEMORY, 10000);
+
+    private final Synchronous synchronous;
+    private final int cacheSizeKiB;
+    private final long mmapSize;
+    private final TempStore tempStore;
+    private final int walAutoCheckpointPages;
+
+    /**
+     * Constructor.
+     *
+     * @param synchronous            The synchronization of the writes to the storage.
+     * @param cacheSizeKiB           The page cache size, in KiB.
+     * @param mmapSize               The maximum size of the database to access with memory mapped I/O, in bytes, {@code 0} to disable it.
+     * @param tempStore              The storage of the temporary tables and indices.
+     * @param walAutoCheckpointPages The number of write-ahead log pages to automatically checkpoint at.
+     */
+    public DatabaseProfile(Synchronous synchronous, int cacheSizeKiB, long mmapSize, TempStore tempStore, int walAutoCheckpointPages) {
+        this.synchronous = synchronous;
+        this.cacheSizeKiB = cacheSizeKiB;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+    }
+
+    /**
+     * Apply the profile to a database connection.<br>
+     * It must not be applied within a transaction.
+     *
+     * @param database The database to apply the profile to.
+     */
+    public void apply(SupportSQLiteDatabase database) {
+        pragma(database, "synchronous = " + this.synchronous.name());
+        // Negative cache size is in KiB instead of pages
+        pragma(database, "cache_size = " + -this.cacheSizeKiB);
+        pragma(database, "mmap_size = " + this.mmapSize);
+        pragma(database, "temp_store = " + this.tempStore.name());
+        pragma(database, "wal_autocheckpoint = " + this.walAutoCheckpointPages);
+    }
+
+    /**
+     * Checkpoint the write-ahead log and truncate it.
+     *
+     * @param database The database to checkpoint.
+     */
+    static void checkpoint(SupportSQLiteDatabase database) {
+        pragma(database, "wal_checkpoint(TRUNCATE)");
+    }
+
+    private static void pragma(SupportSQLiteDatabase database, String pragma) {
+        // Some pragmas return their new value so they can not be run as statement
+        try (Cursor cursor = database.query("PRAGMA " + pragma)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "synchronous=" + this.synchronous +
+                ", cache_size=" + this.cacheSizeKiB + "KiB" +
+                ", mmap_size=" + this.mmapSize +
+                ", temp_store=" + this.tempStore +
+                ", wal_autocheckpoint=" + this.walAutoCheckpointPages;
+    }
+
+    /**
+     * This enumerate specifies the synchronization of the writes to the storage.
+     */
+    public enum Synchronous {
+        /**
+         * No synchronization, the database may be corrupted on power loss.
+         */
+        OFF,
+        /**
+         * Synchronization at checkpoints, the last transactions may be lost on power loss.
+         */
+        NORMAL,
+        /**
+         * Synchronization at each transaction.
+         */
+        FULL
+    }
+
+    /**
+     * This enumerate specifies the storage of the temporary tables and indices.
+     */
+    public enum TempStore {
+        /**
+         * The compile time default storage.
+         */
+        DEFAULT,
+        /**
+         * File storage.
+         */
+        FILE,
+        /**
+         * Memory storage.
+         */
+        MEMORY
+    }
+}
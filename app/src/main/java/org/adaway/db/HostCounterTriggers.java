@@ -0,0 +1,59 @@
+package org.adaway.db;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * This class declares the triggers maintaining the {@link org.adaway.db.entity.HostCounter}.<br>
+ * Each counter holds the number of distinct hosts of the enabled hosts list items of its type. An
+ * inserted, updated or deleted item changes a counter only when it adds the first enabled item of
+ * its host and type, or removes the last one. The check is a lookup on the type, enabled and host index, so
+ * user edits, source loads and source deletions all keep the counters exact without counting the
+ * items again.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+final class HostCounterTriggers {
+    private static final String INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_insert_count` " +
+            "AFTER INSERT ON `hosts_lists` WHEN NEW.`enabled` = 1 AND NOT EXISTS (SELECT 1 FROM `hosts_lists` " +
+            "WHERE `type` = NEW.`type` AND `host_id` = NEW.`host_id` AND `enabled` = 1 AND `id` != NEW.`id`) BEGIN " +
+            "UPDATE `host_counters` SET `count` = `count` + 1 WHERE `type` = NEW.`type`; " +
+            "END";
+    private static final String UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_update_count` " +
+            "AFTER UPDATE OF `host_id`, `type`, `enabled` ON `hosts_lists` WHEN OLD.`enabled` = 1 OR NEW.`enabled` = 1 BEGIN " +
+            "UPDATE `host_counters` SET `count` = `count` - 1 WHERE `type` = OLD.`type` AND OLD.`enabled` = 1 " +
+            "AND NOT EXISTS (SELECT 1 FROM `hosts_lists` WHERE `type` = OLD.`type` AND `host_id` = OLD.`host_id` AND `enabled` = 1); " +
+            "UPDATE `host_counters` SET `count` = `count` + 1 WHERE `type` = NEW.`type` AND NEW.`enabled` = 1 " +
+            "AND NOT (OLD.`enabled` = 1 AND OLD.`type` = NEW.`type` AND OLD.`host_id` = NEW.`host_id`) " +
+            "AND NOT EXISTS (SELECT 1 FROM `hosts_lists` WHERE `type` = NEW.`type` AND `host_id` = NEW.`host_id` AND `enabled` = 1 AND `id` != NEW.`id`); " +
+            "END";
+    private static final String DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_delete_count` " +
+            "AFTER DELETE ON `hosts_lists` WHEN OLD.`enabled` = 1 AND NOT EXISTS (SELECT 1 FROM `hosts_lists` " +
+            "WHERE `type` = OLD.`type` AND `host_id` = OLD.`host_id` AND `enabled` = 1) BEGIN " +
+            "UPDATE `host_counters` SET `count` = `count` - 1 WHERE `type` = OLD.`type`; " +
+            "END";
+    private static final String RESET_COUNTERS_STATEMENT = "INSERT OR REPLACE INTO `host_counters` (`type`, `count`) " +
+            "VALUES (0, 0), (1, 0), (2, 0)";
+    private static final String COUNT_HOSTS_STATEMENT = "INSERT OR REPLACE INTO `host_counters` (`type`, `count`) " +
+            "SELECT `type`, COUNT(DISTINCT `host_id`) FROM `hosts_lists` WHERE `enabled` = 1 GROUP BY `type`";
+
+    /**
+     * Private constructor of utility class.
+     */
+    private HostCounterTriggers() {
+
+    }
+
+    /**
+     * Create the triggers maintaining the host counters and set the counters from the hosts lists.
+     *
+     * @param database The database to create the triggers into.
+     */
+    static void create(SupportSQLiteDatabase database) {
+        database.execSQL(INSERT_TRIGGER);
+        database.execSQL(UPDATE_TRIGGER);
+        database.execSQL(DELETE_TRIGGER);
+        // Set a counter for each type, even without item, as the triggers only update them
+        database.execSQL(RESET_COUNTERS_STATEMENT);
+        database.execSQL(COUNT_HOSTS_STATEMENT);
+    }
+}
@@ -0,0 +1,132 @@
+package org.adaway.db;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.db.dao.HostEntryDao;
+import org.adaway.db.entity.HostEntry;
+import org.adaway.util.WildcardMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * This class rebuilds all the {@link HostEntry} from the hosts lists.<br>
+ * The entries are built into a shadow table, then copied into the live one in a single
+ * transaction. Readers always see either the whole previous entries or the whole new ones, and
+ * never an empty or partial table while the entries are built.<br>
+ * The live table is emptied and filled in place rather than replaced, so the Room invalidation
+ * tracker triggers on it are kept and its observers are notified of the swap.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostEntryBuilder {
+    private static final String DROP_SHADOW_STATEMENT = "DROP TABLE IF EXISTS `host_entries_shadow`";
+    private static final String CREATE_SHADOW_STATEMENT = "CREATE TABLE `host_entries_shadow` " +
+            "(`host` TEXT NOT NULL, `type` INTEGER NOT NULL, `redirection` TEXT, " +
+            "`reversed_host` TEXT NOT NULL DEFAULT '', PRIMARY KEY(`host`))";
+    private static final String IMPORT_BLOCKED_STATEMENT = "INSERT OR IGNORE INTO `host_entries_shadow` " +
+            "(`host`, `type`, `redirection`, `reversed_host`) " +
+            "SELECT `host`, `type`, `redirection`, `reversed_host` FROM `hosts_lists` " +
+            "JOIN `host_names` ON `host_names`.`id` = `host_id` WHERE `type` = 0 AND `enabled` = 1";
+    private static final String SELECT_HOSTS_AFTER_STATEMENT = "SELECT `host` FROM `host_entries_shadow` " +
+            "WHERE `host` > ? ORDER BY `host` LIMIT ?";
+    private static final String DELETE_HOST_STATEMENT = "DELETE FROM `host_entries_shadow` WHERE `host` = ?";
+    private static final String IMPORT_REDIRECTED_STATEMENT = "INSERT OR REPLACE INTO `host_entries_shadow` " +
+            "(`host`, `type`, `redirection`, `reversed_host`) " +
+            "SELECT `host`, `type`, `redirection`, `reversed_host` FROM `hosts_lists` AS `redirected` " +
+            "JOIN `host_names` ON `host_names`.`id` = `redirected`.`host_id` " +
+            "WHERE `type` = 2 AND `enabled` = 1 AND `redirected`.`id` = (SELECT `id` FROM `hosts_lists` " +
+            "WHERE `host_id` = `redirected`.`host_id` AND `type` = 2 AND `enabled` = 1 ORDER BY `source_id` ASC, `id` ASC LIMIT 1)";
+    private static final String CLEAR_CHANGES_STATEMENT = "DELETE FROM `host_entry_changes`";
+    private static final String COUNT_STATEMENT = "SELECT COUNT(*) FROM `host_entries`";
+    private static final String COUNT_SHADOW_STATEMENT = "SELECT COUNT(*) FROM `host_entries_shadow`";
+    private static final String CLEAR_ENTRIES_STATEMENT = "DELETE FROM `host_entries`";
+    private static final String COPY_SHADOW_STATEMENT = "INSERT INTO `host_entries` " +
+            "(`host`, `type`, `redirection`, `reversed_host`) " +
+            "SELECT `host`, `type`, `redirection`, `reversed_host` FROM `host_entries_shadow`";
+
+    private final AppDatabase database;
+
+    /**
+     * Constructor.
+     *
+     * @param database The application database.
+     */
+    public HostEntryBuilder(AppDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Rebuild the host entries from the current hosts lists.<br>
+     * The precedence is: blocked hosts, then allowed hosts, then redirected hosts.
+     */
+    public synchronized void rebuild() {
+        build();
+        swap();
+    }
+
+    private void build() {
+        HostEntryDao hostEntryDao = this.database.hostEntryDao();
+        this.database.runInTransaction(() -> {
+            SupportSQLiteDatabase writableDatabase = getWritableDatabase();
+            // Changes recorded from now on are not part of the build
+            writableDatabase.execSQL(CLEAR_CHANGES_STATEMENT);
+            writableDatabase.execSQL(DROP_SHADOW_STATEMENT);
+            writableDatabase.execSQL(CREATE_SHADOW_STATEMENT);
+            writableDatabase.execSQL(IMPORT_BLOCKED_STATEMENT);
+            WildcardMatcher allowedHosts = new WildcardMatcher(hostEntryDao.getEnabledAllowedHosts());
+            if (!allowedHosts.isEmpty()) {
+                try (SupportSQLiteStatement statement = this.database.compileStatement(DELETE_HOST_STATEMENT)) {
+                    hostEntryDao.forEachMatchingHost(this::getHostsAfter, allowedHosts, hosts -> {
+                        for (String host : hosts) {
+                            statement.bindString(1, host);
+                            statement.executeUpdateDelete();
+                        }
+                    });
+                }
+            }
+            writableDatabase.execSQL(IMPORT_REDIRECTED_STATEMENT);
+            return null;
+        });
+    }
+
+    private void swap() {
+        long startTime = System.currentTimeMillis();
+        int[] counts = this.database.runInTransaction(() -> {
+            int previousCount = count(COUNT_STATEMENT);
+            int newCount = count(COUNT_SHADOW_STATEMENT);
+            SupportSQLiteDatabase writableDatabase = getWritableDatabase();
+            writableDatabase.execSQL(CLEAR_ENTRIES_STATEMENT);
+            writableDatabase.execSQL(COPY_SHADOW_STATEMENT);
+            writableDatabase.execSQL(DROP_SHADOW_STATEMENT);
+            return new int[]{previousCount, newCount};
+        });
+        Timber.i("Swapped host entries in %dms: %d previous entries, %d new entries.",
+                System.currentTimeMillis() - startTime, counts[0], counts[1]);
+    }
+
+    private List<String> getHostsAfter(String after, int limit) {
+        try (Cursor cursor = this.database.query(SELECT_HOSTS_AFTER_STATEMENT, new Object[]{after, limit})) {
+            List<String> hosts = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                hosts.add(cursor.getString(0));
+            }
+            return hosts;
+        }
+    }
+
+    private int count(String statement) {
+        try (Cursor cursor = this.database.query(statement, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private SupportSQLiteDatabase getWritableDatabase() {
+        return this.database.getOpenHelper().getWritableDatabase();
+    }
+}
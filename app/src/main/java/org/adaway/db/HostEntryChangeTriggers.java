@@ -0,0 +1,53 @@
+package org.adaway.db;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * This class declares the triggers recording the {@link org.adaway.db.entity.HostEntryChange}.<br>
+ * Each inserted, updated or deleted hosts list item marks its host and type as changed, so the host
+ * entries can be synchronized for the changed hosts only. Once recorded, the replaced or deleted
+ * hosts no longer referenced by any item are removed from the host dictionary.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+final class HostEntryChangeTriggers {
+    private static final String INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_insert_change` " +
+            "AFTER INSERT ON `hosts_lists` BEGIN " +
+            "INSERT OR IGNORE INTO `host_entry_changes` (`host`, `type`) " +
+            "SELECT `host`, NEW.`type` FROM `host_names` WHERE `id` = NEW.`host_id`; " +
+            "END";
+    private static final String UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_update_change` " +
+            "AFTER UPDATE OF `host_id`, `type`, `enabled`, `redirection` ON `hosts_lists` BEGIN " +
+            "INSERT OR IGNORE INTO `host_entry_changes` (`host`, `type`) " +
+            "SELECT `host`, OLD.`type` FROM `host_names` WHERE `id` = OLD.`host_id`; " +
+            "INSERT OR IGNORE INTO `host_entry_changes` (`host`, `type`) " +
+            "SELECT `host`, NEW.`type` FROM `host_names` WHERE `id` = NEW.`host_id`; " +
+            "DELETE FROM `host_names` WHERE `id` = OLD.`host_id` AND OLD.`host_id` != NEW.`host_id` " +
+            "AND NOT EXISTS (SELECT 1 FROM `hosts_lists` WHERE `host_id` = OLD.`host_id`); " +
+            "END";
+    private static final String DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS `hosts_lists_delete_change` " +
+            "AFTER DELETE ON `hosts_lists` BEGIN " +
+            "INSERT OR IGNORE INTO `host_entry_changes` (`host`, `type`) " +
+            "SELECT `host`, OLD.`type` FROM `host_names` WHERE `id` = OLD.`host_id`; " +
+            "DELETE FROM `host_names` WHERE `id` = OLD.`host_id` " +
+            "AND NOT EXISTS (SELECT 1 FROM `hosts_lists` WHERE `host_id` = OLD.`host_id`); " +
+            "END";
+
+    /**
+     * Private constructor of utility class.
+     */
+    private HostEntryChangeTriggers() {
+
+    }
+
+    /**
+     * Create the triggers recording host entry changes and cleaning the host dictionary.
+     *
+     * @param database The database to create the triggers into.
+     */
+    static void create(SupportSQLiteDatabase database) {
+        database.execSQL(INSERT_TRIGGER);
+        database.execSQL(UPDATE_TRIGGER);
+        database.execSQL(DELETE_TRIGGER);
+    }
+}
@@ -0,0 +1,463 @@
+package org.adaway.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.Nullable;
+
+import org.adaway.db.entity.HostEntry;
+import org.adaway.db.entity.ListType;
+import org.adaway.util.WildcardMatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.adaway.db.entity.ListType.BLOCKED;
+import static org.adaway.db.entity.ListType.REDIRECTED;
+
+/**
+ * This class is an immutable in-memory index of the {@link HostEntry}, to look hosts up without
+ * querying the database.<br>
+ * Blocked hosts are reduced to a 64 bits hash, kept sorted, and their characters are packed into a
+ * single byte array in the same order to verify the matching hashes exactly. The few redirected
+ * hosts, and the hosts that are not ASCII, are kept in a side table. Looking a host up does not
+ * allocate.<br>
+ * Subdomain wildcards, like {@code *.example.com}, are indexed by their parent domain the same way.
+ * Hosts are hashed from their last character so a single pass gives the hash of each parent domain
+ * to probe. The precedence is the same as the {@link HostEntryBuilder}: the exact host entry
+ * applies first, then a redirected parent domain, then a blocked parent domain unless an allowed
+ * host matches.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class HostEntryIndex {
+    private static final String SELECT_STATEMENT = "SELECT `host`, `type`, `redirection` FROM `host_entries`";
+    private static final String SUBDOMAIN_WILDCARD = "*.";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The blocked hosts.
+     */
+    private final HostSet blockedHosts;
+    /**
+     * The domains whose subdomains are blocked.
+     */
+    private final HostSet blockedDomains;
+    /**
+     * The domains whose subdomains are redirected, with their redirection.
+     */
+    private final HostSet redirectedDomains;
+    /**
+     * The redirected and the non ASCII host entries, by host.
+     */
+    private final Map<String, HostEntry> entries;
+    /**
+     * The allowed hosts, preventing their parent domain from being blocked.
+     */
+    private final WildcardMatcher allowedHosts;
+
+    private HostEntryIndex(HostSet blockedHosts, HostSet blockedDomains, HostSet redirectedDomains,
+                           Map<String, HostEntry> entries, WildcardMatcher allowedHosts) {
+        this.blockedHosts = blockedHosts;
+        this.blockedDomains = blockedDomains;
+        this.redirectedDomains = redirectedDomains;
+        this.entries = entries;
+        this.allowedHosts = allowedHosts;
+    }
+
+    /**
+     * Load the index of the current host entries.
+     *
+     * @param database The application database.
+     * @return The index of the current host entries.
+     */
+    public static HostEntryIndex load(AppDatabase database) {
+        try (Cursor cursor = database.query(SELECT_STATEMENT, null)) {
+            List<String> blockedHosts = new ArrayList<>(cursor.getCount());
+            List<String> blockedDomains = new ArrayList<>();
+            List<String> redirectedDomains = new ArrayList<>();
+            List<String> domainRedirections = new ArrayList<>();
+            Map<String, HostEntry> entries = new HashMap<>();
+            while (cursor.moveToNext()) {
+                String host = cursor.getString(0);
+                ListType type = ListType.fromValue(cursor.getInt(1));
+                String redirection = cursor.isNull(2) ? null : cursor.getString(2);
+                if (!isAscii(host)) {
+                    entries.put(host, createEntry(host, type, redirection));
+                } else if (isSubdomainWildcard(host)) {
+                    String domain = host.substring(SUBDOMAIN_WILDCARD.length());
+                    if (type == BLOCKED) {
+                        blockedDomains.add(domain);
+                    } else {
+                        redirectedDomains.add(domain);
+                        domainRedirections.add(redirection);
+                    }
+                } else if (type == BLOCKED) {
+                    blockedHosts.add(host);
+                } else {
+                    entries.put(host, createEntry(host, type, redirection));
+                }
+            }
+            List<String> allowedHosts = blockedDomains.isEmpty() ?
+                    new ArrayList<>(0) :
+                    database.hostEntryDao().getEnabledAllowedHosts();
+            return new HostEntryIndex(
+                    new HostSet(blockedHosts, null),
+                    new HostSet(blockedDomains, null),
+                    new HostSet(redirectedDomains, domainRedirections),
+                    entries,
+                    new WildcardMatcher(allowedHosts)
+            );
+        }
+    }
+
+    private static HostEntry createEntry(String host, ListType type, @Nullable String redirection) {
+        HostEntry entry = new HostEntry();
+        entry.setHost(host);
+        entry.setType(type);
+        entry.setRedirection(redirection);
+        return entry;
+    }
+
+    /**
+     * Get the type of a host.
+     *
+     * @param host The host to look up.
+     * @return The host type, {@code null} if neither the host nor its parent domains have an entry.
+     */
+    @Nullable
+    public ListType getType(String host) {
+        HostEntry entry = this.entries.get(host);
+        if (entry != null) {
+            return entry.getType();
+        }
+        // Probe each parent domain and hash the host itself in a single pass
+        boolean redirectedDomain = false;
+        boolean blockedDomain = false;
+        int length = host.length();
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = length - 1; i >= 0; i--) {
+            char c = host.charAt(i);
+            if (c == '.' && i > 0 && i < length - 1) {
+                long domainHash = mix(hash);
+                redirectedDomain = redirectedDomain || this.redirectedDomains.indexOf(host, i + 1, domainHash) != -1;
+                blockedDomain = blockedDomain || this.blockedDomains.indexOf(host, i + 1, domainHash) != -1;
+            }
+            hash = (hash ^ c) * FNV_PRIME;
+        }
+        // An exact entry applies before the parent domains
+        if (this.blockedHosts.indexOf(host, 0, mix(hash)) != -1) {
+            return BLOCKED;
+        }
+        if (redirectedDomain) {
+            return REDIRECTED;
+        }
+        if (blockedDomain && !this.allowedHosts.matches(host)) {
+            return BLOCKED;
+        }
+        return null;
+    }
+
+    /**
+     * Get the redirection of a host.
+     *
+     * @param host The host to look up.
+     * @return The host redirection, {@code null} if the host is not redirected.
+     */
+    @Nullable
+    public String getRedirection(String host) {
+        HostEntry entry = this.entries.get(host);
+        if (entry != null) {
+            return entry.getRedirection();
+        }
+        if (this.blockedHosts.indexOf(host, 0, hash(host, 0)) != -1) {
+            return null;
+        }
+        int index = findRedirectedDomain(host);
+        return index == -1 ? null : this.redirectedDomains.getValue(index);
+    }
+
+    /**
+     * Get the number of indexed host entries.
+     *
+     * @return The number of indexed host entries.
+     */
+    public int size() {
+        return this.blockedHosts.size() + this.blockedDomains.size() + this.redirectedDomains.size() +
+                this.entries.size();
+    }
+
+    /**
+     * Find the closest parent domain of a host whose subdomains are redirected.
+     *
+     * @param host The host to look up.
+     * @return The index of the redirected domain, {@code -1} if none.
+     */
+    private int findRedirectedDomain(String host) {
+        if (this.redirectedDomains.size() == 0) {
+            return -1;
+        }
+        int found = -1;
+        int length = host.length();
+        long hash = FNV_OFFSET_BASIS;
+        // Parent domains are probed from the top level one, so the closest one is found last
+        for (int i = length - 1; i > 0; i--) {
+            char c = host.charAt(i);
+            if (c == '.' && i < length - 1) {
+                int index = this.redirectedDomains.indexOf(host, i + 1, mix(hash));
+                if (index != -1) {
+                    found = index;
+                }
+            }
+            hash = (hash ^ c) * FNV_PRIME;
+        }
+        return found;
+    }
+
+    private static boolean isAscii(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            if (host.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSubdomainWildcard(String host) {
+        return host.length() > SUBDOMAIN_WILDCARD.length() && host.startsWith(SUBDOMAIN_WILDCARD)
+                && host.indexOf('*', SUBDOMAIN_WILDCARD.length()) == -1
+                && host.indexOf('?', SUBDOMAIN_WILDCARD.length()) == -1;
+    }
+
+    /**
+     * Hash the end of a host, from its last character.
+     *
+     * @param host  The host to hash.
+     * @param start The index of the first character to hash.
+     * @return The hash of the host end.
+     */
+    private static long hash(String host, int start) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = host.length() - 1; i >= start; i--) {
+            hash = (hash ^ host.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalize a FNV hash with the Murmur3 mixer to spread its bits.
+     *
+     * @param hash The hash to finalize.
+     * @return The finalized hash.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * This class is a set of ASCII hosts, sorted by hash, with an optional value for each host.
+     */
+    private static final class HostSet {
+        /**
+         * The host hashes, sorted.
+         */
+        private final long[] hashes;
+        /**
+         * The host offsets in {@link #hosts}, in hash order, ending with the array length.
+         */
+        private final int[] offsets;
+        /**
+         * The host characters, in hash order.
+         */
+        private final byte[] hosts;
+        /**
+         * The index of the first hash of each bucket, ending with the hash count.<br>
+         * Hashes are spread in buckets by their top bits, so a lookup only searches a few hashes.
+         */
+        private final int[] buckets;
+        /**
+         * The number of bits to shift a hash by to get its bucket.
+         */
+        private final int bucketShift;
+        /**
+         * The host values, in hash order, {@code null} if the hosts have no value.
+         */
+        @Nullable
+        private final String[] values;
+
+        private HostSet(List<String> hosts, @Nullable List<String> values) {
+            int size = hosts.size();
+            String[] sortedHosts = hosts.toArray(new String[size]);
+            String[] sortedValues = values == null ? null : values.toArray(new String[size]);
+            long[] hashes = new long[size];
+            int length = 0;
+            for (int i = 0; i < size; i++) {
+                hashes[i] = hash(sortedHosts[i], 0);
+                length += sortedHosts[i].length();
+            }
+            sort(hashes, sortedHosts, sortedValues, 0, size - 1);
+            this.hashes = hashes;
+            this.offsets = new int[size + 1];
+            this.hosts = new byte[length];
+            this.values = sortedValues;
+            int offset = 0;
+            for (int i = 0; i < size; i++) {
+                String host = sortedHosts[i];
+                this.offsets[i] = offset;
+                for (int j = 0; j < host.length(); j++) {
+                    this.hosts[offset++] = (byte) host.charAt(j);
+                }
+            }
+            this.offsets[size] = offset;
+            // Use about one bucket per two hashes
+            int bucketBits = Math.max(1, 31 - Integer.numberOfLeadingZeros(Math.max(1, size / 2)));
+            this.bucketShift = Long.SIZE - bucketBits;
+            this.buckets = new int[(1 << bucketBits) + 1];
+            int index = 0;
+            for (int bucket = 0; bucket < this.buckets.length - 1; bucket++) {
+                this.buckets[bucket] = index;
+                while (index < size && getBucket(hashes[index]) == bucket) {
+                    index++;
+                }
+            }
+            this.buckets[this.buckets.length - 1] = size;
+        }
+
+        /**
+         * Get the bucket of a hash, in the signed order of the hashes.
+         *
+         * @param hash The hash to get the bucket.
+         * @return The hash bucket.
+         */
+        private int getBucket(long hash) {
+            return (int) ((hash ^ Long.MIN_VALUE) >>> this.bucketShift);
+        }
+
+        private int size() {
+            return this.hashes.length;
+        }
+
+        @Nullable
+        private String getValue(int index) {
+            return this.values == null ? null : this.values[index];
+        }
+
+        /**
+         * Find the end of a host in the set.
+         *
+         * @param host  The host to look up.
+         * @param start The index of the host end to look up.
+         * @param hash  The {@link #hash(String, int)} of the host end.
+         * @return The index of the host end in the set, {@code -1} if not in the set.
+         */
+        private int indexOf(String host, int start, long hash) {
+            int index = binarySearch(hash);
+            if (index < 0) {
+                return -1;
+            }
+            // Go back to the first host with the same hash
+            while (index > 0 && this.hashes[index - 1] == hash) {
+                index--;
+            }
+            // Verify each host with the same hash
+            for (; index < this.hashes.length && this.hashes[index] == hash; index++) {
+                if (matches(index, host, start)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        private int binarySearch(long hash) {
+            int bucket = getBucket(hash);
+            int low = this.buckets[bucket];
+            int high = this.buckets[bucket + 1] - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = this.hashes[middle];
+                if (value < hash) {
+                    low = middle + 1;
+                } else if (value > hash) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private boolean matches(int index, String host, int start) {
+            int offset = this.offsets[index];
+            int length = this.offsets[index + 1] - offset;
+            if (length != host.length() - start) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.hosts[offset + i] != host.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sort the hashes with their hosts and values.
+         *
+         * @param hashes The hashes to sort.
+         * @param hosts  The hosts of the hashes.
+         * @param values The values of the hashes, {@code null} if none.
+         * @param low    The first index to sort.
+         * @param high   The last index to sort.
+         */
+        private static void sort(long[] hashes, String[] hosts, @Nullable String[] values, int low, int high) {
+            while (low < high) {
+                // Partition around the middle hash
+                long pivot = hashes[(low + high) >>> 1];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (hashes[i] < pivot) {
+                        i++;
+                    }
+                    while (hashes[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(hashes, hosts, values, i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                // Recurse into the smaller part to bound the stack depth
+                if (j - low < high - i) {
+                    sort(hashes, hosts, values, low, j);
+                    low = i;
+                } else {
+                    sort(hashes, hosts, values, i, high);
+                    high = j;
+                }
+            }
+        }
+
+        private static void swap(long[] hashes, String[] hosts, @Nullable String[] values, int i, int j) {
+            long hash = hashes[i];
+            hashes[i] = hashes[j];
+            hashes[j] = hash;
+            String host = hosts[i];
+            hosts[i] = hosts[j];
+            hosts[j] = host;
+            if (values != null) {
+                String value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+    }
+}
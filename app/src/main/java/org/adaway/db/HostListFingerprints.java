@@ -0,0 +1,199 @@
+package org.adaway.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class holds the fingerprints of the stored {@link org.adaway.db.entity.HostListItem} of a source.<br>
+ * Each stored item is reduced to a 64 bits hash of its host, type and redirection, kept sorted with
+ * its row identifier. Newly parsed items are matched against them to find the rows to insert and the
+ * rows to delete, without rewriting the unchanged ones.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+class HostListFingerprints {
+    private static final String SELECT_STATEMENT = "SELECT `hosts_lists`.`id`, `host`, `type`, `enabled`, `redirection` " +
+            "FROM `hosts_lists` JOIN `host_names` ON `host_names`.`id` = `host_id` WHERE `source_id` = ?";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The enabled item fingerprints, sorted up to {@link #size}.
+     */
+    private final long[] hashes;
+    /**
+     * The item identifiers: enabled items ones up to {@link #size}, disabled items ones at the end.
+     */
+    private final int[] ids;
+    private final int size;
+    private final BitSet matched;
+
+    private HostListFingerprints(long[] hashes, int[] ids, int size) {
+        this.hashes = hashes;
+        this.ids = ids;
+        this.size = size;
+        this.matched = new BitSet(size);
+        sort(0, size - 1);
+    }
+
+    /**
+     * Load the fingerprints of the stored items of a source.
+     *
+     * @param database The application database.
+     * @param sourceId The source identifier.
+     * @return The fingerprints of the stored items of the source.
+     */
+    static HostListFingerprints load(AppDatabase database, int sourceId) {
+        try (Cursor cursor = database.query(SELECT_STATEMENT, new Object[]{sourceId})) {
+            int count = cursor.getCount();
+            long[] hashes = new long[count];
+            int[] ids = new int[count];
+            int size = 0;
+            int disabledIndex = count;
+            while (cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+                // Disabled items are never matched to reload them enabled
+                if (cursor.getInt(3) == 0) {
+                    ids[--disabledIndex] = id;
+                    continue;
+                }
+                String redirection = cursor.isNull(4) ? null : cursor.getString(4);
+                hashes[size] = fingerprint(cursor.getString(1), cursor.getInt(2), redirection);
+                ids[size] = id;
+                size++;
+            }
+            return new HostListFingerprints(hashes, ids, size);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of an item.
+     *
+     * @param host        The item host.
+     * @param type        The item type value.
+     * @param redirection The item redirection, {@code null} if not redirected.
+     * @return The item fingerprint.
+     */
+    static long fingerprint(String host, int type, @Nullable String redirection) {
+        long hash = FNV_OFFSET_BASIS ^ type;
+        hash = hash(hash, host);
+        if (redirection == null) {
+            hash = (hash ^ 0xFFFF) * FNV_PRIME;
+        } else {
+            hash = (hash ^ 0xFFFE) * FNV_PRIME;
+            hash = hash(hash, redirection);
+        }
+        // Finalize with the Murmur3 mixer to spread FNV bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Match an item fingerprint to a stored item.<br>
+     * Each stored item can be matched only once, so duplicated items are kept as many times as parsed.
+     *
+     * @param fingerprint The item fingerprint.
+     * @return {@code true} if a stored item was matched and does not need to be inserted, {@code false} otherwise.
+     */
+    boolean match(long fingerprint) {
+        int index = Arrays.binarySearch(this.hashes, 0, this.size, fingerprint);
+        if (index < 0) {
+            return false;
+        }
+        // Go back to the first item with the same fingerprint
+        while (index > 0 && this.hashes[index - 1] == fingerprint) {
+            index--;
+        }
+        // Look for the first unmatched one
+        for (; index < this.size && this.hashes[index] == fingerprint; index++) {
+            if (!this.matched.get(index)) {
+                this.matched.set(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the identifiers of the stored items that were not matched.
+     *
+     * @return The row identifiers of the items to delete.
+     */
+    int[] getUnmatchedIds() {
+        int disabledCount = this.ids.length - this.size;
+        int[] unmatchedIds = new int[disabledCount + this.size - this.matched.cardinality()];
+        System.arraycopy(this.ids, this.size, unmatchedIds, 0, disabledCount);
+        int count = disabledCount;
+        for (int index = this.matched.nextClearBit(0); index < this.size; index = this.matched.nextClearBit(index + 1)) {
+            unmatchedIds[count++] = this.ids[index];
+        }
+        return unmatchedIds;
+    }
+
+    /**
+     * Get the number of stored items.
+     *
+     * @return The number of stored items, enabled or not.
+     */
+    int getStoredCount() {
+        return this.ids.length;
+    }
+
+    /**
+     * Sort the fingerprints and their identifiers together.
+     *
+     * @param low  The first index to sort.
+     * @param high The last index to sort.
+     */
+    private void sort(int low, int high) {
+        while (low < high) {
+            // Partition around the middle fingerprint
+            long pivot = this.hashes[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (this.hashes[i] < pivot) {
+                    i++;
+                }
+                while (this.hashes[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long hash = this.hashes[i];
+        this.hashes[i] = this.hashes[j];
+        this.hashes[j] = hash;
+        int id = this.ids[i];
+        this.ids[i] = this.ids[j];
+        this.ids[j] = id;
+    }
+}
@@ -0,0 +1,334 @@
+package org.adaway.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.db.entity.HostListItem;
+import org.adaway.db.entity.ListType;
+import org.adaway.util.ReversedHost;
+
+import java.io.IOException;
+
+/**
+ * This class is a bulk loader for {@link HostListItem} of a source.<br>
+ * It binds columnar batches to reused compiled statements instead of going through the Room entity
+ * adapter for each row. Parsed items are matched against the {@link HostListFingerprints} of the
+ * stored ones so only the changes are written: new items are first written to a staging table,
+ * outside of the live one, then swapped in with the deletion of the removed items once the whole
+ * source is loaded. The swap interns the new hosts into the host dictionary and inserts the items
+ * referencing them. Readers keep seeing the previous items until the swap and a failed load leaves
+ * them untouched.<br>
+ * The swap also sets the source size from the added and removed items, without counting the stored
+ * ones again.<br>
+ * The staging table is not observed, so the batches are written in plain SQLite transactions that
+ * skip the Room invalidation tracker refresh. The swaps are left to the caller so the swaps of all
+ * the sources of an update can share a single transaction, and notify the observers once.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostListItemBulkLoader {
+    private static final String CREATE_STAGING_STATEMENT = "CREATE TABLE IF NOT EXISTS `hosts_lists_staging` " +
+            "(`host` TEXT NOT NULL, `type` INTEGER NOT NULL, `redirection` TEXT, `source_id` INTEGER NOT NULL, " +
+            "`reversed_host` TEXT NOT NULL)";
+    private static final String CREATE_STAGING_INDEX_STATEMENT = "CREATE INDEX IF NOT EXISTS " +
+            "`index_hosts_lists_staging_source_id` ON `hosts_lists_staging` (`source_id`)";
+    private static final String CLEAR_STAGING_STATEMENT = "DELETE FROM `hosts_lists_staging` WHERE `source_id` = ?";
+    private static final String STAGE_STATEMENT = "INSERT INTO `hosts_lists_staging` " +
+            "(`host`, `type`, `redirection`, `source_id`, `reversed_host`) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_STATEMENT = "DELETE FROM `hosts_lists` WHERE `id` = ?";
+    private static final String INTERN_STATEMENT = "INSERT OR IGNORE INTO `host_names` (`host`, `reversed_host`) " +
+            "SELECT `host`, `reversed_host` FROM `hosts_lists_staging` WHERE `source_id` = ?";
+    private static final String SWAP_STATEMENT = "INSERT INTO `hosts_lists` " +
+            "(`host_id`, `type`, `enabled`, `redirection`, `source_id`) " +
+            "SELECT `host_names`.`id`, `type`, 1, `redirection`, `source_id` FROM `hosts_lists_staging` " +
+            "JOIN `host_names` ON `host_names`.`host` = `hosts_lists_staging`.`host` WHERE `source_id` = ?";
+    private static final String UPDATE_SIZE_STATEMENT = "UPDATE `hosts_sources` SET `size` = ? WHERE `id` = ?";
+    private static final String SOURCE_EXISTS_STATEMENT = "SELECT 1 FROM `hosts_sources` WHERE `id` = ?";
+
+    private final AppDatabase database;
+
+    /**
+     * Constructor.
+     *
+     * @param database The application database.
+     */
+    public HostListItemBulkLoader(AppDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Stage the supplied batches to replace the items of a source.<br>
+     * The staged items must then be either {@link #swap(Result) swapped} in or
+     * {@link #discard(int) discarded}. If supplying batches fails, the staged items are discarded
+     * and the previous items are kept.
+     *
+     * @param sourceId The identifier of the source to load items to.
+     * @param batches  The supplier of batches to insert.
+     * @return The load result, to swap the staged items with.
+     * @throws IOException          If the batches could not be supplied.
+     * @throws InterruptedException If interrupted while waiting for a batch.
+     */
+    public Result load(int sourceId, BatchSupplier batches) throws IOException, InterruptedException {
+        HostListFingerprints fingerprints = HostListFingerprints.load(this.database, sourceId);
+        discard(sourceId);
+        boolean staged = false;
+        try {
+            Result result = stage(sourceId, batches, fingerprints);
+            result.removedIds = fingerprints.getUnmatchedIds();
+            result.removed = result.removedIds.length;
+            result.size = fingerprints.getStoredCount() - result.removed + result.added;
+            staged = true;
+            return result;
+        } finally {
+            if (!staged) {
+                discard(sourceId);
+            }
+        }
+    }
+
+    private Result stage(int sourceId, BatchSupplier batches, HostListFingerprints fingerprints) throws IOException, InterruptedException {
+        Result result = new Result(sourceId);
+        SupportSQLiteDatabase writableDatabase = getWritableDatabase();
+        try (SupportSQLiteStatement statement = this.database.compileStatement(STAGE_STATEMENT)) {
+            Batch batch;
+            while ((batch = batches.next()) != null) {
+                // Write each batch in its own short transaction to not hold the database while parsing
+                int added;
+                writableDatabase.beginTransactionNonExclusive();
+                try {
+                    added = insertBatch(statement, sourceId, batch, fingerprints);
+                    writableDatabase.setTransactionSuccessful();
+                } finally {
+                    writableDatabase.endTransaction();
+                }
+                result.loaded += batch.size;
+                result.added += added;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Swap the staged items of a source in, deleting its removed items.<br>
+     * The staged items of a source deleted since its load are discarded instead.
+     *
+     * @param result The load result of the source.
+     */
+    public void swap(Result result) {
+        int sourceId = result.sourceId;
+        this.database.runInTransaction(() -> {
+            if (!sourceExists(sourceId)) {
+                discard(sourceId);
+                return null;
+            }
+            try (SupportSQLiteStatement statement = this.database.compileStatement(DELETE_STATEMENT)) {
+                for (int removedId : result.removedIds) {
+                    statement.bindLong(1, removedId);
+                    statement.executeUpdateDelete();
+                }
+            }
+            SupportSQLiteDatabase writableDatabase = getWritableDatabase();
+            writableDatabase.execSQL(INTERN_STATEMENT, new Object[]{sourceId});
+            writableDatabase.execSQL(SWAP_STATEMENT, new Object[]{sourceId});
+            discard(sourceId);
+            writableDatabase.execSQL(UPDATE_SIZE_STATEMENT, new Object[]{result.size, sourceId});
+            return null;
+        });
+    }
+
+    /**
+     * Discard the staged items of a source, keeping its previous items.
+     *
+     * @param sourceId The identifier of the source to discard the staged items.
+     */
+    public void discard(int sourceId) {
+        SupportSQLiteDatabase writableDatabase = getWritableDatabase();
+        writableDatabase.execSQL(CREATE_STAGING_STATEMENT);
+        // Index the staged items by source as concurrent loads share the staging table
+        writableDatabase.execSQL(CREATE_STAGING_INDEX_STATEMENT);
+        writableDatabase.execSQL(CLEAR_STAGING_STATEMENT, new Object[]{sourceId});
+    }
+
+    private boolean sourceExists(int sourceId) {
+        try (Cursor cursor = this.database.query(SOURCE_EXISTS_STATEMENT, new Object[]{sourceId})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private SupportSQLiteDatabase getWritableDatabase() {
+        return this.database.getOpenHelper().getWritableDatabase();
+    }
+
+    /**
+     * Compute the fingerprint of an item, as used to match parsed items against stored ones.
+     *
+     * @param host        The item host.
+     * @param type        The item type.
+     * @param redirection The item redirection, {@code null} if not redirected.
+     * @return The item fingerprint.
+     */
+    public static long fingerprint(String host, ListType type, @Nullable String redirection) {
+        return HostListFingerprints.fingerprint(host, type.getValue(), redirection);
+    }
+
+    private static int insertBatch(SupportSQLiteStatement statement, int sourceId, Batch batch, HostListFingerprints fingerprints) {
+        int inserted = 0;
+        for (int i = 0; i < batch.size; i++) {
+            // Skip items already stored
+            if (fingerprints.match(batch.fingerprints[i])) {
+                continue;
+            }
+            statement.bindString(1, batch.hosts[i]);
+            statement.bindLong(2, batch.types[i]);
+            String redirection = batch.redirections[i];
+            if (redirection == null) {
+                statement.bindNull(3);
+            } else {
+                statement.bindString(3, redirection);
+            }
+            statement.bindLong(4, sourceId);
+            statement.bindString(5, batch.reversedHosts[i]);
+            statement.executeInsert();
+            inserted++;
+        }
+        return inserted;
+    }
+
+    /**
+     * This interface supplies the batches to load.
+     */
+    public interface BatchSupplier {
+        /**
+         * Get the next batch to load.
+         *
+         * @return The next batch to load, {@code null} if there is no more batch.
+         * @throws IOException          If the batch could not be supplied.
+         * @throws InterruptedException If interrupted while waiting for a batch.
+         */
+        @Nullable
+        Batch next() throws IOException, InterruptedException;
+    }
+
+    /**
+     * This class is a columnar batch of host list items: host, type, redirection, fingerprint and
+     * reversed host are stored in parallel arrays, the source being set at load time.<br>
+     * Reversed hosts are computed as items are added, by the parser threads instead of the writer.
+     */
+    public static class Batch {
+        private final String[] hosts;
+        private final String[] reversedHosts;
+        private final int[] types;
+        private final String[] redirections;
+        private final long[] fingerprints;
+        private int size;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity The maximum number of items of the batch.
+         */
+        public Batch(int capacity) {
+            this.hosts = new String[capacity];
+            this.reversedHosts = new String[capacity];
+            this.types = new int[capacity];
+            this.redirections = new String[capacity];
+            this.fingerprints = new long[capacity];
+            this.size = 0;
+        }
+
+        /**
+         * Add an item to the batch.
+         *
+         * @param host        The item host.
+         * @param type        The item type.
+         * @param redirection The item redirection, {@code null} if not redirected.
+         * @param fingerprint The item {@link HostListItemBulkLoader#fingerprint(String, ListType, String) fingerprint}.
+         */
+        public void add(String host, ListType type, @Nullable String redirection, long fingerprint) {
+            this.hosts[this.size] = host;
+            this.reversedHosts[this.size] = ReversedHost.reverse(host);
+            this.types[this.size] = type.getValue();
+            this.redirections[this.size] = redirection;
+            this.fingerprints[this.size] = fingerprint;
+            this.size++;
+        }
+
+        /**
+         * Get the number of items of the batch.
+         *
+         * @return The number of items of the batch.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Check whether the batch is empty.
+         *
+         * @return {@code true} if the batch has no item, {@code false} otherwise.
+         */
+        public boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        /**
+         * Check whether the batch is full.
+         *
+         * @return {@code true} if no more item can be added, {@code false} otherwise.
+         */
+        public boolean isFull() {
+            return this.size >= this.hosts.length;
+        }
+    }
+
+    /**
+     * This class is the result of a source load.
+     */
+    public static class Result {
+        private final int sourceId;
+        private int loaded;
+        private int added;
+        private int removed;
+        private int[] removedIds;
+        private int size;
+
+        private Result(int sourceId) {
+            this.sourceId = sourceId;
+        }
+
+        /**
+         * Get the number of loaded items.
+         *
+         * @return The number of items of the source.
+         */
+        public int getLoaded() {
+            return this.loaded;
+        }
+
+        /**
+         * Get the number of added items.
+         *
+         * @return The number of items inserted to the source.
+         */
+        public int getAdded() {
+            return this.added;
+        }
+
+        /**
+         * Get the number of removed items.
+         *
+         * @return The number of items deleted from the source.
+         */
+        public int getRemoved() {
+            return this.removed;
+        }
+
+        @Override
+        public String toString() {
+            return this.loaded + " items, " + this.added + " added, " + this.removed + " removed";
+        }
+    }
+}
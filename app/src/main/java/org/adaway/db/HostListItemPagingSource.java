@@ -0,0 +1,128 @@
+package org.adaway.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingState;
+import androidx.room.InvalidationTracker;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.adaway.db.dao.HostListItemDao;
+import org.adaway.db.entity.HostListItem;
+import org.adaway.db.entity.ListType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import kotlin.Unit;
+
+/**
+ * This class is a keyset paging source of {@link HostListItem}, one per host in host order.<br>
+ * Pages are keyed by a host and read from the host dictionary index as a range after, before or
+ * from it, probing the items of each host, instead of skipping all the previous rows with an
+ * offset. Loading a page costs the same whatever the scroll depth.<br>
+ * As the items are not counted, no placeholder is supported.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public class HostListItemPagingSource extends ListenableFuturePagingSource<String, HostListItem> {
+    private final AppDatabase database;
+    private final HostListItemDao hostListItemDao;
+    private final ListType type;
+    private final boolean includeSources;
+    private final String query;
+    private final InvalidationTracker.Observer observer;
+    private final AtomicBoolean observing;
+
+    /**
+     * Constructor.
+     *
+     * @param database       The application database.
+     * @param type           The type of items to page.
+     * @param includeSources {@code true} to include the items of all sources, {@code false} to include user items only.
+     * @param query          The query to filter hosts with (SQL {@code LIKE} format).
+     */
+    public HostListItemPagingSource(AppDatabase database, ListType type, boolean includeSources, String query) {
+        this.database = database;
+        this.hostListItemDao = database.hostsListItemDao();
+        this.type = type;
+        this.includeSources = includeSources;
+        this.query = query;
+        this.observer = new InvalidationTracker.Observer("hosts_lists") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        this.observing = new AtomicBoolean(false);
+        registerInvalidatedCallback(() -> {
+            if (this.observing.get()) {
+                this.database.getInvalidationTracker().removeObserver(this.observer);
+            }
+            return Unit.INSTANCE;
+        });
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<LoadResult<String, HostListItem>> loadFuture(@NonNull LoadParams<String> params) {
+        return Futures.submit(() -> load(params), this.database.getQueryExecutor());
+    }
+
+    private LoadResult<String, HostListItem> load(LoadParams<String> params) {
+        // Observe hosts lists changes from a worker thread, at the first load
+        if (this.observing.compareAndSet(false, true)) {
+            InvalidationTracker invalidationTracker = this.database.getInvalidationTracker();
+            invalidationTracker.addObserver(this.observer);
+            // Do not leak the observer if invalidated while registering
+            if (getInvalid()) {
+                invalidationTracker.removeObserver(this.observer);
+            }
+        }
+        String key = params.getKey();
+        int loadSize = params.getLoadSize();
+        int typeValue = this.type.getValue();
+        if (params instanceof LoadParams.Prepend) {
+            List<HostListItem> items = this.hostListItemDao.getListBefore(typeValue, this.includeSources, this.query, key, loadSize);
+            Collections.reverse(items);
+            return new LoadResult.Page<>(
+                    items,
+                    items.size() < loadSize ? null : items.get(0).getHost(),
+                    key
+            );
+        }
+        List<HostListItem> items;
+        String prevKey;
+        if (params instanceof LoadParams.Append) {
+            items = this.hostListItemDao.getListAfter(typeValue, this.includeSources, this.query, key, loadSize);
+            prevKey = key;
+        } else if (key == null) {
+            items = this.hostListItemDao.getListAfter(typeValue, this.includeSources, this.query, "", loadSize);
+            prevKey = null;
+        } else {
+            items = this.hostListItemDao.getListFrom(typeValue, this.includeSources, this.query, key, loadSize);
+            prevKey = items.isEmpty() ? null : items.get(0).getHost();
+        }
+        return new LoadResult.Page<>(
+                items,
+                prevKey,
+                items.size() < loadSize ? null : items.get(items.size() - 1).getHost()
+        );
+    }
+
+    @Nullable
+    @Override
+    public String getRefreshKey(@NonNull PagingState<String, HostListItem> state) {
+        // Reload from the item closest to the last accessed position
+        Integer anchorPosition = state.getAnchorPosition();
+        if (anchorPosition == null) {
+            return null;
+        }
+        HostListItem item = state.closestItemToPosition(anchorPosition);
+        return item == null ? null : item.getHost();
+    }
+}
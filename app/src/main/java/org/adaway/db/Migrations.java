@@ -3,9 +3,17 @@ package org.adaway.db;
 import static org.adaway.db.entity.HostsSource.USER_SOURCE_ID;
 import static org.adaway.db.entity.HostsSource.USER_SOURCE_URL;
 
+import android.database.Cursor;
+
 import androidx.annotation.NonNull;
 import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import org.adaway.util.ReversedHost;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * This class declares database schema migrations.
@@ -120,4 +128,142 @@ final class Migrations {
             database.execSQL("ALTER TABLE `hosts_sources` ADD `entityTag` TEXT DEFAULT NULL");
         }
     };
+
+    /**
+     * Migration script from v7 to v8.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Update hosts_sources table
+            database.execSQL("ALTER TABLE `hosts_sources` ADD `contentDigest` TEXT DEFAULT NULL");
+            database.execSQL("ALTER TABLE `hosts_sources` ADD `contentUnchanged` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Migration script from v8 to v9.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Create host entry changes table, its triggers are created with the host dictionary from v13 to v14
+            database.execSQL("CREATE TABLE IF NOT EXISTS `host_entry_changes` (`host` TEXT NOT NULL, `type` INTEGER NOT NULL, PRIMARY KEY(`host`, `type`))");
+            // Mark all hosts as changed to rebuild host entries
+            database.execSQL("INSERT OR IGNORE INTO `host_entry_changes` SELECT `host`, `type` FROM `hosts_lists`");
+        }
+    };
+
+    /**
+     * Migration script from v9 to v10.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Create host counters table, its triggers are created and hosts counted from v13 to v14
+            database.execSQL("CREATE TABLE IF NOT EXISTS `host_counters` (`type` INTEGER NOT NULL, `count` INTEGER NOT NULL, PRIMARY KEY(`type`))");
+        }
+    };
+
+    /**
+     * Migration script from v10 to v11.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Nothing to do: the full-text search table is created on the host dictionary from v13 to v14
+        }
+    };
+
+    /**
+     * Migration script from v11 to v12.
+     */
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Nothing to do: the keyset paging index is created on the rebuilt hosts lists from v13 to v14
+        }
+    };
+
+    /**
+     * Migration script from v12 to v13.
+     */
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Add host entries reversed host column, the hosts lists one moves to the host dictionary from v13 to v14
+            database.execSQL("ALTER TABLE `host_entries` ADD `reversed_host` TEXT NOT NULL DEFAULT ''");
+            reverseHosts(database, "host_entries");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_host_entries_reversed_host` ON `host_entries` (`reversed_host`)");
+        }
+    };
+
+    /**
+     * Migration script from v13 to v14.
+     */
+    static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Drop hosts lists full-text search table and its content sync triggers if created by a previous version
+            database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_hosts_lists_fts_BEFORE_UPDATE");
+            database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_hosts_lists_fts_BEFORE_DELETE");
+            database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_hosts_lists_fts_AFTER_UPDATE");
+            database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_hosts_lists_fts_AFTER_INSERT");
+            database.execSQL("DROP TABLE IF EXISTS `hosts_lists_fts`");
+            // Create host dictionary table, with identifiers in host order
+            database.execSQL("CREATE TABLE IF NOT EXISTS `host_names` (`id` INTEGER NOT NULL, `host` TEXT NOT NULL, `reversed_host` TEXT NOT NULL, PRIMARY KEY(`id`))");
+            database.execSQL("INSERT INTO `host_names` (`host`, `reversed_host`) SELECT `host`, `host` FROM `hosts_lists` GROUP BY `host` ORDER BY `host`");
+            reverseHosts(database, "host_names");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_host_names_host` ON `host_names` (`host`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_host_names_reversed_host` ON `host_names` (`reversed_host`)");
+            // Replace hosts lists hosts by their host dictionary identifier
+            database.execSQL("CREATE TABLE `hosts_lists_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `host_id` INTEGER NOT NULL, `type` INTEGER NOT NULL, `enabled` INTEGER NOT NULL, `redirection` TEXT, `source_id` INTEGER NOT NULL, FOREIGN KEY(`source_id`) REFERENCES `hosts_sources`(`id`) ON UPDATE CASCADE ON DELETE CASCADE )");
+            database.execSQL("INSERT INTO `hosts_lists_new` (`id`, `host_id`, `type`, `enabled`, `redirection`, `source_id`) SELECT `hosts_lists`.`id`, `host_names`.`id`, `type`, `enabled`, `redirection`, `source_id` FROM `hosts_lists` JOIN `host_names` ON `host_names`.`host` = `hosts_lists`.`host`");
+            database.execSQL("DROP TABLE `hosts_lists`");
+            database.execSQL("ALTER TABLE `hosts_lists_new` RENAME TO `hosts_lists`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_hosts_lists_host_id` ON `hosts_lists` (`host_id`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_hosts_lists_source_id` ON `hosts_lists` (`source_id`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_hosts_lists_type_enabled_host_id` ON `hosts_lists` (`type`, `enabled`, `host_id`)");
+            // Create hosts lists triggers and count hosts
+            HostEntryChangeTriggers.create(database);
+            HostCounterTriggers.create(database);
+            // Create host dictionary full-text search table and its content sync triggers
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `host_names_fts` USING FTS4(`host` TEXT NOT NULL, content=`host_names`)");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_host_names_fts_BEFORE_UPDATE BEFORE UPDATE ON `host_names` BEGIN DELETE FROM `host_names_fts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_host_names_fts_BEFORE_DELETE BEFORE DELETE ON `host_names` BEGIN DELETE FROM `host_names_fts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_host_names_fts_AFTER_UPDATE AFTER UPDATE ON `host_names` BEGIN INSERT INTO `host_names_fts`(`docid`, `host`) VALUES (NEW.`rowid`, NEW.`host`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_host_names_fts_AFTER_INSERT AFTER INSERT ON `host_names` BEGIN INSERT INTO `host_names_fts`(`docid`, `host`) VALUES (NEW.`rowid`, NEW.`host`); END");
+            database.execSQL("INSERT INTO `host_names_fts`(`host_names_fts`) VALUES ('rebuild')");
+            // Drop the staging table to recreate it for the host dictionary
+            database.execSQL("DROP TABLE IF EXISTS `hosts_lists_staging`");
+        }
+    };
+
+    /**
+     * Fill the reversed host column of a table from its host column.<br>
+     * Rows are read in batches of row ids to not fill the cursor window again for each batch.
+     *
+     * @param database The database to update.
+     * @param table    The name of the table to update.
+     */
+    private static void reverseHosts(SupportSQLiteDatabase database, String table) {
+        try (SupportSQLiteStatement statement = database.compileStatement("UPDATE `" + table + "` SET `reversed_host` = ? WHERE `rowid` = ?")) {
+            long lastRowId = -1;
+            boolean read = true;
+            while (read) {
+                read = false;
+                try (Cursor cursor = database.query("SELECT `rowid`, `host` FROM `" + table + "` WHERE `rowid` > ? ORDER BY `rowid` LIMIT 5000", new Object[]{lastRowId})) {
+                    while (cursor.moveToNext()) {
+                        lastRowId = cursor.getLong(0);
+                        statement.bindString(1, ReversedHost.reverse(cursor.getString(1)));
+                        statement.bindLong(2, lastRowId);
+                        statement.executeUpdateDelete();
+                        read = true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -4,16 +4,21 @@ import androidx.annotation.Nullable;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import org.adaway.db.entity.HostEntry;
-import org.adaway.db.entity.HostListItem;
+import org.adaway.db.entity.HostEntryChange;
 import org.adaway.db.entity.ListType;
+import org.adaway.util.ReversedHost;
+import org.adaway.util.WildcardMatcher;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
-import static androidx.room.OnConflictStrategy.REPLACE;
-import static org.adaway.db.entity.ListType.REDIRECTED;
+import static androidx.room.OnConflictStrategy.IGNORE;
+import static org.adaway.db.entity.ListType.BLOCKED;
 
 /**
  * This interface is the DAO for {@link HostEntry} records.
@@ -22,44 +27,132 @@ import static org.adaway.db.entity.ListType.REDIRECTED;
  */
 @Dao
 public interface HostEntryDao {
-    Pattern ANY_CHAR_PATTERN = Pattern.compile("\\*");
-    Pattern A_CHAR_PATTERN = Pattern.compile("\\?");
+    /**
+     * The maximum ratio of changed hosts to host entries to synchronize the changes only.
+     */
+    int MAX_CHANGE_RATIO = 4;
+    /**
+     * The number of hosts to read at once while matching allowed hosts.
+     */
+    int READ_BATCH_SIZE = 5000;
+    /**
+     * The number of hosts to write at once, below the SQLite bound variables limit.
+     */
+    int WRITE_BATCH_SIZE = 500;
 
-    @Query("DELETE FROM `host_entries`")
-    void clear();
+    @Query("SELECT host FROM hosts_lists JOIN host_names ON host_names.id = host_id WHERE type = 1 AND enabled = 1")
+    List<String> getEnabledAllowedHosts();
 
-    @Query("INSERT INTO `host_entries` SELECT DISTINCT `host`, `type`, `redirection` FROM `hosts_lists` WHERE `type` = 0 AND `enabled` = 1")
-    void importBlocked();
+    @Query("DELETE FROM `host_entries` WHERE `host` IN (:hosts)")
+    void deleteHosts(List<String> hosts);
 
-    @Query("SELECT host FROM hosts_lists WHERE type = 1 AND enabled = 1")
-    List<String> getEnabledAllowedHosts();
+    @Query("SELECT COUNT(*) FROM `host_entries`")
+    int count();
 
-    @Query("DELETE FROM `host_entries` WHERE `host` LIKE :hostPattern")
-    void allowHost(String hostPattern);
+    @Query("SELECT COUNT(*) FROM `host_entry_changes`")
+    int countChanges();
 
-    @Query("SELECT * FROM hosts_lists WHERE type = 2 AND enabled = 1 ORDER BY host ASC, source_id DESC")
-    List<HostListItem> getEnabledRedirectedHosts();
+    @Query("DELETE FROM `host_entry_changes`")
+    void clearChanges();
 
-    @Insert(onConflict = REPLACE)
-    void redirectHost(HostEntry redirection);
+    @Query("SELECT `host` FROM `host_entry_changes` WHERE `type` = 1")
+    List<String> getChangedAllowedHosts();
+
+    @Query("SELECT `host` FROM `host_names` WHERE `host` > :after AND EXISTS (SELECT 1 FROM `hosts_lists` " +
+            "WHERE `host_id` = `host_names`.`id` AND `type` = 0) ORDER BY `host` LIMIT :limit")
+    List<String> getBlockedHostsAfter(String after, int limit);
+
+    @Insert(onConflict = IGNORE)
+    void addChanges(List<HostEntryChange> changes);
+
+    @Query("DELETE FROM `host_entries` WHERE `host` IN (SELECT `host` FROM `host_entry_changes`)")
+    void clearChanged();
+
+    @Query("INSERT OR IGNORE INTO `host_entries` (`host`, `type`, `redirection`, `reversed_host`) " +
+            "SELECT `host`, `type`, `redirection`, `reversed_host` FROM `host_names` CROSS JOIN `hosts_lists` ON `host_id` = `host_names`.`id` " +
+            "WHERE `type` = 0 AND `enabled` = 1 AND `host` IN (SELECT `host` FROM `host_entry_changes`)")
+    void importChangedBlocked();
+
+    @Query("SELECT `host` FROM `host_entries` WHERE `host` IN (SELECT `host` FROM `host_entry_changes`) " +
+            "AND `host` > :after ORDER BY `host` LIMIT :limit")
+    List<String> getChangedHostsAfter(String after, int limit);
+
+    @Query("INSERT OR REPLACE INTO `host_entries` (`host`, `type`, `redirection`, `reversed_host`) " +
+            "SELECT `host`, `type`, `redirection`, `reversed_host` FROM `hosts_lists` AS `redirected` " +
+            "JOIN `host_names` ON `host_names`.`id` = `redirected`.`host_id` " +
+            "WHERE `host` IN (SELECT `host` FROM `host_entry_changes`) AND `redirected`.`id` = (SELECT `id` FROM `hosts_lists` " +
+            "WHERE `host_id` = `redirected`.`host_id` AND `type` = 2 AND `enabled` = 1 ORDER BY `source_id` ASC, `id` ASC LIMIT 1)")
+    void redirectChanged();
 
     /**
-     * Synchronize the host entries based on the current hosts lists table records.
+     * Synchronize the host entries of the changed hosts lists table records only.<br>
+     * The precedence is the same as {@link org.adaway.db.HostEntryBuilder#rebuild()}: blocked hosts,
+     * then allowed hosts, then redirected hosts. A changed allowed host also changes the blocked
+     * hosts it matches.
+     *
+     * @return {@code true} if the host entries were synchronized, {@code false} if too many hosts
+     * changed and the host entries must be rebuilt instead.
      */
-    default void sync() {
-        clear();
-        importBlocked();
-        for (String allowedHost : getEnabledAllowedHosts()) {
-            allowedHost = ANY_CHAR_PATTERN.matcher(allowedHost).replaceAll("%");
-            allowedHost = A_CHAR_PATTERN.matcher(allowedHost).replaceAll("_");
-            allowHost(allowedHost);
+    @Transaction
+    default boolean syncChanges() {
+        int changeCount = countChanges();
+        if (changeCount == 0) {
+            return true;
+        }
+        if (changeCount * MAX_CHANGE_RATIO > count()) {
+            return false;
         }
-        for (HostListItem redirectedHost : getEnabledRedirectedHosts()) {
-            HostEntry entry = new HostEntry();
-            entry.setHost(redirectedHost.getHost());
-            entry.setType(REDIRECTED);
-            entry.setRedirection(redirectedHost.getRedirection());
-            redirectHost(entry);
+        // Mark the blocked hosts matching the changed allowed hosts as changed
+        WildcardMatcher changedAllowedHosts = new WildcardMatcher(getChangedAllowedHosts());
+        if (!changedAllowedHosts.isEmpty()) {
+            forEachMatchingHost(this::getBlockedHostsAfter, changedAllowedHosts, hosts -> {
+                List<HostEntryChange> changes = new ArrayList<>(hosts.size());
+                for (String host : hosts) {
+                    HostEntryChange change = new HostEntryChange();
+                    change.setHost(host);
+                    change.setType(BLOCKED);
+                    changes.add(change);
+                }
+                addChanges(changes);
+            });
+        }
+        clearChanged();
+        importChangedBlocked();
+        WildcardMatcher allowedHosts = new WildcardMatcher(getEnabledAllowedHosts());
+        if (!allowedHosts.isEmpty()) {
+            forEachMatchingHost(this::getChangedHostsAfter, allowedHosts, this::deleteHosts);
+        }
+        redirectChanged();
+        clearChanges();
+        return true;
+    }
+
+    /**
+     * Read hosts in order and process the ones matching a wildcard matcher in batches.<br>
+     * Processing a batch may remove the processed hosts as the reading resumes after them.
+     *
+     * @param reader    The host reader, returning the hosts after a given one, in order.
+     * @param matcher   The wildcard matcher to match hosts with.
+     * @param processor The processor of the matching host batches.
+     */
+    default void forEachMatchingHost(BiFunction<String, Integer, List<String>> reader, WildcardMatcher matcher, Consumer<List<String>> processor) {
+        List<String> matchingHosts = new ArrayList<>(WRITE_BATCH_SIZE);
+        String lastHost = "";
+        List<String> hosts;
+        while (!(hosts = reader.apply(lastHost, READ_BATCH_SIZE)).isEmpty()) {
+            for (String host : hosts) {
+                if (matcher.matches(host)) {
+                    matchingHosts.add(host);
+                    if (matchingHosts.size() == WRITE_BATCH_SIZE) {
+                        processor.accept(matchingHosts);
+                        matchingHosts.clear();
+                    }
+                }
+            }
+            lastHost = hosts.get(hosts.size() - 1);
+        }
+        if (!matchingHosts.isEmpty()) {
+            processor.accept(matchingHosts);
         }
     }
 
@@ -75,4 +168,28 @@ public interface HostEntryDao {
     @Nullable
     @Query("SELECT * FROM `host_entries` WHERE `host` == :host LIMIT 1")
     HostEntry getEntry(String host);
+
+    /**
+     * Get the entries of a domain and its subdomains.<br>
+     * The reversed domain prefix is matched with a range scan on the reversed host index: the range
+     * ends at the character after the label separator and the hosts between the domain and its
+     * subdomains, like {@code example-ads.com}, are filtered out.
+     *
+     * @param reversedDomain The {@link ReversedHost#reverse(String) reversed} domain.
+     * @return The entries of the domain and its subdomains, in reversed host order.
+     */
+    @Query("SELECT * FROM `host_entries` WHERE `reversed_host` >= :reversedDomain AND `reversed_host` < :reversedDomain || '/' " +
+            "AND (`reversed_host` = :reversedDomain OR substr(`reversed_host`, length(:reversedDomain) + 1, 1) = '.') " +
+            "ORDER BY `reversed_host`")
+    List<HostEntry> getEntriesUnderReversed(String reversedDomain);
+
+    /**
+     * Get the entries of a domain and its subdomains.
+     *
+     * @param domain The domain.
+     * @return The entries of the domain and its subdomains, in reversed host order.
+     */
+    default List<HostEntry> getEntriesUnder(String domain) {
+        return getEntriesUnderReversed(ReversedHost.reverse(domain));
+    }
 }
@@ -3,61 +3,146 @@ package org.adaway.db.dao;
 import androidx.lifecycle.LiveData;
 import androidx.paging.PagingSource;
 import androidx.room.Dao;
-import androidx.room.Delete;
-import androidx.room.Insert;
 import androidx.room.Query;
-import androidx.room.Update;
+import androidx.room.Transaction;
 
 import org.adaway.db.entity.HostListItem;
+import org.adaway.db.entity.ListType;
+import org.adaway.util.ReversedHost;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
-import static androidx.room.OnConflictStrategy.REPLACE;
-
 /**
- * This interface is the DAO for {@link HostListItem} entities.
+ * This interface is the DAO for {@link HostListItem} entities.<br>
+ * Items are stored as {@link org.adaway.db.entity.HostListRecord} referencing their host in the
+ * host dictionary. The hosts are interned into the dictionary as items are written and joined back
+ * as items are read.
  *
  * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
  */
 @Dao
 public interface HostListItemDao {
-    @Insert(onConflict = REPLACE)
-    void insert(HostListItem... item);
-
-    @Insert(onConflict = REPLACE)
-    void insert(List<HostListItem> items);
+    /**
+     * The {@link HostListItem} columns read from the hosts lists, aliased {@code l}, joined with the
+     * host dictionary, aliased {@code h}.
+     */
+    String ITEM_COLUMNS = "l.id, h.host, l.type, l.enabled, l.redirection, l.source_id";
+
+    @Query("INSERT OR IGNORE INTO host_names (host, reversed_host) VALUES (:host, :reversedHost)")
+    void addHostName(String host, String reversedHost);
+
+    @Query("SELECT id FROM host_names WHERE host = :host")
+    int getHostNameId(String host);
+
+    /**
+     * Get the identifier of a host in the host dictionary, adding the host if missing.
+     *
+     * @param host The host to intern.
+     * @return The host identifier.
+     */
+    default int internHost(String host) {
+        addHostName(host, ReversedHost.reverse(host));
+        return getHostNameId(host);
+    }
+
+    @Query("INSERT INTO hosts_lists (id, host_id, type, enabled, redirection, source_id) " +
+            "VALUES (NULLIF(:id, 0), :hostId, :type, :enabled, :redirection, :sourceId)")
+    void insertRecord(int id, int hostId, ListType type, boolean enabled, String redirection, int sourceId);
+
+    @Query("UPDATE hosts_lists SET host_id = :hostId, type = :type, enabled = :enabled, redirection = :redirection, " +
+            "source_id = :sourceId WHERE id = :id")
+    void updateRecord(int id, int hostId, ListType type, boolean enabled, String redirection, int sourceId);
+
+    @Query("DELETE FROM hosts_lists WHERE id = :id")
+    void deleteRecord(int id);
+
+    default void insert(HostListItem... items) {
+        insert(Arrays.asList(items));
+    }
+
+    @Transaction
+    default void insert(List<HostListItem> items) {
+        for (HostListItem item : items) {
+            // Delete the replaced item first as the conflict resolution would not run the delete triggers
+            if (item.getId() != 0) {
+                deleteRecord(item.getId());
+            }
+            insertRecord(item.getId(), internHost(item.getHost()), item.getType(), item.isEnabled(),
+                    item.getRedirection(), item.getSourceId());
+        }
+    }
+
+    @Transaction
+    default void update(HostListItem item) {
+        updateRecord(item.getId(), internHost(item.getHost()), item.getType(), item.isEnabled(),
+                item.getRedirection(), item.getSourceId());
+    }
+
+    default void delete(HostListItem item) {
+        deleteRecord(item.getId());
+    }
+
+    @Query("DELETE FROM hosts_lists WHERE source_id = 1 AND host_id = (SELECT id FROM host_names WHERE host = :host)")
+    void deleteUserFromHost(String host);
 
-    @Update
-    void update(HostListItem item);
+    @Query("SELECT " + ITEM_COLUMNS + " FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id WHERE l.type = :type AND l.enabled IN (0, 1) AND h.host > :after AND h.host LIKE :query AND ((:includeSources == 0 AND l.source_id == 1) || (:includeSources == 1)) GROUP BY h.host ORDER BY h.host ASC LIMIT :limit")
+    List<HostListItem> getListAfter(int type, boolean includeSources, String query, String after, int limit);
 
-    @Delete
-    void delete(HostListItem item);
+    @Query("SELECT " + ITEM_COLUMNS + " FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id WHERE l.type = :type AND l.enabled IN (0, 1) AND h.host >= :from AND h.host LIKE :query AND ((:includeSources == 0 AND l.source_id == 1) || (:includeSources == 1)) GROUP BY h.host ORDER BY h.host ASC LIMIT :limit")
+    List<HostListItem> getListFrom(int type, boolean includeSources, String query, String from, int limit);
 
-    @Query("DELETE FROM hosts_lists WHERE source_id = 1 AND host = :host")
-    void deleteUserFromHost(String host);
+    @Query("SELECT " + ITEM_COLUMNS + " FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id WHERE l.type = :type AND l.enabled IN (0, 1) AND h.host < :before AND h.host LIKE :query AND ((:includeSources == 0 AND l.source_id == 1) || (:includeSources == 1)) GROUP BY h.host ORDER BY h.host DESC LIMIT :limit")
+    List<HostListItem> getListBefore(int type, boolean includeSources, String query, String before, int limit);
 
-    @Query("SELECT * FROM hosts_lists WHERE type = :type AND host LIKE :query AND ((:includeSources == 0 AND source_id == 1) || (:includeSources == 1)) GROUP BY host ORDER BY host ASC")
-    PagingSource<Integer, HostListItem> loadList(int type, boolean includeSources, String query);
+    @Query("SELECT " + ITEM_COLUMNS + " FROM hosts_lists AS l JOIN host_names AS h ON h.id = l.host_id WHERE l.host_id IN (SELECT docid FROM host_names_fts WHERE host_names_fts MATCH :match) AND l.type = :type AND h.host LIKE :query AND ((:includeSources == 0 AND l.source_id == 1) || (:includeSources == 1)) GROUP BY h.host ORDER BY h.host ASC")
+    PagingSource<Integer, HostListItem> searchList(int type, boolean includeSources, String match, String query);
 
-    @Query("SELECT * FROM hosts_lists ORDER BY host ASC")
+    @Query("SELECT " + ITEM_COLUMNS + " FROM hosts_lists AS l JOIN host_names AS h ON h.id = l.host_id ORDER BY h.host ASC")
     List<HostListItem> getAll();
 
-    @Query("SELECT * FROM hosts_lists WHERE source_id = 1")
+    @Query("SELECT " + ITEM_COLUMNS + " FROM hosts_lists AS l JOIN host_names AS h ON h.id = l.host_id WHERE l.source_id = 1")
     List<HostListItem> getUserList();
 
-    @Query("SELECT id FROM hosts_lists WHERE host = :host AND source_id = 1 LIMIT 1")
+    @Query("SELECT id FROM hosts_lists WHERE host_id = (SELECT id FROM host_names WHERE host = :host) AND source_id = 1 LIMIT 1")
     Optional<Integer> getHostId(String host);
 
-    @Query("SELECT COUNT(DISTINCT host) FROM hosts_lists WHERE type = 0 AND enabled = 1")
+    @Query("SELECT IFNULL((SELECT count FROM host_counters WHERE type = :type), 0)")
+    int getHostCount(ListType type);
+
+    @Query("SELECT IFNULL((SELECT count FROM host_counters WHERE type = 0), 0)")
     LiveData<Integer> getBlockedHostCount();
 
-    @Query("SELECT COUNT(DISTINCT host) FROM hosts_lists WHERE type = 1 AND enabled = 1")
+    @Query("SELECT IFNULL((SELECT count FROM host_counters WHERE type = 1), 0)")
     LiveData<Integer> getAllowedHostCount();
 
-    @Query("SELECT COUNT(DISTINCT host) FROM hosts_lists WHERE type = 2 AND enabled = 1")
+    @Query("SELECT IFNULL((SELECT count FROM host_counters WHERE type = 2), 0)")
     LiveData<Integer> getRedirectHostCount();
 
     @Query("DELETE FROM hosts_lists WHERE source_id = :sourceId")
     void clearSourceHosts(int sourceId);
+
+    /**
+     * Get the items of a domain and its subdomains.
+     *
+     * @param reversedDomain The {@link ReversedHost#reverse(String) reversed} domain.
+     * @return The items of the domain and its subdomains, in reversed host order.
+     * @see HostEntryDao#getEntriesUnderReversed(String)
+     */
+    @Query("SELECT " + ITEM_COLUMNS + " FROM host_names AS h CROSS JOIN hosts_lists AS l ON l.host_id = h.id " +
+            "WHERE h.reversed_host >= :reversedDomain AND h.reversed_host < :reversedDomain || '/' " +
+            "AND (h.reversed_host = :reversedDomain OR substr(h.reversed_host, length(:reversedDomain) + 1, 1) = '.') " +
+            "ORDER BY h.reversed_host")
+    List<HostListItem> getItemsUnderReversed(String reversedDomain);
+
+    /**
+     * Get the items of a domain and its subdomains.
+     *
+     * @param domain The domain.
+     * @return The items of the domain and its subdomains, in reversed host order.
+     */
+    default List<HostListItem> getItemsUnder(String domain) {
+        return getItemsUnderReversed(ReversedHost.reverse(domain));
+    }
 }
@@ -66,8 +66,8 @@ public interface HostsSourceDao {
     @Query("UPDATE hosts_sources SET entityTag = :entityTag WHERE id = :id")
     void updateEntityTag(int id, String entityTag);
 
-    @Query("UPDATE hosts_sources SET size = (SELECT count(id) FROM hosts_lists WHERE source_id = :id) WHERE id = :id")
-    void updateSize(int id);
+    @Query("UPDATE hosts_sources SET contentDigest = :contentDigest, contentUnchanged = :contentUnchanged WHERE id = :id")
+    void updateContentDigest(int id, String contentDigest, boolean contentUnchanged);
 
     @Query("SELECT count(id) FROM hosts_sources WHERE enabled = 1 AND last_modified_online > last_modified_local")
     LiveData<Integer> countOutdated();
@@ -75,6 +75,6 @@ public interface HostsSourceDao {
     @Query("SELECT count(id) FROM hosts_sources WHERE enabled = 1 AND last_modified_online <= last_modified_local")
     LiveData<Integer> countUpToDate();
 
-    @Query("UPDATE hosts_sources SET last_modified_local = NULL, last_modified_online = NULL, entityTag = NULL, size = 0 WHERE id = :id")
+    @Query("UPDATE hosts_sources SET last_modified_local = NULL, last_modified_online = NULL, entityTag = NULL, contentDigest = NULL, contentUnchanged = 0, size = 0 WHERE id = :id")
     void clearProperties(int id);
 }
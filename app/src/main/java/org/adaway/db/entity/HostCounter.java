@@ -0,0 +1,37 @@
+package org.adaway.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * This entity represents the number of distinct enabled {@link HostListItem} hosts of a type.<br>
+ * The counters are estimated while sources are loaded and set to their exact value when the host
+ * entries are synchronized.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@Entity(tableName = "host_counters")
+public class HostCounter {
+    @PrimaryKey
+    @NonNull
+    private ListType type;
+    private int count;
+
+    @NonNull
+    public ListType getType() {
+        return type;
+    }
+
+    public void setType(@NonNull ListType type) {
+        this.type = type;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
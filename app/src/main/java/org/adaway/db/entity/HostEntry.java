@@ -1,10 +1,15 @@
 package org.adaway.db.entity;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import org.adaway.util.ReversedHost;
+
+import java.util.Objects;
+
 /**
  * This entity represents an entry of the built hosts file.
  *
@@ -12,7 +17,10 @@ import androidx.room.PrimaryKey;
  */
 @Entity(
         tableName = "host_entries",
-        indices = {@Index(value = "host", unique = true)}
+        indices = {
+                @Index(value = "host", unique = true),
+                @Index(value = "reversed_host")
+        }
 )
 public class HostEntry {
     @PrimaryKey
@@ -21,6 +29,9 @@ public class HostEntry {
     @NonNull
     private ListType type;
     private String redirection;
+    @NonNull
+    @ColumnInfo(name = "reversed_host", defaultValue = "''")
+    private String reversedHost = "";
 
     @NonNull
     public String getHost() {
@@ -29,6 +40,7 @@ public class HostEntry {
 
     public void setHost(@NonNull String host) {
         this.host = host;
+        this.reversedHost = ReversedHost.reverse(host);
     }
 
     @NonNull
@@ -47,4 +59,33 @@ public class HostEntry {
     public void setRedirection(String redirection) {
         this.redirection = redirection;
     }
+
+    @NonNull
+    public String getReversedHost() {
+        return reversedHost;
+    }
+
+    public void setReversedHost(@NonNull String reversedHost) {
+        this.reversedHost = reversedHost;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HostEntry entry = (HostEntry) o;
+
+        if (!host.equals(entry.host)) return false;
+        if (type != entry.type) return false;
+        return Objects.equals(redirection, entry.redirection);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = host.hashCode();
+        result = 31 * result + type.hashCode();
+        result = 31 * result + (redirection != null ? redirection.hashCode() : 0);
+        return result;
+    }
 }
@@ -0,0 +1,40 @@
+package org.adaway.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+/**
+ * This entity represents a changed {@link HostListItem} host, whose {@link HostEntry} must be
+ * synchronized.<br>
+ * The changes are recorded by triggers on the hosts lists table.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@Entity(
+        tableName = "host_entry_changes",
+        primaryKeys = {"host", "type"}
+)
+public class HostEntryChange {
+    @NonNull
+    private String host;
+    @NonNull
+    private ListType type;
+
+    @NonNull
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(@NonNull String host) {
+        this.host = host;
+    }
+
+    @NonNull
+    public ListType getType() {
+        return type;
+    }
+
+    public void setType(@NonNull ListType type) {
+        this.type = type;
+    }
+}
@@ -2,36 +2,17 @@ package org.adaway.db.entity;
 
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
-import androidx.room.Entity;
-import androidx.room.ForeignKey;
-import androidx.room.Index;
-import androidx.room.PrimaryKey;
 
 import java.util.Objects;
 
-import static androidx.room.ForeignKey.CASCADE;
-
 /**
- * This entity represents a black, white or redirect list item.
+ * This class represents a black, white or redirect list item.<br>
+ * It is stored as a {@link HostListRecord} referencing its host in the host dictionary and read
+ * back joined with its {@link HostName}.
  *
  * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
  */
-@Entity(
-        tableName = "hosts_lists",
-        indices = {
-                @Index(value = "host"),
-                @Index(value = "source_id")
-        },
-        foreignKeys = @ForeignKey(
-                entity = HostsSource.class,
-                parentColumns = "id",
-                childColumns = "source_id",
-                onUpdate = CASCADE,
-                onDelete = CASCADE
-        )
-)
 public class HostListItem {
-    @PrimaryKey(autoGenerate = true)
     private int id;
     @NonNull
     private String host;
@@ -0,0 +1,94 @@
+package org.adaway.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import static androidx.room.ForeignKey.CASCADE;
+
+/**
+ * This entity represents the stored form of a {@link HostListItem}, referencing its host in the
+ * host dictionary by {@link HostName} identifier instead of holding the host itself.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@Entity(
+        tableName = "hosts_lists",
+        indices = {
+                @Index(value = "host_id"),
+                @Index(value = "source_id"),
+                // Lists probe each host with enabled IN (0, 1) to use the whole index for enabled and disabled items
+                @Index(value = {"type", "enabled", "host_id"})
+        },
+        foreignKeys = @ForeignKey(
+                entity = HostsSource.class,
+                parentColumns = "id",
+                childColumns = "source_id",
+                onUpdate = CASCADE,
+                onDelete = CASCADE
+        )
+)
+public class HostListRecord {
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+    @ColumnInfo(name = "host_id")
+    private int hostId;
+    @NonNull
+    private ListType type;
+    private boolean enabled;
+    private String redirection;
+    @ColumnInfo(name = "source_id")
+    private int sourceId;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getHostId() {
+        return hostId;
+    }
+
+    public void setHostId(int hostId) {
+        this.hostId = hostId;
+    }
+
+    @NonNull
+    public ListType getType() {
+        return type;
+    }
+
+    public void setType(@NonNull ListType type) {
+        this.type = type;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getRedirection() {
+        return redirection;
+    }
+
+    public void setRedirection(String redirection) {
+        this.redirection = redirection;
+    }
+
+    public int getSourceId() {
+        return sourceId;
+    }
+
+    public void setSourceId(int sourceId) {
+        this.sourceId = sourceId;
+    }
+}
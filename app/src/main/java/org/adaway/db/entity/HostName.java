@@ -0,0 +1,61 @@
+package org.adaway.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import org.adaway.util.ReversedHost;
+
+/**
+ * This entity represents a host of the host dictionary.<br>
+ * Each distinct host is stored once, with its reversed form, and referenced by identifier from the
+ * {@link HostListRecord} of all the sources listing it. Hosts no longer referenced are removed by
+ * the hosts lists triggers.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@Entity(
+        tableName = "host_names",
+        indices = {
+                @Index(value = "host", unique = true),
+                @Index(value = "reversed_host")
+        }
+)
+public class HostName {
+    @PrimaryKey
+    private int id;
+    @NonNull
+    private String host;
+    @NonNull
+    @ColumnInfo(name = "reversed_host")
+    private String reversedHost;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    @NonNull
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(@NonNull String host) {
+        this.host = host;
+        this.reversedHost = ReversedHost.reverse(host);
+    }
+
+    @NonNull
+    public String getReversedHost() {
+        return reversedHost;
+    }
+
+    public void setReversedHost(@NonNull String reversedHost) {
+        this.reversedHost = reversedHost;
+    }
+}
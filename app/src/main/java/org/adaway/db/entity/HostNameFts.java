@@ -0,0 +1,42 @@
+package org.adaway.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.PrimaryKey;
+
+/**
+ * This entity represents the full-text search index of the {@link HostName} hosts.<br>
+ * Hosts are tokenized into labels so hosts can be searched by label prefixes. The index has no
+ * content of its own and is kept in sync with the host dictionary by triggers, each distinct host
+ * being indexed once whatever the number of sources listing it.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+@Fts4(contentEntity = HostName.class)
+@Entity(tableName = "host_names_fts")
+public class HostNameFts {
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private int rowId;
+    @NonNull
+    private String host;
+
+    public int getRowId() {
+        return rowId;
+    }
+
+    public void setRowId(int rowId) {
+        this.rowId = rowId;
+    }
+
+    @NonNull
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(@NonNull String host) {
+        this.host = host;
+    }
+}
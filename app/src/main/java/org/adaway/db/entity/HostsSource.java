@@ -51,10 +51,19 @@ public class HostsSource {
      * The HTTP ETag (strong from, may be <code>null</code>).
      */
     private String entityTag;
+    /**
+     * The SHA-256 digest of the last loaded content, as hexadecimal (<code>null</code> until loaded).
+     */
+    private String contentDigest;
     /**
      * The number of hosts list items (<code>0</code> until synced).
      */
     private int size;
+    /**
+     * Whether the last update found the same content as the previous load (<code>false</code>
+     * until loaded).
+     */
+    private boolean contentUnchanged;
 
     /**
      * Check whether an URL is valid for as host source.<br>
@@ -151,6 +160,14 @@ public class HostsSource {
         this.entityTag = entityTag;
     }
 
+    public String getContentDigest() {
+        return this.contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     public int getSize() {
         return this.size;
     }
@@ -159,6 +176,14 @@ public class HostsSource {
         this.size = size;
     }
 
+    public boolean isContentUnchanged() {
+        return this.contentUnchanged;
+    }
+
+    public void setContentUnchanged(boolean contentUnchanged) {
+        this.contentUnchanged = contentUnchanged;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -168,6 +193,7 @@ public class HostsSource {
 
         if (id != that.id) return false;
         if (enabled != that.enabled) return false;
+        if (contentUnchanged != that.contentUnchanged) return false;
         if (!url.equals(that.url)) return false;
         if (!Objects.equals(localModificationDate, that.localModificationDate))
             return false;
@@ -180,6 +206,7 @@ public class HostsSource {
         int result = id;
         result = 31 * result + url.hashCode();
         result = 31 * result + (enabled ? 1 : 0);
+        result = 31 * result + (contentUnchanged ? 1 : 0);
         result = 31 * result + (localModificationDate != null ? localModificationDate.hashCode() : 0);
         result = 31 * result + (onlineModificationDate != null ? onlineModificationDate.hashCode() : 0);
         return result;
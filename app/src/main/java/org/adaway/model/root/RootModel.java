@@ -225,6 +225,10 @@ public class RootModel extends AdBlockModel {
         // Write each hostname
         for (HostEntry entry : this.hostEntryDao.getAll()) {
             String hostname = entry.getHost();
+            // Hosts file does not support wildcards
+            if (hostname.indexOf('*') != -1 || hostname.indexOf('?') != -1) {
+                continue;
+            }
             if (entry.getType() == REDIRECTED) {
                 writer.write(entry.getRedirection() + " " + hostname);
                 writer.newLine();
@@ -0,0 +1,208 @@
+package org.adaway.model.source;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * This class drops the hosts list items duplicated within a source of an update run.<br>
+ * It is a primitive hash map from item fingerprints to the identifier of the first source they
+ * were parsed from, shared by the parsers of all sources. Only duplicates within a source are
+ * dropped. Duplicates across sources are kept as sources can be toggled independently, and only
+ * counted.<br>
+ * It is split into stripes, each guarded by its own lock, to limit contention between parsers.<br>
+ * Each stripe grows up to {@value #MAX_STRIPE_CAPACITY} slots of 12 bytes, so the filter peaks at
+ * 12 MiB for 786,432 fingerprints, plus the 384 KiB of the growing stripe previous arrays. Once a
+ * stripe is full, the new fingerprints it gets are no longer remembered and their items are kept:
+ * the duplicates left are stored as if not filtered, and the host entries build ignores them.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+class DuplicateFilter {
+    private static final int STRIPE_BITS = 4;
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+    private static final int MAX_STRIPE_CAPACITY = 1 << 16;
+    private static final int SLOT_SIZE = Long.BYTES + Integer.BYTES;
+    /**
+     * The source identifier returned for the fingerprints that are not remembered.
+     */
+    private static final int UNTRACKED = -1;
+
+    private final Stripe[] stripes;
+    private final AtomicInteger suppressed;
+    private final AtomicInteger crossSource;
+    private final AtomicInteger untracked;
+
+    /**
+     * Constructor.
+     */
+    DuplicateFilter() {
+        this(MAX_STRIPE_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxStripeCapacity The maximum number of slots of a stripe, a power of two.
+     */
+    DuplicateFilter(int maxStripeCapacity) {
+        this.stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(Math.min(INITIAL_STRIPE_CAPACITY, maxStripeCapacity), maxStripeCapacity);
+        }
+        this.suppressed = new AtomicInteger(0);
+        this.crossSource = new AtomicInteger(0);
+        this.untracked = new AtomicInteger(0);
+    }
+
+    /**
+     * Check whether an item should be kept.
+     *
+     * @param fingerprint The item fingerprint.
+     * @param sourceId    The identifier of the source of the item.
+     * @return {@code true} if the item is not a duplicate of the same source, {@code false} otherwise.
+     */
+    boolean accept(long fingerprint, int sourceId) {
+        Stripe stripe = this.stripes[(int) (fingerprint >>> (Long.SIZE - STRIPE_BITS))];
+        int firstSourceId = stripe.putIfAbsent(fingerprint, sourceId);
+        if (firstSourceId == 0) {
+            return true;
+        } else if (firstSourceId == UNTRACKED) {
+            if (this.untracked.getAndIncrement() == 0) {
+                Timber.w("Duplicate filter is full, new items are no longer checked for duplicates.");
+            }
+            return true;
+        } else if (firstSourceId == sourceId) {
+            this.suppressed.incrementAndGet();
+            return false;
+        } else {
+            this.crossSource.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Get the number of dropped duplicates within sources.
+     *
+     * @return The number of dropped items.
+     */
+    int getSuppressed() {
+        return this.suppressed.get();
+    }
+
+    /**
+     * Get the number of duplicates across sources.
+     *
+     * @return The number of kept items already parsed from another source.
+     */
+    int getCrossSource() {
+        return this.crossSource.get();
+    }
+
+    /**
+     * Get the number of items kept without being checked as the filter was full.
+     *
+     * @return The number of items not checked for duplicates.
+     */
+    int getUntracked() {
+        return this.untracked.get();
+    }
+
+    /**
+     * Get the memory used by the filter tables.
+     *
+     * @return The memory used by the filter tables, in bytes.
+     */
+    long getMemoryUsage() {
+        long usage = 0;
+        for (Stripe stripe : this.stripes) {
+            usage += stripe.getMemoryUsage();
+        }
+        return usage;
+    }
+
+    @Override
+    public String toString() {
+        return this.suppressed.get() + " duplicates suppressed, " + this.crossSource.get() + " cross-source duplicates, " +
+                this.untracked.get() + " items not checked, " + getMemoryUsage() / 1024 + " KiB used";
+    }
+
+    /**
+     * This class is an open addressing hash map from fingerprints to source identifiers.<br>
+     * A slot is empty while its source identifier is {@code 0}.
+     */
+    private static class Stripe {
+        private final int maxCapacity;
+        private long[] fingerprints;
+        private int[] sourceIds;
+        private int size;
+
+        private Stripe(int capacity, int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            this.fingerprints = new long[capacity];
+            this.sourceIds = new int[capacity];
+            this.size = 0;
+        }
+
+        /**
+         * Associate a source to a fingerprint if not already associated.
+         *
+         * @param fingerprint The fingerprint.
+         * @param sourceId    The source identifier.
+         * @return The source identifier already associated, {@code 0} if none or {@link #UNTRACKED}
+         * if none but the stripe is full.
+         */
+        synchronized int putIfAbsent(long fingerprint, int sourceId) {
+            int index = find(fingerprint);
+            if (this.sourceIds[index] != 0) {
+                return this.sourceIds[index];
+            }
+            // Keep the load under 3/4, growing up to the maximum capacity
+            if (this.size + 1 > this.fingerprints.length * 3 / 4) {
+                if (this.fingerprints.length >= this.maxCapacity) {
+                    return UNTRACKED;
+                }
+                grow();
+                index = find(fingerprint);
+            }
+            this.fingerprints[index] = fingerprint;
+            this.sourceIds[index] = sourceId;
+            this.size++;
+            return 0;
+        }
+
+        synchronized long getMemoryUsage() {
+            return (long) this.fingerprints.length * SLOT_SIZE;
+        }
+
+        /**
+         * Find the slot of a fingerprint.
+         *
+         * @param fingerprint The fingerprint to find.
+         * @return The index of the fingerprint slot, or of the empty slot to store it to.
+         */
+        private int find(long fingerprint) {
+            int mask = this.fingerprints.length - 1;
+            int index = (int) fingerprint & mask;
+            while (this.sourceIds[index] != 0 && this.fingerprints[index] != fingerprint) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void grow() {
+            long[] oldFingerprints = this.fingerprints;
+            int[] oldSourceIds = this.sourceIds;
+            this.fingerprints = new long[oldFingerprints.length * 2];
+            this.sourceIds = new int[oldSourceIds.length * 2];
+            for (int i = 0; i < oldFingerprints.length; i++) {
+                if (oldSourceIds[i] == 0) {
+                    continue;
+                }
+                int index = find(oldFingerprints[i]);
+                this.fingerprints[index] = oldFingerprints[i];
+                this.sourceIds[index] = oldSourceIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.adaway.model.source;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.adaway.util.Constants.BOGUS_IPV4;
+import static org.adaway.util.Constants.LOCALHOST_HOSTNAME;
+import static org.adaway.util.Constants.LOCALHOST_IPV4;
+import static org.adaway.util.Constants.LOCALHOST_IPV6;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * This class is a single pass tokenizer for hosts file lines.<br>
+ * It works on the UTF-8 bytes of a line and finds the address and the hostname by index, without
+ * regular expression nor intermediate string. It accepts the same lines as the former
+ * {@code ^\s*([^#\s]+)\s+([^#\s]+).*$} pattern applied to the decoded line.<br>
+ * It is stateful and not thread safe: each parser should use its own instance.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+class HostsLineTokenizer {
+    private static final byte[] BOGUS_IPV4_BYTES = BOGUS_IPV4.getBytes(UTF_8);
+    private static final byte[] LOCALHOST_IPV4_BYTES = LOCALHOST_IPV4.getBytes(UTF_8);
+    private static final byte[] LOCALHOST_IPV6_BYTES = LOCALHOST_IPV6.getBytes(UTF_8);
+    private static final byte[] LOCALHOST_HOSTNAME_BYTES = LOCALHOST_HOSTNAME.getBytes(UTF_8);
+
+    private byte[] line;
+    private int addressStart;
+    private int addressEnd;
+    private int hostnameStart;
+    private int hostnameEnd;
+
+    /**
+     * Check whether a line is blank or a comment.
+     *
+     * @param line  The bytes containing the line.
+     * @param start The line start index.
+     * @param end   The line end index (exclusive, without line terminator).
+     * @return {@code true} if the line is blank or a comment, {@code false} otherwise.
+     */
+    static boolean isBlankOrComment(byte[] line, int start, int end) {
+        int index = skipWhitespaces(line, start, end);
+        return index >= end || line[index] == '#';
+    }
+
+    /**
+     * Tokenize a hosts line.
+     *
+     * @param line The line to tokenize.
+     * @return {@code true} if the line has an address and a hostname, {@code false} otherwise.
+     */
+    @VisibleForTesting
+    boolean tokenize(String line) {
+        byte[] bytes = line.getBytes(UTF_8);
+        return tokenize(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Tokenize a hosts line.
+     *
+     * @param line  The bytes containing the line.
+     * @param start The line start index.
+     * @param end   The line end index (exclusive, without line terminator).
+     * @return {@code true} if the line has an address and a hostname, {@code false} otherwise.
+     */
+    boolean tokenize(byte[] line, int start, int end) {
+        this.line = line;
+        // Skip leading whitespaces
+        int index = skipWhitespaces(line, start, end);
+        // Read address token
+        this.addressStart = index;
+        index = skipToken(line, index, end);
+        this.addressEnd = index;
+        if (this.addressEnd == this.addressStart || index >= end || !isWhitespace(line[index])) {
+            return false;
+        }
+        // Skip separator
+        index = skipWhitespaces(line, index, end);
+        // Read hostname token
+        this.hostnameStart = index;
+        index = skipToken(line, index, end);
+        this.hostnameEnd = index;
+        if (this.hostnameEnd == this.hostnameStart) {
+            return false;
+        }
+        // Check the remaining characters are on the same line
+        return isSingleLine(line, index, end);
+    }
+
+    /**
+     * Check whether the tokenized address is a blocking address ({@code 0.0.0.0}, {@code 127.0.0.1} or {@code ::1}).
+     *
+     * @return {@code true} if the address is a blocking address, {@code false} otherwise.
+     */
+    boolean isBlockingAddress() {
+        return addressEquals(BOGUS_IPV4_BYTES) || addressEquals(LOCALHOST_IPV4_BYTES) || addressEquals(LOCALHOST_IPV6_BYTES);
+    }
+
+    /**
+     * Check whether the tokenized hostname is the localhost name.
+     *
+     * @return {@code true} if the hostname is {@code localhost}, {@code false} otherwise.
+     */
+    boolean isLocalhostHostname() {
+        return regionEquals(this.hostnameStart, this.hostnameEnd, LOCALHOST_HOSTNAME_BYTES);
+    }
+
+    /**
+     * Get the tokenized address.
+     *
+     * @return The tokenized address.
+     */
+    String getAddress() {
+        return new String(this.line, this.addressStart, this.addressEnd - this.addressStart, UTF_8);
+    }
+
+    /**
+     * Get the tokenized hostname.
+     *
+     * @return The tokenized hostname.
+     */
+    String getHostname() {
+        return new String(this.line, this.hostnameStart, this.hostnameEnd - this.hostnameStart, UTF_8);
+    }
+
+    private boolean addressEquals(byte[] address) {
+        return regionEquals(this.addressStart, this.addressEnd, address);
+    }
+
+    private boolean regionEquals(int start, int end, byte[] value) {
+        if (end - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (this.line[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespaces(byte[] line, int index, int end) {
+        while (index < end && isWhitespace(line[index])) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipToken(byte[] line, int index, int end) {
+        while (index < end) {
+            byte b = line[index];
+            if (b == '#' || isWhitespace(b)) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Check whether a byte is a whitespace, as {@code \s} regular expression class.
+     *
+     * @param b The byte to check.
+     * @return {@code true} if the byte is a whitespace, {@code false} otherwise.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * Check the end of a line does not contain any line terminator, as {@code .*$} when matching the whole line.<br>
+     * Besides {@code \n} and {@code \r}, it looks for the UTF-8 encoded {@code U+0085}, {@code U+2028} and
+     * {@code U+2029} line terminators.
+     *
+     * @param line  The bytes containing the line.
+     * @param index The index to start checking from.
+     * @param end   The line end index.
+     * @return {@code true} if the end of the line has no line terminator, {@code false} otherwise.
+     */
+    private static boolean isSingleLine(byte[] line, int index, int end) {
+        for (int i = index; i < end; i++) {
+            byte b = line[i];
+            if (b == '\n' || b == '\r') {
+                return false;
+            }
+            if (b == (byte) 0xC2 && i + 1 < end && line[i + 1] == (byte) 0x85) {
+                return false;
+            }
+            if (b == (byte) 0xE2 && i + 2 < end && line[i + 1] == (byte) 0x80
+                    && (line[i + 2] == (byte) 0xA8 || line[i + 2] == (byte) 0xA9)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package org.adaway.model.source;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded blocking queue that records its peak depth and the time producers spent
+ * blocked on it.<br>
+ * When the queue is full, producers wait for consumers instead of growing the heap.
+ *
+ * @param <T> The type of queued elements.
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+class MeteredQueue<T> {
+    private final BlockingQueue<T> queue;
+    private final int capacity;
+    private final AtomicInteger peakDepth;
+    private final AtomicLong blockedTime;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of queued elements.
+     */
+    MeteredQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.peakDepth = new AtomicInteger(0);
+        this.blockedTime = new AtomicLong(0);
+    }
+
+    /**
+     * Add an element to the queue, waiting for space to become available if needed.
+     *
+     * @param element The element to add.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void put(T element) throws InterruptedException {
+        if (!this.queue.offer(element)) {
+            long start = System.nanoTime();
+            this.queue.put(element);
+            this.blockedTime.addAndGet(System.nanoTime() - start);
+        }
+        this.peakDepth.accumulateAndGet(this.queue.size(), Math::max);
+    }
+
+    /**
+     * Retrieve and remove the head of the queue, waiting for an element to become available if needed.
+     *
+     * @return The head of the queue.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    T take() throws InterruptedException {
+        return this.queue.take();
+    }
+
+    /**
+     * Get the queue capacity.
+     *
+     * @return The maximum number of queued elements.
+     */
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the peak queue depth.
+     *
+     * @return The maximum number of elements queued at the same time.
+     */
+    int getPeakDepth() {
+        return this.peakDepth.get();
+    }
+
+    /**
+     * Get the time producers spent blocked on a full queue.
+     *
+     * @return The cumulated blocked time, in milliseconds.
+     */
+    long getBlockedTime() {
+        return this.blockedTime.get() / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        return "peak depth " + getPeakDepth() + "/" + this.capacity + ", producers blocked " + getBlockedTime() + "ms";
+    }
+}
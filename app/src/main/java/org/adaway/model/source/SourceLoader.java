@@ -1,30 +1,32 @@
 package org.adaway.model.source;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.adaway.db.entity.ListType.ALLOWED;
 import static org.adaway.db.entity.ListType.BLOCKED;
 import static org.adaway.db.entity.ListType.REDIRECTED;
-import static org.adaway.util.Constants.BOGUS_IPV4;
-import static org.adaway.util.Constants.LOCALHOST_HOSTNAME;
-import static org.adaway.util.Constants.LOCALHOST_IPV4;
-import static org.adaway.util.Constants.LOCALHOST_IPV6;
 
-import org.adaway.db.dao.HostListItemDao;
-import org.adaway.db.entity.HostListItem;
+import androidx.annotation.Nullable;
+
+import org.adaway.db.HostListItemBulkLoader;
+import org.adaway.db.HostListItemBulkLoader.Batch;
 import org.adaway.db.entity.HostsSource;
 import org.adaway.db.entity.ListType;
-import org.adaway.util.RegexUtils;
+import org.adaway.util.HostValidator;
 
-import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Semaphore;
 
+import okio.BufferedSource;
+import okio.ByteString;
 import timber.log.Timber;
 
 /**
@@ -35,107 +37,237 @@ import timber.log.Timber;
  */
 class SourceLoader {
     private static final String TAG = "SourceLoader";
-    private static final String END_OF_QUEUE_MARKER = "#EndOfQueueMarker";
-    private static final int INSERT_BATCH_SIZE = 100;
-    private static final String HOSTS_PARSER = "^\\s*([^#\\s]+)\\s+([^#\\s]+).*$";
-    static final Pattern HOSTS_PARSER_PATTERN = Pattern.compile(HOSTS_PARSER);
+    private static final LineChunk END_OF_QUEUE_CHUNK = new LineChunk(new byte[0], 0);
+    private static final Batch END_OF_QUEUE_ITEMS = new Batch(0);
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+    private static final ByteString UTF8_BOM = ByteString.decodeHex("efbbbf");
+    /**
+     * The maximum memory held by the queues of a loader (4 MiB), half for lines, half for items.
+     */
+    private static final int QUEUE_MEMORY_CEILING = 4 * 1024 * 1024;
+    /**
+     * The estimated memory size of a parsed item in a batch, with its hostname.
+     */
+    private static final int ESTIMATED_ITEM_SIZE = 112;
+    private static final int LINE_QUEUE_CAPACITY = QUEUE_MEMORY_CEILING / 2 / READ_CHUNK_SIZE;
 
     private final HostsSource source;
+    private final int batchSize;
+    private final DuplicateFilter duplicateFilter;
+    private final MeteredQueue<LineChunk> lineQueue;
+    private final MeteredQueue<Batch> itemQueue;
+    /**
+     * The read chunk buffers released by the parsers, to be reused by the reader.
+     */
+    private final BlockingQueue<byte[]> chunkBuffers;
 
-    SourceLoader(HostsSource hostsSource) {
+    /**
+     * Constructor.
+     *
+     * @param hostsSource     The source to load.
+     * @param batchSize       The number of items per batch sent from parsers to the database.
+     * @param duplicateFilter The duplicate filter shared by the sources of the update run.
+     */
+    SourceLoader(HostsSource hostsSource, int batchSize, DuplicateFilter duplicateFilter) {
         this.source = hostsSource;
+        this.batchSize = batchSize;
+        this.duplicateFilter = duplicateFilter;
+        this.lineQueue = new MeteredQueue<>(LINE_QUEUE_CAPACITY);
+        this.chunkBuffers = new ArrayBlockingQueue<>(LINE_QUEUE_CAPACITY);
+        this.itemQueue = new MeteredQueue<>(Math.max(1, QUEUE_MEMORY_CEILING / 2 / (batchSize * ESTIMATED_ITEM_SIZE)));
     }
 
-    void parse(BufferedReader reader, HostListItemDao hostListItemDao) {
-        // Clear current hosts
-        hostListItemDao.clearSourceHosts(this.source.getId());
+    /**
+     * Parse the source and load it to database.
+     *
+     * @param source          The source bytes.
+     * @param bulkLoader      The hosts list items bulk loader.
+     * @param databaseWriters The permits to write to the database, shared between concurrent loaders.
+     * @return The load result, with the number of added and removed items.
+     * @throws IOException If the source could not be read or loaded. The previously loaded items are kept.
+     */
+    HostListItemBulkLoader.Result parse(BufferedSource source, HostListItemBulkLoader bulkLoader, Semaphore databaseWriters) throws IOException {
         // Create batch
         int parserCount = 3;
-        LinkedBlockingQueue<String> hostsLineQueue = new LinkedBlockingQueue<>();
-        LinkedBlockingQueue<HostListItem> hostsListItemQueue = new LinkedBlockingQueue<>();
-        SourceReader sourceReader = new SourceReader(reader, hostsLineQueue, parserCount);
-        ItemInserter inserter = new ItemInserter(hostsListItemQueue, hostListItemDao, parserCount);
+        SourceReader sourceReader = new SourceReader(source, this.lineQueue, this.chunkBuffers, parserCount);
         ExecutorService executorService = Executors.newFixedThreadPool(
                 parserCount + 2,
                 r -> new Thread(r, TAG)
         );
-        executorService.execute(sourceReader);
+        Future<Void> readerFuture = executorService.submit(sourceReader);
         for (int i = 0; i < parserCount; i++) {
-            executorService.execute(new HostListItemParser(this.source, hostsLineQueue, hostsListItemQueue));
+            executorService.execute(new HostListItemParser(this.source, this.batchSize, this.duplicateFilter, this.lineQueue, this.chunkBuffers, this.itemQueue));
         }
-        Future<Integer> inserterFuture = executorService.submit(inserter);
+        ItemInserter inserter = new ItemInserter(this.source, readerFuture, this.itemQueue, bulkLoader, databaseWriters, parserCount);
+        Future<HostListItemBulkLoader.Result> inserterFuture = executorService.submit(inserter);
         try {
-            Integer inserted = inserterFuture.get();
-            Timber.i("%s host list items inserted.", inserted);
+            HostListItemBulkLoader.Result result = inserterFuture.get();
+            Timber.i("Host list items loaded: %s.", result);
+            return result;
         } catch (ExecutionException e) {
-            Timber.w(e, "Failed to parse hosts sources.");
+            throw new IOException("Failed to load hosts source.", e.getCause());
         } catch (InterruptedException e) {
-            Timber.w(e, "Interrupted while parsing sources.");
             Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading hosts source.");
+        } finally {
+            // Stop reader and parsers that could be blocked on a full queue if the inserter failed
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the queue of source lines, from the reader to the parsers.
+     *
+     * @return The metered line queue.
+     */
+    MeteredQueue<?> getLineQueue() {
+        return this.lineQueue;
+    }
+
+    /**
+     * Get the queue of parsed items, from the parsers to the inserter.
+     *
+     * @return The metered item queue.
+     */
+    MeteredQueue<?> getItemQueue() {
+        return this.itemQueue;
+    }
+
+    /**
+     * This class is a chunk of complete source lines, as UTF-8 bytes.
+     */
+    private static class LineChunk {
+        private final byte[] data;
+        private final int length;
+
+        private LineChunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
         }
-        executorService.shutdown();
     }
 
-    private static class SourceReader implements Runnable {
-        private final BufferedReader reader;
-        private final BlockingQueue<String> queue;
+    private static class SourceReader implements Callable<Void> {
+        private final BufferedSource source;
+        private final MeteredQueue<LineChunk> queue;
+        private final BlockingQueue<byte[]> chunkBuffers;
         private final int parserCount;
 
-        private SourceReader(BufferedReader reader, BlockingQueue<String> queue, int parserCount) {
-            this.reader = reader;
+        private SourceReader(BufferedSource source, MeteredQueue<LineChunk> queue, BlockingQueue<byte[]> chunkBuffers, int parserCount) {
+            this.source = source;
             this.queue = queue;
+            this.chunkBuffers = chunkBuffers;
             this.parserCount = parserCount;
         }
 
         @Override
-        public void run() {
+        public Void call() throws IOException, InterruptedException {
             try {
-                this.reader.lines().forEach(this.queue::add);
-            } catch (Throwable t) {
-                Timber.w(t, "Failed to read hosts source.");
-            } finally {
-                // Send end of queue marker to parsers
-                for (int i = 0; i < this.parserCount; i++) {
-                    this.queue.add(END_OF_QUEUE_MARKER);
+                // Skip byte order mark if present
+                if (this.source.rangeEquals(0, UTF8_BOM)) {
+                    this.source.skip(UTF8_BOM.size());
                 }
+                readChunks();
+            } catch (InterruptedException e) {
+                Timber.w(e, "Interrupted while reading hosts source.");
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                Timber.w(e, "Failed to read hosts source.");
+                // Let parsers end, the inserter will report the failure
+                endQueue();
+                throw e;
             }
+            endQueue();
+            return null;
+        }
+
+        private void endQueue() throws InterruptedException {
+            // Send end of queue marker to parsers
+            for (int i = 0; i < this.parserCount; i++) {
+                this.queue.put(END_OF_QUEUE_CHUNK);
+            }
+        }
+
+        private void readChunks() throws IOException, InterruptedException {
+            byte[] buffer = getChunkBuffer(0);
+            int length = 0;
+            int read;
+            while ((read = this.source.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                // Fill the buffer before queuing it
+                if (length < buffer.length) {
+                    continue;
+                }
+                // Look for the last line terminator
+                int chunkLength = length;
+                while (chunkLength > 0 && buffer[chunkLength - 1] != '\n' && buffer[chunkLength - 1] != '\r') {
+                    chunkLength--;
+                }
+                // Grow buffer if a line does not fit into it
+                if (chunkLength == 0) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                // Queue complete lines and keep the incomplete one for the next chunk
+                int remaining = length - chunkLength;
+                byte[] nextBuffer = getChunkBuffer(2 * remaining);
+                System.arraycopy(buffer, chunkLength, nextBuffer, 0, remaining);
+                this.queue.put(new LineChunk(buffer, chunkLength));
+                buffer = nextBuffer;
+                length = remaining;
+            }
+            // Queue the remaining lines
+            if (length > 0) {
+                this.queue.put(new LineChunk(buffer, length));
+            }
+        }
+
+        private byte[] getChunkBuffer(int length) {
+            byte[] buffer = length <= READ_CHUNK_SIZE ? this.chunkBuffers.poll() : null;
+            if (buffer == null) {
+                buffer = new byte[Math.max(length, READ_CHUNK_SIZE)];
+            }
+            return buffer;
         }
     }
 
     private static class HostListItemParser implements Runnable {
         private final HostsSource source;
-        private final BlockingQueue<String> lineQueue;
-        private final BlockingQueue<HostListItem> itemQueue;
+        private final int batchSize;
+        private final DuplicateFilter duplicateFilter;
+        private final MeteredQueue<LineChunk> lineQueue;
+        private final BlockingQueue<byte[]> chunkBuffers;
+        private final MeteredQueue<Batch> itemQueue;
+        private final HostsLineTokenizer tokenizer;
+        private Batch items;
 
-        private HostListItemParser(HostsSource source, BlockingQueue<String> lineQueue, BlockingQueue<HostListItem> itemQueue) {
+        private HostListItemParser(HostsSource source, int batchSize, DuplicateFilter duplicateFilter, MeteredQueue<LineChunk> lineQueue, BlockingQueue<byte[]> chunkBuffers, MeteredQueue<Batch> itemQueue) {
             this.source = source;
+            this.batchSize = batchSize;
+            this.duplicateFilter = duplicateFilter;
             this.lineQueue = lineQueue;
+            this.chunkBuffers = chunkBuffers;
             this.itemQueue = itemQueue;
+            this.tokenizer = new HostsLineTokenizer();
+            this.items = new Batch(batchSize);
         }
 
         @Override
         public void run() {
-            boolean allowedList = this.source.isAllowEnabled();
             boolean endOfSource = false;
             while (!endOfSource) {
                 try {
-                    String line = this.lineQueue.take();
+                    LineChunk chunk = this.lineQueue.take();
                     // Check end of queue marker
-                    //noinspection StringEquality
-                    if (line == END_OF_QUEUE_MARKER) {
+                    if (chunk == END_OF_QUEUE_CHUNK) {
                         endOfSource = true;
-                        // Send end of queue marker to inserter
-                        HostListItem endItem = new HostListItem();
-                        endItem.setHost(line);
-                        this.itemQueue.add(endItem);
-                    } // Check comments
-                    else if (line.isEmpty() || line.charAt(0) == '#') {
-                        Timber.d("Skip comment: %s.", line);
-                    } else {
-                        HostListItem item = allowedList ? parseAllowListItem(line) : parseHostListItem(line);
-                        if (item != null && isRedirectionValid(item) && isHostValid(item)) {
-                            this.itemQueue.add(item);
+                        // Flush parsed items then send end of queue marker to inserter
+                        if (!this.items.isEmpty()) {
+                            this.itemQueue.put(this.items);
                         }
+                        this.itemQueue.put(END_OF_QUEUE_ITEMS);
+                    } else {
+                        parseChunk(chunk);
+                        releaseChunkBuffer(chunk.data);
                     }
                 } catch (InterruptedException e) {
                     Timber.w(e, "Interrupted while parsing hosts list item.");
@@ -145,123 +277,163 @@ class SourceLoader {
             }
         }
 
-        private HostListItem parseHostListItem(String line) {
-            Matcher matcher = HOSTS_PARSER_PATTERN.matcher(line);
-            if (!matcher.matches()) {
-                Timber.d("Does not match: %s.", line);
-                return null;
+        private void releaseChunkBuffer(byte[] buffer) {
+            // Only reuse the buffers of the read size, not the ones grown for longer lines
+            if (buffer.length == READ_CHUNK_SIZE) {
+                this.chunkBuffers.offer(buffer);
+            }
+        }
+
+        private void parseChunk(LineChunk chunk) throws InterruptedException {
+            boolean allowedList = this.source.isAllowEnabled();
+            byte[] data = chunk.data;
+            int lineStart = 0;
+            while (lineStart < chunk.length) {
+                // Find line end
+                int lineEnd = lineStart;
+                while (lineEnd < chunk.length && data[lineEnd] != '\n' && data[lineEnd] != '\r') {
+                    lineEnd++;
+                }
+                // Skip comments and blank lines
+                if (!HostsLineTokenizer.isBlankOrComment(data, lineStart, lineEnd)) {
+                    if (allowedList) {
+                        parseAllowListItem(new String(data, lineStart, lineEnd - lineStart, UTF_8));
+                    } else {
+                        parseHostListItem(data, lineStart, lineEnd);
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        private void addItem(String host, ListType type, String redirection) throws InterruptedException {
+            // Drop duplicates within the source
+            long fingerprint = HostListItemBulkLoader.fingerprint(host, type, redirection);
+            if (!this.duplicateFilter.accept(fingerprint, this.source.getId())) {
+                return;
+            }
+            this.items.add(host, type, redirection, fingerprint);
+            if (this.items.isFull()) {
+                this.itemQueue.put(this.items);
+                this.items = new Batch(this.batchSize);
+            }
+        }
+
+        private void parseHostListItem(byte[] data, int lineStart, int lineEnd) throws InterruptedException {
+            if (!this.tokenizer.tokenize(data, lineStart, lineEnd)) {
+                Timber.d("Does not match: %s.", new String(data, lineStart, lineEnd - lineStart, UTF_8));
+                return;
             }
-            // Check IP address validity or while list entry (if allowed)
-            String ip = matcher.group(1);
-            String hostname = matcher.group(2);
-            assert hostname != null;
             // Skip localhost name
-            if (LOCALHOST_HOSTNAME.equals(hostname)) {
-                return null;
+            if (this.tokenizer.isLocalhostHostname()) {
+                return;
             }
             // check if ip is 127.0.0.1 or 0.0.0.0
             ListType type;
-            if (LOCALHOST_IPV4.equals(ip)
-                    || BOGUS_IPV4.equals(ip)
-                    || LOCALHOST_IPV6.equals(ip)) {
+            String redirection = null;
+            if (this.tokenizer.isBlockingAddress()) {
                 type = BLOCKED;
             } else if (this.source.isRedirectEnabled()) {
                 type = REDIRECTED;
+                redirection = this.tokenizer.getAddress();
+                if (!HostValidator.isValidIP(redirection)) {
+                    return;
+                }
             } else {
-                return null;
+                return;
             }
-            HostListItem item = new HostListItem();
-            item.setType(type);
-            item.setHost(hostname);
-            item.setEnabled(true);
-            if (type == REDIRECTED) {
-                item.setRedirection(ip);
+            String hostname = this.tokenizer.getHostname();
+            if (isHostValid(type, hostname)) {
+                addItem(HostValidator.normalizeHostname(hostname), type, redirection);
             }
-            item.setSourceId(this.source.getId());
-            return item;
         }
 
-        private HostListItem parseAllowListItem(String line) {
+        private void parseAllowListItem(String line) throws InterruptedException {
             // Extract hostname
             int indexOf = line.indexOf('#');
             if (indexOf == 1) {
                 line = line.substring(0, indexOf);
             }
             line = line.trim();
-            // Create item
-            HostListItem item = new HostListItem();
-            item.setType(ALLOWED);
-            item.setHost(line);
-            item.setEnabled(true);
-            item.setSourceId(this.source.getId());
-            return item;
-        }
-
-        private boolean isRedirectionValid(HostListItem item) {
-            return item.getType() != REDIRECTED || RegexUtils.isValidIP(item.getRedirection());
+            if (isHostValid(ALLOWED, line)) {
+                addItem(HostValidator.normalizeHostname(line), ALLOWED, null);
+            }
         }
 
-        private boolean isHostValid(HostListItem item) {
-            String hostname = item.getHost();
-            if (item.getType() == BLOCKED) {
-                if (hostname.indexOf('?') != -1 || hostname.indexOf('*') != -1) {
-                    return false;
-                }
-                return RegexUtils.isValidHostname(hostname);
-            }
-            return RegexUtils.isValidWildcardHostname(hostname);
+        private boolean isHostValid(ListType type, String hostname) {
+            return type == BLOCKED ?
+                    HostValidator.isValidHostname(hostname) :
+                    HostValidator.isValidWildcardHostname(hostname);
         }
     }
 
-    private static class ItemInserter implements Callable<Integer> {
-        private final BlockingQueue<HostListItem> hostListItemQueue;
-        private final HostListItemDao hostListItemDao;
+    private static class ItemInserter implements Callable<HostListItemBulkLoader.Result>, HostListItemBulkLoader.BatchSupplier {
+        private final HostsSource source;
+        private final Future<Void> readerFuture;
+        private final MeteredQueue<Batch> hostListItemQueue;
+        private final HostListItemBulkLoader bulkLoader;
+        private final Semaphore databaseWriters;
         private final int parserCount;
+        private int workerStopped;
+        /**
+         * Whether the database writer permit is held.
+         */
+        private boolean writing;
 
-        private ItemInserter(BlockingQueue<HostListItem> itemQueue, HostListItemDao hostListItemDao, int parserCount) {
+        private ItemInserter(HostsSource source, Future<Void> readerFuture, MeteredQueue<Batch> itemQueue, HostListItemBulkLoader bulkLoader, Semaphore databaseWriters, int parserCount) {
+            this.source = source;
+            this.readerFuture = readerFuture;
             this.hostListItemQueue = itemQueue;
-            this.hostListItemDao = hostListItemDao;
+            this.bulkLoader = bulkLoader;
+            this.databaseWriters = databaseWriters;
             this.parserCount = parserCount;
+            this.workerStopped = 0;
         }
 
         @Override
-        public Integer call() {
-            int inserted = 0;
-            int workerStopped = 0;
-            HostListItem[] batch = new HostListItem[INSERT_BATCH_SIZE];
-            int cacheSize = 0;
-            boolean queueEmptied = false;
-            while (!queueEmptied) {
-                try {
-                    HostListItem item = this.hostListItemQueue.take();
-                    // Check end of queue marker
-                    //noinspection StringEquality
-                    if (item.getHost() == END_OF_QUEUE_MARKER) {
-                        workerStopped++;
-                        if (workerStopped >= this.parserCount) {
-                            queueEmptied = true;
-                        }
-                    } else {
-                        batch[cacheSize++] = item;
-                        if (cacheSize >= batch.length) {
-                            this.hostListItemDao.insert(batch);
-                            inserted += cacheSize;
-                            cacheSize = 0;
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    Timber.w(e, "Interrupted while inserted hosts list item.");
-                    queueEmptied = true;
-                    Thread.currentThread().interrupt();
+        public HostListItemBulkLoader.Result call() throws IOException, InterruptedException {
+            // Hold a database writer permit only while writing, not while waiting for parsed items
+            this.databaseWriters.acquire();
+            this.writing = true;
+            try {
+                // Replace current hosts with parsed ones, once the whole source is read
+                return this.bulkLoader.load(this.source.getId(), this);
+            } finally {
+                if (this.writing) {
+                    this.writing = false;
+                    this.databaseWriters.release();
                 }
             }
-            // Flush current batch
-            HostListItem[] remaining = new HostListItem[cacheSize];
-            System.arraycopy(batch, 0, remaining, 0, remaining.length);
-            this.hostListItemDao.insert(remaining);
-            inserted += cacheSize;
-            // Return number of inserted items
-            return inserted;
+        }
+
+        @Override
+        public Batch next() throws IOException, InterruptedException {
+            this.writing = false;
+            this.databaseWriters.release();
+            Batch batch = takeBatch();
+            this.databaseWriters.acquire();
+            this.writing = true;
+            return batch;
+        }
+
+        @Nullable
+        private Batch takeBatch() throws IOException, InterruptedException {
+            while (this.workerStopped < this.parserCount) {
+                Batch batch = this.hostListItemQueue.take();
+                // Check end of queue marker
+                if (batch == END_OF_QUEUE_ITEMS) {
+                    this.workerStopped++;
+                } else {
+                    return batch;
+                }
+            }
+            // Check the source was read up to its end
+            try {
+                this.readerFuture.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to read hosts source.", e.getCause());
+            }
+            return null;
         }
     }
 }
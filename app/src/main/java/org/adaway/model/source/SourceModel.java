@@ -25,6 +25,8 @@ import androidx.lifecycle.MutableLiveData;
 
 import org.adaway.R;
 import org.adaway.db.AppDatabase;
+import org.adaway.db.HostEntryBuilder;
+import org.adaway.db.HostListItemBulkLoader;
 import org.adaway.db.converter.ZonedDateTimeConverter;
 import org.adaway.db.dao.HostEntryDao;
 import org.adaway.db.dao.HostListItemDao;
@@ -35,21 +37,34 @@ import org.adaway.db.entity.HostsSource;
 import org.adaway.model.error.HostErrorException;
 import org.adaway.model.git.GitHostsSource;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.MalformedURLException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSink;
+import okio.HashingSource;
+import okio.Okio;
 import timber.log.Timber;
 
 /**
@@ -67,6 +82,19 @@ public class SourceModel {
     private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
     private static final String ENTITY_TAG_HEADER = "ETag";
     private static final String WEAK_ENTITY_TAG_PREFIX = "W/";
+    private static final String TAG = "SourceModel";
+    /**
+     * The number of hosts sources to download and parse at the same time.
+     */
+    private static final int DOWNLOAD_CONCURRENCY = 4;
+    /**
+     * The number of hosts sources to write to the database at the same time.
+     */
+    private static final int DATABASE_WRITE_CONCURRENCY = 2;
+    /**
+     * The number of parsed hosts list items sent to the database at once.
+     */
+    private static final int LOAD_BATCH_SIZE = 500;
     /**
      * The application context.
      */
@@ -75,6 +103,10 @@ public class SourceModel {
      * The {@link HostsSource} DAO.
      */
     private final HostsSourceDao hostsSourceDao;
+    /**
+     * The application database.
+     */
+    private final AppDatabase database;
     /**
      * The {@link HostListItem} DAO.
      */
@@ -83,6 +115,14 @@ public class SourceModel {
      * The {@link HostEntry} DAO.
      */
     private final HostEntryDao hostEntryDao;
+    /**
+     * The {@link HostListItem} bulk loader.
+     */
+    private final HostListItemBulkLoader hostListItemBulkLoader;
+    /**
+     * The {@link HostEntry} builder.
+     */
+    private final HostEntryBuilder hostEntryBuilder;
     /**
      * The update available status.
      */
@@ -91,6 +131,10 @@ public class SourceModel {
      * The model state.
      */
     private final MutableLiveData<String> state;
+    /**
+     * The permits to write hosts sources to the database.
+     */
+    private final Semaphore databaseWriters;
     /**
      * The HTTP client to download hosts sources ({@code null} until initialized by {@link #getHttpClient()}).
      */
@@ -103,13 +147,16 @@ public class SourceModel {
      */
     public SourceModel(Context context) {
         this.context = context;
-        AppDatabase database = AppDatabase.getInstance(this.context);
-        this.hostsSourceDao = database.hostsSourceDao();
-        this.hostListItemDao = database.hostsListItemDao();
-        this.hostEntryDao = database.hostEntryDao();
+        this.database = AppDatabase.getInstance(this.context);
+        this.hostsSourceDao = this.database.hostsSourceDao();
+        this.hostListItemDao = this.database.hostsListItemDao();
+        this.hostEntryDao = this.database.hostEntryDao();
+        this.hostListItemBulkLoader = new HostListItemBulkLoader(this.database);
+        this.hostEntryBuilder = new HostEntryBuilder(this.database);
         this.state = new MutableLiveData<>("");
         this.updateAvailable = new MutableLiveData<>();
         this.updateAvailable.setValue(false);
+        this.databaseWriters = new Semaphore(DATABASE_WRITE_CONCURRENCY);
         SourceUpdateService.syncPreferences(context);
     }
 
@@ -313,67 +360,130 @@ public class SourceModel {
         int numberOfFailedCopies = 0;
         // Compute current date in UTC timezone
         ZonedDateTime now = ZonedDateTime.now();
-        // Get each hosts source
-        for (HostsSource source : this.hostsSourceDao.getAll()) {
-            int sourceId = source.getId();
-            // Clear disabled source
-            if (!source.isEnabled()) {
-                this.hostListItemDao.clearSourceHosts(sourceId);
-                this.hostsSourceDao.clearProperties(sourceId);
-                continue;
-            }
-            // Get hosts source last update
-            ZonedDateTime onlineModificationDate = getHostsSourceLastUpdate(source);
-            if (onlineModificationDate == null) {
-                onlineModificationDate = now;
-            }
-            // Check if update available
-            ZonedDateTime localModificationDate = source.getLocalModificationDate();
-            if (localModificationDate != null && localModificationDate.isAfter(onlineModificationDate)) {
-                Timber.i("Skip source %s: no update.", source.getLabel());
-                continue;
+        // Initialize parse run wall-clock time and duplicate filter
+        ParseRun parseRun = new ParseRun();
+        // Write hosts sources and entries with the bulk load profile
+        this.database.enterBulkLoad();
+        try {
+            // Get each hosts source and retrieve it concurrently
+            ExecutorService executorService = Executors.newFixedThreadPool(
+                    DOWNLOAD_CONCURRENCY,
+                    r -> new Thread(r, TAG)
+            );
+            List<Future<Boolean>> retrievals = new ArrayList<>();
+            for (HostsSource source : this.hostsSourceDao.getAll()) {
+                int sourceId = source.getId();
+                // Clear disabled source
+                if (!source.isEnabled()) {
+                    parseRun.defer(Arrays.asList(
+                            () -> this.hostListItemDao.clearSourceHosts(sourceId),
+                            () -> this.hostsSourceDao.clearProperties(sourceId)
+                    ));
+                    continue;
+                }
+                retrievals.add(executorService.submit(() -> retrieveHostsSource(source, now, parseRun)));
             }
-            // Increment number of copy
-            numberOfCopies++;
-            try {
-                // Check hosts source type
-                switch (source.getType()) {
-                    case URL:
-                        downloadHostSource(source);
-                        break;
-                    case FILE:
-                        readSourceFile(source);
-                        break;
-                    default:
-                        Timber.w("Hosts source type  is not supported.");
+            executorService.shutdown();
+            // Collect each retrieval result
+            for (Future<Boolean> retrieval : retrievals) {
+                try {
+                    if (retrieval.get()) {
+                        // Increment number of copy
+                        numberOfCopies++;
+                    }
+                } catch (ExecutionException e) {
+                    // Increment number of copy and failed copy
+                    numberOfCopies++;
+                    numberOfFailedCopies++;
+                } catch (InterruptedException e) {
+                    Timber.w(e, "Interrupted while retrieving host sources.");
+                    executorService.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new HostErrorException(DOWNLOAD_FAILED);
                 }
-                // Update local and online modification dates to now
-                localModificationDate = onlineModificationDate.isAfter(now) ? onlineModificationDate : now;
-                this.hostsSourceDao.updateModificationDates(sourceId, localModificationDate, onlineModificationDate);
-                // Update size
-                this.hostsSourceDao.updateSize(sourceId);
-            } catch (IOException e) {
-                Timber.w(e, "Failed to retrieve host source %s.", source.getUrl());
-                // Increment number of failed copy
-                numberOfFailedCopies++;
             }
+            parseRun.log();
+            // Write the retrieved sources and synchronize hosts entries in a single transaction to notify observers once
+            this.database.runInTransaction(() -> {
+                parseRun.commit();
+                syncHostEntries();
+            });
+            // Check if all copies failed
+            if (numberOfCopies == numberOfFailedCopies && numberOfCopies != 0) {
+                throw new HostErrorException(DOWNLOAD_FAILED);
+            }
+        } finally {
+            this.database.exitBulkLoad();
         }
-        // Check if all copies failed
-        if (numberOfCopies == numberOfFailedCopies && numberOfCopies != 0) {
-            throw new HostErrorException(DOWNLOAD_FAILED);
-        }
-        // Synchronize hosts entries
-        syncHostEntries();
         // Mark no update available
         this.updateAvailable.postValue(false);
     }
 
     /**
-     * Synchronize hosts entries from current source states.
+     * Retrieve a hosts source file and store it into database.
+     *
+     * @param source     The hosts source to retrieve.
+     * @param now        The current date.
+     * @param parseRun   The parse run to update.
+     * @return {@code true} if the source was copied, {@code false} if it was skipped as not updated.
+     * @throws IOException If the hosts source could not be retrieved.
+     */
+    private boolean retrieveHostsSource(HostsSource source, ZonedDateTime now, ParseRun parseRun) throws IOException {
+        // Defer the source writes to the end of the parse run, once the source is retrieved
+        List<Runnable> writes = new ArrayList<>();
+        int sourceId = source.getId();
+        // Get hosts source last update
+        ZonedDateTime onlineModificationDate = getHostsSourceLastUpdate(source);
+        if (onlineModificationDate == null) {
+            onlineModificationDate = now;
+        }
+        // Check if update available
+        ZonedDateTime localModificationDate = source.getLocalModificationDate();
+        if (localModificationDate != null && localModificationDate.isAfter(onlineModificationDate)) {
+            Timber.i("Skip source %s: no update.", source.getLabel());
+            return false;
+        }
+        try {
+            // Check hosts source type
+            boolean changed = true;
+            switch (source.getType()) {
+                case URL:
+                    changed = downloadHostSource(source, parseRun, writes);
+                    break;
+                case FILE:
+                    changed = readSourceFile(source, parseRun, writes);
+                    break;
+                default:
+                    Timber.w("Hosts source type  is not supported.");
+            }
+            // Keep the online modification date of the last content change if unchanged
+            if (!changed && source.getOnlineModificationDate() != null) {
+                onlineModificationDate = source.getOnlineModificationDate();
+            }
+            // Update local and online modification dates to now
+            ZonedDateTime localDate = onlineModificationDate.isAfter(now) ? onlineModificationDate : now;
+            ZonedDateTime onlineDate = onlineModificationDate;
+            writes.add(() -> this.hostsSourceDao.updateModificationDates(sourceId, localDate, onlineDate));
+        } catch (IOException e) {
+            Timber.w(e, "Failed to retrieve host source %s.", source.getUrl());
+            this.hostListItemBulkLoader.discard(sourceId);
+            throw e;
+        }
+        parseRun.defer(writes);
+        return true;
+    }
+
+    /**
+     * Synchronize hosts entries from current source states.<br>
+     * Only the changed hosts are synchronized, unless too many changed.
      */
     public void syncHostEntries() {
         setState(R.string.status_sync_database);
-        this.hostEntryDao.sync();
+        long startTime = System.currentTimeMillis();
+        if (!this.hostEntryDao.syncChanges()) {
+            this.hostEntryBuilder.rebuild();
+        }
+        Timber.i("Synchronized host entries in %dms.", System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -382,7 +492,7 @@ public class SourceModel {
      * @return The HTTP client to download hosts sources.
      */
     @NonNull
-    private OkHttpClient getHttpClient() {
+    private synchronized OkHttpClient getHttpClient() {
         if (this.cachedHttpClient == null) {
             this.cachedHttpClient = new OkHttpClient.Builder()
                     .cache(new Cache(this.context.getCacheDir(), CACHE_SIZE))
@@ -411,12 +521,17 @@ public class SourceModel {
     }
 
     /**
-     * Download an hosts source file and append it to the database.
+     * Download an hosts source file and append it to the database.<br>
+     * If the server provides neither ETag nor Last-Modified header, the source is first spooled to
+     * a cache file to check its content digest before parsing it.
      *
-     * @param source The hosts source to download.
+     * @param source     The hosts source to download.
+     * @param parseRun   The parse run to update.
+     * @param writes     The source writes to defer.
+     * @return {@code false} if the source content is unchanged since its last load, {@code true} otherwise.
      * @throws IOException If the hosts source could not be downloaded.
      */
-    private void downloadHostSource(HostsSource source) throws IOException {
+    private boolean downloadHostSource(HostsSource source, ParseRun parseRun, List<Runnable> writes) throws IOException {
         // Get hosts file URL
         String hostsFileUrl = source.getUrl();
         Timber.v("Downloading hosts file: %s.", hostsFileUrl);
@@ -426,45 +541,123 @@ public class SourceModel {
         Request request = getRequestFor(source).build();
         // Request hosts file and open byte stream
         try (Response response = getHttpClient().newCall(request).execute();
-             Reader reader = requireNonNull(response.body()).charStream();
-             BufferedReader bufferedReader = new BufferedReader(reader)) {
+             BufferedSource bufferedSource = requireNonNull(response.body()).source()) {
             // Skip source parsing if not modified
             if (response.code() == HTTP_NOT_MODIFIED) {
                 Timber.d("Source %s was not updated since last fetch.", source.getUrl());
-                return;
+                skipUnchangedSource(source, source.getContentDigest(), writes);
+                return false;
+            }
+            // Parse source
+            boolean changed;
+            if (response.header(ENTITY_TAG_HEADER) == null && response.header(LAST_MODIFIED_HEADER) == null) {
+                changed = spoolAndParseSource(source, bufferedSource, parseRun, writes);
+            } else {
+                HashingSource hashingSource = HashingSource.sha256(bufferedSource);
+                parseSourceInputStream(source, Okio.buffer(hashingSource), parseRun, writes);
+                String contentDigest = hashingSource.hash().hex();
+                writes.add(() -> this.hostsSourceDao.updateContentDigest(source.getId(), contentDigest, false));
+                changed = true;
             }
-            // Extract ETag if present
+            // Extract ETag if present, once the source is loaded
             String entityTag = response.header(ENTITY_TAG_HEADER);
             if (entityTag != null) {
                 if (entityTag.startsWith(WEAK_ENTITY_TAG_PREFIX)) {
                     entityTag = entityTag.substring(WEAK_ENTITY_TAG_PREFIX.length());
                 }
-                this.hostsSourceDao.updateEntityTag(source.getId(), entityTag);
+                String sourceEntityTag = entityTag;
+                writes.add(() -> this.hostsSourceDao.updateEntityTag(source.getId(), sourceEntityTag));
             }
-            // Parse source
-            parseSourceInputStream(source, bufferedReader);
+            return changed;
         } catch (IOException e) {
             throw new IOException("Exception while downloading hosts file from " + hostsFileUrl + ".", e);
         }
     }
 
     /**
-     * Read a hosts source file and append it to the database.
+     * Spool a downloaded hosts source to a cache file while computing its content digest, then parse
+     * it only if its content changed since its last load.
+     *
+     * @param source     The hosts source to parse.
+     * @param body       The hosts source bytes.
+     * @param parseRun   The parse run to update.
+     * @param writes     The source writes to defer.
+     * @return {@code false} if the source content is unchanged since its last load, {@code true} otherwise.
+     * @throws IOException If the hosts source could not be spooled or parsed.
+     */
+    private boolean spoolAndParseSource(HostsSource source, BufferedSource body, ParseRun parseRun, List<Runnable> writes) throws IOException {
+        File spoolFile = File.createTempFile("source", ".hosts", this.context.getCacheDir());
+        try {
+            HashingSink hashingSink = HashingSink.sha256(Okio.sink(spoolFile));
+            try (BufferedSink sink = Okio.buffer(hashingSink)) {
+                sink.writeAll(body);
+            }
+            String contentDigest = hashingSink.hash().hex();
+            if (contentDigest.equals(source.getContentDigest())) {
+                skipUnchangedSource(source, contentDigest, writes);
+                return false;
+            }
+            try (BufferedSource spooledSource = Okio.buffer(Okio.source(spoolFile))) {
+                parseSourceInputStream(source, spooledSource, parseRun, writes);
+            }
+            writes.add(() -> this.hostsSourceDao.updateContentDigest(source.getId(), contentDigest, false));
+            return true;
+        } finally {
+            if (!spoolFile.delete()) {
+                Timber.w("Failed to delete spooled source %s.", spoolFile);
+            }
+        }
+    }
+
+    /**
+     * Record a source as checked with an unchanged content since its last load.
+     *
+     * @param source        The hosts source to skip.
+     * @param contentDigest The current content digest of the source.
+     * @param writes        The source writes to defer.
+     */
+    private void skipUnchangedSource(HostsSource source, String contentDigest, List<Runnable> writes) {
+        Timber.i("Skip source %s: content unchanged.", source.getLabel());
+        setState(R.string.status_source_unchanged, source.getLabel());
+        writes.add(() -> this.hostsSourceDao.updateContentDigest(source.getId(), contentDigest, true));
+    }
+
+    /**
+     * Read a hosts source file and append it to the database.<br>
+     * The file is read a first time to check its content digest before parsing it.
      *
      * @param hostsSource The hosts source to copy.
+     * @param parseRun    The parse run to update.
+     * @param writes      The source writes to defer.
+     * @return {@code false} if the source content is unchanged since its last load, {@code true} otherwise.
      * @throws IOException If the hosts source could not be copied.
      */
-    private void readSourceFile(HostsSource hostsSource) throws IOException {
+    private boolean readSourceFile(HostsSource hostsSource, ParseRun parseRun, List<Runnable> writes) throws IOException {
         // Get hosts file URI
         String hostsFileUrl = hostsSource.getUrl();
         Uri fileUri = Uri.parse(hostsFileUrl);
         Timber.v("Reading hosts source file: %s.", hostsFileUrl);
         // Set state to copying hosts source
         setState(R.string.status_read_source, hostsFileUrl);
-        try (InputStream inputStream = this.context.getContentResolver().openInputStream(fileUri);
-             InputStreamReader reader = new InputStreamReader(inputStream);
-             BufferedReader bufferedReader = new BufferedReader(reader)) {
-            parseSourceInputStream(hostsSource, bufferedReader);
+        ContentResolver contentResolver = this.context.getContentResolver();
+        try {
+            String contentDigest;
+            try (InputStream inputStream = contentResolver.openInputStream(fileUri);
+                 HashingSource hashingSource = HashingSource.sha256(Okio.source(requireNonNull(inputStream)));
+                 BufferedSource bufferedSource = Okio.buffer(hashingSource)) {
+                bufferedSource.readAll(Okio.blackhole());
+                contentDigest = hashingSource.hash().hex();
+            }
+            if (contentDigest.equals(hostsSource.getContentDigest())) {
+                skipUnchangedSource(hostsSource, contentDigest, writes);
+                return false;
+            }
+            try (InputStream inputStream = contentResolver.openInputStream(fileUri);
+                 BufferedSource bufferedSource = Okio.buffer(Okio.source(requireNonNull(inputStream)))) {
+                parseSourceInputStream(hostsSource, bufferedSource, parseRun, writes);
+            }
+            writes.add(() -> this.hostsSourceDao.updateContentDigest(hostsSource.getId(), contentDigest, false));
+            return true;
         } catch (IOException e) {
             throw new IOException("Error while reading hosts file from " + hostsFileUrl + ".", e);
         }
@@ -474,14 +667,23 @@ public class SourceModel {
      * Parse a source from its input stream to store it into database.
      *
      * @param hostsSource The host source to parse.
-     * @param reader      The host source reader.
+     * @param source      The host source bytes.
+     * @param parseRun    The parse run to update.
+     * @param writes      The source writes to defer, where the parsed hosts swap is added.
+     * @throws IOException If the hosts source could not be parsed. The previous hosts are kept.
      */
-    private void parseSourceInputStream(HostsSource hostsSource, BufferedReader reader) {
+    private void parseSourceInputStream(HostsSource hostsSource, BufferedSource source, ParseRun parseRun, List<Runnable> writes) throws IOException {
         setState(R.string.status_parse_source, hostsSource.getLabel());
         long startTime = System.currentTimeMillis();
-        new SourceLoader(hostsSource).parse(reader, this.hostListItemDao);
+        parseRun.start(startTime);
+        SourceLoader sourceLoader = new SourceLoader(hostsSource, LOAD_BATCH_SIZE, parseRun.duplicateFilter);
+        HostListItemBulkLoader.Result result = sourceLoader.parse(source, this.hostListItemBulkLoader, this.databaseWriters);
+        writes.add(() -> this.hostListItemBulkLoader.swap(result));
         long endTime = System.currentTimeMillis();
-        Timber.i("Parsed " + hostsSource.getUrl() + " in " + (endTime - startTime) / 1000 + "s");
+        parseRun.end(endTime);
+        long rowsPerSecond = result.getLoaded() * 1000L / Math.max(1, endTime - startTime);
+        Timber.i("Parsed " + hostsSource.getUrl() + " in " + (endTime - startTime) / 1000 + "s (" + rowsPerSecond + " rows/s): " + result.getAdded() + " added, " + result.getRemoved() + " removed");
+        Timber.i("Line queue: %s, item queue: %s.", sourceLoader.getLineQueue(), sourceLoader.getItemQueue());
     }
 
     /**
@@ -505,4 +707,46 @@ public class SourceModel {
         Timber.d("Source model state: %s.", state);
         this.state.postValue(state);
     }
+
+    /**
+     * This class holds the state shared by the source parses of an update run: the wall-clock time
+     * from the first source parse start to the last source parse end, the duplicate filter and the
+     * deferred writes of the retrieved sources.<br>
+     * The writes to observed tables are deferred to be committed together in a single transaction,
+     * so the Room invalidation tracker notifies the observers once per run instead of once per write.
+     */
+    private static class ParseRun {
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+        private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+        private final Queue<Runnable> writes = new ConcurrentLinkedQueue<>();
+
+        void start(long time) {
+            this.firstStart.accumulateAndGet(time, Math::min);
+        }
+
+        void end(long time) {
+            this.lastEnd.accumulateAndGet(time, Math::max);
+        }
+
+        void defer(List<Runnable> sourceWrites) {
+            this.writes.addAll(sourceWrites);
+        }
+
+        void commit() {
+            Runnable write;
+            while ((write = this.writes.poll()) != null) {
+                write.run();
+            }
+        }
+
+        void log() {
+            long start = this.firstStart.get();
+            long end = this.lastEnd.get();
+            if (start <= end) {
+                Timber.i("Parsed all sources in " + (end - start) / 1000 + "s");
+            }
+            Timber.i("Duplicates: %s.", this.duplicateFilter);
+        }
+    }
 }
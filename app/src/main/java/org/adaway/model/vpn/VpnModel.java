@@ -4,15 +4,19 @@ import static org.adaway.model.adblocking.AdBlockMethod.VPN;
 import static org.adaway.model.error.HostError.ENABLE_VPN_FAIL;
 
 import android.content.Context;
-import android.util.LruCache;
+
+import androidx.annotation.Nullable;
 
 import org.adaway.R;
 import org.adaway.db.AppDatabase;
+import org.adaway.db.HostEntryIndex;
 import org.adaway.db.dao.HostEntryDao;
 import org.adaway.db.entity.HostEntry;
+import org.adaway.db.entity.ListType;
 import org.adaway.model.adblocking.AdBlockMethod;
 import org.adaway.model.adblocking.AdBlockModel;
 import org.adaway.model.error.HostErrorException;
+import org.adaway.util.AppExecutors;
 import org.adaway.vpn.VpnServiceControls;
 
 import java.util.ArrayList;
@@ -22,16 +26,21 @@ import java.util.List;
 import timber.log.Timber;
 
 /**
- * This class is the model to represent VPN service configuration.
+ * This class is the model to represent VPN service configuration.<br>
+ * The host entries are looked up from an in-memory {@link HostEntryIndex}, loaded when the model
+ * is created and each time it is applied, so DNS queries never wait for the database once loaded.
  *
  * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
  */
 public class VpnModel extends AdBlockModel {
+    private final AppDatabase database;
     private final HostEntryDao hostEntryDao;
-    private final LruCache<String, HostEntry> blockCache;
+    /**
+     * The host entry index, {@code null} until first loaded.
+     */
+    private volatile HostEntryIndex index;
     private final LinkedHashSet<String> logs;
     private boolean recordingLogs;
-    private int requestCount;
 
     /**
      * Constructor.
@@ -40,18 +49,13 @@ public class VpnModel extends AdBlockModel {
      */
     public VpnModel(Context context) {
         super(context);
-        AppDatabase database = AppDatabase.getInstance(context);
-        this.hostEntryDao = database.hostEntryDao();
-        this.blockCache = new LruCache<String, HostEntry>(4 * 1024) {
-            @Override
-            protected HostEntry create(String key) {
-                return VpnModel.this.hostEntryDao.getEntry(key);
-            }
-        };
+        this.database = AppDatabase.getInstance(context);
+        this.hostEntryDao = this.database.hostEntryDao();
+        this.index = null;
         this.logs = new LinkedHashSet<>();
         this.recordingLogs = false;
-        this.requestCount = 0;
         this.applied.postValue(VpnServiceControls.isRunning(context));
+        AppExecutors.getInstance().diskIO().execute(this::loadIndex);
     }
 
     @Override
@@ -61,8 +65,8 @@ public class VpnModel extends AdBlockModel {
 
     @Override
     public void apply() throws HostErrorException {
-        // Clear cache
-        this.blockCache.evictAll();
+        // Load the applied host entries
+        loadIndex();
         // Start VPN
         boolean started = VpnServiceControls.start(this.context);
         this.applied.postValue(started);
@@ -98,27 +102,49 @@ public class VpnModel extends AdBlockModel {
         this.logs.clear();
     }
 
+    private void loadIndex() {
+        long startTime = System.currentTimeMillis();
+        HostEntryIndex index = HostEntryIndex.load(this.database);
+        this.index = index;
+        Timber.i("Loaded %d host entries in %dms.", index.size(), System.currentTimeMillis() - startTime);
+    }
+
     /**
-     * Checks host entry related to an host name.
+     * Get the type of a host.
      *
      * @param host A hostname to check.
-     * @return The related host entry.
+     * @return The host type, {@link ListType#ALLOWED} if the host has no entry.
      */
-    public HostEntry getEntry(String host) {
-        // Compute miss rate periodically
-        this.requestCount++;
-        if (this.requestCount >= 1000) {
-            int hits = this.blockCache.hitCount();
-            int misses = this.blockCache.missCount();
-            double missRate = 100D * (hits + misses) / misses;
-            Timber.d("Host cache miss rate: %s.", missRate);
-            this.requestCount = 0;
-        }
+    public ListType getType(String host) {
         // Add host to logs
         if (this.recordingLogs) {
             this.logs.add(host);
         }
-        // Check cache
-        return this.blockCache.get(host);
+        HostEntryIndex index = this.index;
+        ListType type;
+        if (index == null) {
+            // Query the database until the index is loaded
+            HostEntry entry = this.hostEntryDao.getEntry(host);
+            type = entry == null ? null : entry.getType();
+        } else {
+            type = index.getType(host);
+        }
+        return type == null ? ListType.ALLOWED : type;
+    }
+
+    /**
+     * Get the redirection of a host.
+     *
+     * @param host A hostname to check.
+     * @return The host redirection, {@code null} if the host is not redirected.
+     */
+    @Nullable
+    public String getRedirection(String host) {
+        HostEntryIndex index = this.index;
+        if (index == null) {
+            HostEntry entry = this.hostEntryDao.getEntry(host);
+            return entry == null ? null : entry.getRedirection();
+        }
+        return index.getRedirection(host);
     }
 }
@@ -137,6 +137,8 @@ class HostsSourcesAdapter extends ListAdapter<HostsSource, HostsSourcesAdapter.V
                 updateText = context.getString(R.string.hosts_source_last_update, approximateDelay);
             } else if (source.getOnlineModificationDate().isAfter(source.getLocalModificationDate())) {
                 updateText = context.getString(R.string.hosts_source_need_update, approximateDelay);
+            } else if (source.isContentUnchanged()) {
+                updateText = context.getString(R.string.hosts_source_unchanged, approximateDelay);
             } else {
                 updateText = context.getString(R.string.hosts_source_up_to_date, approximateDelay);
             }
@@ -47,6 +47,10 @@ public class ListsActivity extends AppCompatActivity {
      * The redirected hosts tab index.
      */
     public static final int REDIRECTED_HOSTS_TAB = 2;
+    /**
+     * The delay to wait for the query to be typed before searching, in milliseconds.
+     */
+    private static final long SEARCH_DELAY = 300;
     /**
      * The view model.
      */
@@ -155,6 +159,15 @@ public class ListsActivity extends AppCompatActivity {
     private void handleQuery(Intent intent) {
         if (ACTION_SEARCH.equals(intent.getAction())) {
             String query = intent.getStringExtra(SearchManager.QUERY);
+            search(query);
+        }
+    }
+
+    private void search(String query) {
+        if (query == null || query.isEmpty()) {
+            this.listsViewModel.clearSearch();
+            this.onBackPressedCallback.setEnabled(false);
+        } else {
             this.listsViewModel.search(query);
             this.onBackPressedCallback.setEnabled(true);
         }
@@ -170,6 +183,24 @@ public class ListsActivity extends AppCompatActivity {
             SearchView searchView = (SearchView) menu.findItem(R.id.menu_search).getActionView();
             searchView.setSearchableInfo(searchManager.getSearchableInfo(getComponentName()));
             searchView.setIconifiedByDefault(false);
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                private final Runnable search = () -> search(searchView.getQuery().toString());
+
+                @Override
+                public boolean onQueryTextSubmit(String query) {
+                    searchView.removeCallbacks(this.search);
+                    // Let the search view send the search intent
+                    return false;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String newText) {
+                    // Search once the query is no more typed
+                    searchView.removeCallbacks(this.search);
+                    searchView.postDelayed(this.search, SEARCH_DELAY);
+                    return true;
+                }
+            });
         }
         return true;
     }
@@ -1,7 +1,12 @@
 package org.adaway.ui.lists;
 
+import androidx.annotation.Nullable;
+
 /**
- * This class represents the filter to apply to host lists.
+ * This class represents the filter to apply to host lists.<br>
+ * A query matches any part of the hosts. The labels of a query without wildcard that follow a
+ * separator can only match at the start of a host label, so they narrow the hosts down using the
+ * full-text search index. Other queries scan the hosts lists.
  *
  * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
  */
@@ -19,15 +24,65 @@ public class ListsFilter {
      * The query filter to apply to hosts name (sql like format).
      */
     public final String sqlQuery;
+    /**
+     * The query filter to apply to hosts labels (full-text search match format), {@code null} if
+     * the full-text search index can not be used.
+     */
+    @Nullable
+    public final String ftsQuery;
 
     public ListsFilter(boolean sourcesIncluded, String query) {
         this.sourcesIncluded = sourcesIncluded;
         this.query = query;
         this.sqlQuery = convertToLikeQuery(query);
+        this.ftsQuery = convertToMatchQuery(query);
     }
 
     private static String convertToLikeQuery(String query) {
         return "%" + query.replace("*", "%")
                 .replace("?", "_") + "%";
     }
+
+    /**
+     * Convert a query to a phrase of the labels it contains that start a host label, the last one
+     * being a prefix.<br>
+     * The labels are split as the full-text search tokenizer does: on any ASCII character that is
+     * neither a letter nor a digit. The first label of the query may match the middle of a host
+     * label, so it is left out unless the query starts with a separator.
+     *
+     * @param query The query to convert.
+     * @return The full-text search match query, {@code null} if the query has wildcards or no label
+     * starting a host label.
+     */
+    @Nullable
+    private static String convertToMatchQuery(String query) {
+        StringBuilder match = new StringBuilder(query.length() + 3);
+        boolean separated = false;
+        boolean startsLabel = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '*' || c == '?' || c == '%' || c == '_') {
+                return null;
+            }
+            if (c >= 128 || Character.isLetterOrDigit(c)) {
+                // Only a label following a separator starts a host label
+                if (separated) {
+                    if (match.length() > 0) {
+                        match.append(' ');
+                    }
+                    separated = false;
+                    startsLabel = true;
+                }
+                if (startsLabel) {
+                    match.append(c);
+                }
+            } else {
+                separated = true;
+            }
+        }
+        if (match.length() == 0) {
+            return null;
+        }
+        return "\"" + match + "*\"";
+    }
 }
@@ -11,6 +11,7 @@ import androidx.paging.PagingConfig;
 import androidx.paging.PagingData;
 
 import org.adaway.db.AppDatabase;
+import org.adaway.db.HostListItemPagingSource;
 import org.adaway.db.dao.HostListItemDao;
 import org.adaway.db.entity.HostListItem;
 import org.adaway.db.entity.ListType;
@@ -35,6 +36,8 @@ import static org.adaway.ui.lists.ListsFilter.ALL;
  */
 public class ListsViewModel extends AndroidViewModel {
     private static final Executor EXECUTOR = AppExecutors.getInstance().diskIO();
+    private static final PagingConfig PAGING_CONFIG = new PagingConfig(50, 150, true);
+    private final AppDatabase database;
     private final HostListItemDao hostListItemDao;
     private final MutableLiveData<ListsFilter> filter;
     private final LiveData<PagingData<HostListItem>> blockedListItems;
@@ -44,30 +47,28 @@ public class ListsViewModel extends AndroidViewModel {
 
     public ListsViewModel(@NonNull Application application) {
         super(application);
-        this.hostListItemDao = AppDatabase.getInstance(application).hostsListItemDao();
+        this.database = AppDatabase.getInstance(application);
+        this.hostListItemDao = this.database.hostsListItemDao();
         this.filter = new MutableLiveData<>(ALL);
-        PagingConfig pagingConfig = new PagingConfig(50, 150, true);
-        this.blockedListItems = switchMap(
-                this.filter,
-                filter -> getLiveData(new Pager<>(pagingConfig, () ->
-                        this.hostListItemDao.loadList(BLOCKED.getValue(), filter.sourcesIncluded, filter.sqlQuery)
-                ))
-        );
-        this.allowedListItems = switchMap(
-                this.filter,
-                filter -> getLiveData(new Pager<>(pagingConfig, () ->
-                        this.hostListItemDao.loadList(ALLOWED.getValue(), filter.sourcesIncluded, filter.sqlQuery)
-                ))
-        );
-        this.redirectedListItems = switchMap(
-                this.filter,
-                filter -> getLiveData(new Pager<>(pagingConfig, () ->
-                        this.hostListItemDao.loadList(REDIRECTED.getValue(), filter.sourcesIncluded, filter.sqlQuery)
-                ))
-        );
+        this.blockedListItems = switchMap(this.filter, filter -> loadList(BLOCKED, filter));
+        this.allowedListItems = switchMap(this.filter, filter -> loadList(ALLOWED, filter));
+        this.redirectedListItems = switchMap(this.filter, filter -> loadList(REDIRECTED, filter));
         this.modelChanged = new MutableLiveData<>(false);
     }
 
+    private LiveData<PagingData<HostListItem>> loadList(ListType type, ListsFilter filter) {
+        // Search the hosts by label using the full-text search index when possible
+        if (filter.ftsQuery != null) {
+            return getLiveData(new Pager<>(PAGING_CONFIG, () ->
+                    this.hostListItemDao.searchList(type.getValue(), filter.sourcesIncluded, filter.ftsQuery, filter.sqlQuery)
+            ));
+        }
+        // Otherwise page the hosts by key
+        return getLiveData(new Pager<>(PAGING_CONFIG, () ->
+                new HostListItemPagingSource(this.database, type, filter.sourcesIncluded, filter.sqlQuery)
+        ));
+    }
+
     public LiveData<PagingData<HostListItem>> getBlockedListItems() {
         return this.blockedListItems;
     }
@@ -129,6 +130,9 @@ public class ListsViewModel extends AndroidViewModel {
 
     public void search(String query) {
         ListsFilter currentFilter = getFilter();
+        if (currentFilter.query.equals(query)) {
+            return;
+        }
         ListsFilter newFilter = new ListsFilter(currentFilter.sourcesIncluded, query);
         setFilter(newFilter);
     }
@@ -139,6 +143,9 @@ public class ListsViewModel extends AndroidViewModel {
 
     public void clearSearch() {
         ListsFilter currentFilter = getFilter();
+        if (currentFilter.query.isEmpty()) {
+            return;
+        }
         ListsFilter newFilter = new ListsFilter(currentFilter.sourcesIncluded, "");
         setFilter(newFilter);
     }
@@ -0,0 +1,339 @@
+package org.adaway.util;
+
+/**
+ * This class is a single pass validator for hostnames, wildcard hostnames and IP address literals.<br>
+ * It gives the same verdicts as Guava {@code InternetDomainName.isValid()} and
+ * {@code InetAddresses.forString()} without allocating any object nor throwing any exception.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class HostValidator {
+    private static final int MAX_HOSTNAME_LENGTH = 253;
+    private static final int MAX_LABEL_COUNT = 127;
+    private static final int MAX_LABEL_LENGTH = 63;
+    private static final int IPV4_PART_COUNT = 4;
+    private static final int IPV6_PART_COUNT = 8;
+    private static final int MAX_HEXTET_LENGTH = 4;
+    /**
+     * The replacement of the dotted quad of an IPv6 address, as two hextets.
+     */
+    private static final String DOTTED_QUAD_HEXTETS = "0:0";
+    /**
+     * The validation mode: keep wildcard characters as is.
+     */
+    private static final int WILDCARD_KEEP = 0;
+    /**
+     * The validation mode: remove wildcard characters.
+     */
+    private static final int WILDCARD_REMOVE = 1;
+    /**
+     * The validation mode: replace wildcard characters by an alphanumeric character.
+     */
+    private static final int WILDCARD_REPLACE = 2;
+    /**
+     * The characters allowed in hostname labels, indexed by ASCII code.
+     */
+    private static final boolean[] LABEL_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LABEL_CHARS[c] = true;
+            LABEL_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            LABEL_CHARS[c] = true;
+        }
+        LABEL_CHARS['-'] = true;
+        LABEL_CHARS['_'] = true;
+    }
+
+    private HostValidator() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Check whether a hostname is valid.
+     *
+     * @param hostname The hostname to validate.
+     * @return {@code true} if the hostname is valid, {@code false} otherwise.
+     */
+    public static boolean isValidHostname(String hostname) {
+        return isValidHostname(hostname, WILDCARD_KEEP);
+    }
+
+    /**
+     * Check whether a wildcard hostname is valid.<br>
+     * It is valid if the hostname is valid either without its wildcards or with its wildcards
+     * replaced by an alphanumeric character.
+     *
+     * @param hostname The wildcard hostname to validate.
+     * @return {@code true} if the wildcard hostname is valid, {@code false} otherwise.
+     */
+    public static boolean isValidWildcardHostname(String hostname) {
+        return isValidHostname(hostname, WILDCARD_REMOVE) || isValidHostname(hostname, WILDCARD_REPLACE);
+    }
+
+    /**
+     * Normalize a hostname: lower ASCII case, use {@code .} as label separator and remove the
+     * trailing separator.
+     *
+     * @param hostname The hostname to normalize.
+     * @return The normalized hostname, the given instance if already normalized.
+     */
+    public static String normalizeHostname(String hostname) {
+        int length = hostname.length();
+        boolean normalized = length == 0 || !isDot(hostname.charAt(length - 1));
+        for (int i = 0; i < length && normalized; i++) {
+            char c = hostname.charAt(i);
+            normalized = (c < 'A' || c > 'Z') && (c == '.' || !isDot(c));
+        }
+        if (normalized) {
+            return hostname;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            char c = hostname.charAt(i);
+            if (isDot(c)) {
+                c = '.';
+            } else if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            builder.append(c);
+        }
+        if (length > 0 && builder.charAt(length - 1) == '.') {
+            builder.setLength(length - 1);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Check whether an IP address literal is valid.
+     *
+     * @param ip The IP address to validate.
+     * @return {@code true} if the IP address is valid, {@code false} otherwise.
+     */
+    public static boolean isValidIP(String ip) {
+        int length = ip.length();
+        boolean hasColon = false;
+        boolean hasDot = false;
+        int percentIndex = -1;
+        for (int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if (c == '.') {
+                hasDot = true;
+            } else if (c == ':') {
+                // Colons must not appear after dots
+                if (hasDot) {
+                    return false;
+                }
+                hasColon = true;
+            } else if (c == '%') {
+                // Everything after a '%' is a scope identifier
+                percentIndex = i;
+                break;
+            } else if (Character.digit(c, 16) == -1) {
+                return false;
+            }
+        }
+        if (hasColon) {
+            if (!hasDot) {
+                return isValidIPv6(ip, percentIndex == -1 ? length : percentIndex, false);
+            }
+            // Check the trailing dotted quad then the hextets before it
+            int lastColon = ip.lastIndexOf(':');
+            if (!isValidIPv4(ip, lastColon + 1, length)) {
+                return false;
+            }
+            return percentIndex == -1 ?
+                    isValidIPv6(ip, lastColon + 1, true) :
+                    isValidIPv6(ip, percentIndex, false);
+        } else if (hasDot) {
+            // Scope identifiers are not supported for IPv4
+            return percentIndex == -1 && isValidIPv4(ip, 0, length);
+        }
+        return false;
+    }
+
+    private static boolean isValidHostname(String hostname, int wildcardMode) {
+        // Find the end of the hostname, ignoring its trailing separator
+        int end = lastIndexOf(hostname, hostname.length(), wildcardMode);
+        if (end != -1 && isDot(hostname.charAt(end))) {
+            end = lastIndexOf(hostname, end, wildcardMode);
+        }
+        end++;
+        // Check each label
+        int length = 0;
+        int labelCount = 1;
+        int labelLength = 0;
+        char labelFirst = 0;
+        char labelLast = 0;
+        for (int i = 0; i < end; i++) {
+            char c = hostname.charAt(i);
+            if (isWildcard(c)) {
+                if (wildcardMode == WILDCARD_REMOVE) {
+                    continue;
+                } else if (wildcardMode == WILDCARD_REPLACE) {
+                    c = 'a';
+                }
+            }
+            length++;
+            if (isDot(c)) {
+                if (!isValidLabel(labelLength, labelFirst, labelLast, false)) {
+                    return false;
+                }
+                labelCount++;
+                labelLength = 0;
+                continue;
+            }
+            if (c < 128 && !LABEL_CHARS[c]) {
+                return false;
+            }
+            if (labelLength == 0) {
+                labelFirst = c;
+            }
+            labelLast = c;
+            labelLength++;
+        }
+        return length <= MAX_HOSTNAME_LENGTH
+                && labelCount <= MAX_LABEL_COUNT
+                && isValidLabel(labelLength, labelFirst, labelLast, true);
+    }
+
+    /**
+     * Find the last hostname character before an index, skipping removed wildcards.
+     *
+     * @param hostname     The hostname to look into.
+     * @param index        The index to look before.
+     * @param wildcardMode The wildcard mode.
+     * @return The index of the last character, {@code -1} if none.
+     */
+    private static int lastIndexOf(String hostname, int index, int wildcardMode) {
+        int i = index - 1;
+        while (i >= 0 && wildcardMode == WILDCARD_REMOVE && isWildcard(hostname.charAt(i))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static boolean isValidLabel(int length, char first, char last, boolean finalLabel) {
+        if (length < 1 || length > MAX_LABEL_LENGTH) {
+            return false;
+        }
+        // No initial or final dashes or underscores
+        if (first == '-' || first == '_' || last == '-' || last == '_') {
+            return false;
+        }
+        // No initial digit in the final label to not look like an IPv4 address
+        return !finalLabel || first < '0' || first > '9';
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '*' || c == '?';
+    }
+
+    private static boolean isDot(char c) {
+        return c == '.' || c == '\u3002' || c == '\uFF0E' || c == '\uFF61';
+    }
+
+    private static boolean isValidIPv4(String ip, int start, int end) {
+        int partStart = start;
+        int partCount = 0;
+        for (int i = start; i <= end; i++) {
+            if (i < end && ip.charAt(i) != '.') {
+                continue;
+            }
+            if (++partCount > IPV4_PART_COUNT || !isValidOctet(ip, partStart, i)) {
+                return false;
+            }
+            partStart = i + 1;
+        }
+        return partCount == IPV4_PART_COUNT;
+    }
+
+    private static boolean isValidOctet(String ip, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > 3) {
+            return false;
+        }
+        // No leading zero as they could be read as octal
+        if (length > 1 && ip.charAt(start) == '0') {
+            return false;
+        }
+        int octet = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(ip.charAt(i), 10);
+            if (digit < 0) {
+                return false;
+            }
+            octet = octet * 10 + digit;
+        }
+        return octet <= 255;
+    }
+
+    /**
+     * Check whether an IPv6 address is valid.
+     *
+     * @param ip          The IP address to check.
+     * @param end         The end index of the address hextets.
+     * @param dottedQuad  {@code true} to check the hextets followed by two hextets for a dotted quad,
+     *                    {@code false} otherwise.
+     * @return {@code true} if the IPv6 address is valid, {@code false} otherwise.
+     */
+    private static boolean isValidIPv6(String ip, int end, boolean dottedQuad) {
+        int length = dottedQuad ? end + DOTTED_QUAD_HEXTETS.length() : end;
+        // An address can have [2..8] colons
+        int delimiterCount = 0;
+        for (int i = 0; i < length; i++) {
+            if (charAt(ip, end, i) == ':') {
+                delimiterCount++;
+            }
+        }
+        if (delimiterCount < 2 || delimiterCount > IPV6_PART_COUNT) {
+            return false;
+        }
+        // Look for the skipped parts of a "::"
+        int partsSkipped = IPV6_PART_COUNT - (delimiterCount + 1);
+        boolean hasSkip = false;
+        for (int i = 0; i < length - 1; i++) {
+            if (charAt(ip, end, i) == ':' && charAt(ip, end, i + 1) == ':') {
+                if (hasSkip) {
+                    return false;
+                }
+                hasSkip = true;
+                partsSkipped++;
+                if (i == 0) {
+                    partsSkipped++;
+                }
+                if (i == length - 2) {
+                    partsSkipped++;
+                }
+            }
+        }
+        if (charAt(ip, end, 0) == ':' && charAt(ip, end, 1) != ':') {
+            return false;
+        }
+        if (charAt(ip, end, length - 1) == ':' && charAt(ip, end, length - 2) != ':') {
+            return false;
+        }
+        if (hasSkip ? partsSkipped <= 0 : delimiterCount + 1 != IPV6_PART_COUNT) {
+            return false;
+        }
+        // Check hextet lengths
+        int start = charAt(ip, end, 0) == ':' ? 1 : 0;
+        while (start < length) {
+            int partEnd = start;
+            while (partEnd < length && charAt(ip, end, partEnd) != ':') {
+                partEnd++;
+            }
+            if (partEnd != start && partEnd - start > MAX_HEXTET_LENGTH) {
+                return false;
+            }
+            start = partEnd + 1;
+        }
+        return true;
+    }
+
+    private static char charAt(String ip, int end, int index) {
+        return index < end ? ip.charAt(index) : DOTTED_QUAD_HEXTETS.charAt(index - end);
+    }
+}
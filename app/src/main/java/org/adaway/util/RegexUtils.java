@@ -20,17 +20,7 @@
 
 package org.adaway.util;
 
-import com.google.common.net.InetAddresses;
-import com.google.common.net.InternetDomainName;
-
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import timber.log.Timber;
-
 public class RegexUtils {
-    private static final Pattern WILDCARD_PATTERN = Pattern.compile("[*?]");
-
     /**
      * Check whether a hostname is valid.
      *
@@ -38,7 +28,7 @@ public class RegexUtils {
      * @return return {@code true} if hostname is valid, {@code false} otherwise.
      */
     public static boolean isValidHostname(String hostname) {
-        return InternetDomainName.isValid(hostname);
+        return HostValidator.isValidHostname(hostname);
     }
 
     /**
@@ -58,13 +48,7 @@ public class RegexUtils {
      * @return return {@code true} if wildcard hostname is valid, {@code false} otherwise.
      */
     public static boolean isValidWildcardHostname(String hostname) {
-        // Clear wildcards from host name then validate it
-        Matcher matcher = WILDCARD_PATTERN.matcher(hostname);
-        String clearedHostname = matcher.replaceAll("");
-        // Replace wildcards from host name by an alphanumeric character
-        String replacedHostname = matcher.replaceAll("a");
-        // Check if any hostname is valid
-        return isValidHostname(clearedHostname) || isValidHostname(replacedHostname);
+        return HostValidator.isValidWildcardHostname(hostname);
     }
 
     /**
@@ -74,13 +58,7 @@ public class RegexUtils {
      * @return {@code true} if the IP is valid, {@code false} otherwise.
      */
     public static boolean isValidIP(String ip) {
-        try {
-            InetAddresses.forString(ip);
-            return true;
-        } catch (IllegalArgumentException exception) {
-            Timber.d(exception, "Invalid IP address: %s.", ip);
-            return false;
-        }
+        return HostValidator.isValidIP(ip);
     }
 
     /*
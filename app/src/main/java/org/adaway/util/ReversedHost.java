@@ -0,0 +1,40 @@
+package org.adaway.util;
+
+/**
+ * This class computes reversed hosts, whose labels are in reverse order: {@code ads.example.com}
+ * is reversed to {@code com.example.ads}.<br>
+ * A domain and its subdomains share the same reversed prefix so they can be found with a single
+ * index range scan on reversed hosts, instead of a {@code LIKE '%.example.com'} scan on hosts.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class ReversedHost {
+    /**
+     * Private constructor of utility class.
+     */
+    private ReversedHost() {
+
+    }
+
+    /**
+     * Reverse the labels of a host.
+     *
+     * @param host The host to reverse.
+     * @return The host with its labels in reverse order.
+     */
+    public static String reverse(String host) {
+        int end = host.length();
+        char[] reversed = new char[end];
+        int position = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            if (host.charAt(i) == '.') {
+                host.getChars(i + 1, end, reversed, position);
+                position += end - i - 1;
+                reversed[position++] = '.';
+                end = i;
+            }
+        }
+        host.getChars(0, end, reversed, position);
+        return new String(reversed);
+    }
+}
@@ -0,0 +1,200 @@
+package org.adaway.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class matches hostnames against a set of wildcard hostname patterns at once.<br>
+ * {@code *} matches any sequence of characters and {@code ?} matches a single character. As the SQL
+ * {@code LIKE} operator it replaces, {@code %} and {@code _} are wildcards too and the comparison
+ * ignores the ASCII case.<br>
+ * Patterns are indexed by their literal suffix, after their last wildcard, in a trie of reversed
+ * characters. Matching a hostname walks the trie once from its last character and only checks the
+ * remaining wildcard prefix of the patterns whose suffix matched.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class WildcardMatcher {
+    private final Node root;
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param patterns The wildcard hostname patterns to match.
+     */
+    public WildcardMatcher(Collection<String> patterns) {
+        this.root = new Node();
+        for (String pattern : patterns) {
+            add(pattern);
+        }
+        this.size = patterns.size();
+    }
+
+    private void add(String pattern) {
+        int lastWildcard = pattern.length() - 1;
+        while (lastWildcard >= 0 && !isWildcard(pattern.charAt(lastWildcard))) {
+            lastWildcard--;
+        }
+        // Index pattern by its reversed literal suffix
+        Node node = this.root;
+        for (int i = pattern.length() - 1; i > lastWildcard; i--) {
+            node = node.getOrAddChild(toLowerCase(pattern.charAt(i)));
+        }
+        if (lastWildcard == -1) {
+            node.exact = true;
+        } else {
+            node.addPrefix(pattern.substring(0, lastWildcard + 1));
+        }
+    }
+
+    /**
+     * Check whether there is no pattern to match.
+     *
+     * @return {@code true} if there is no pattern, {@code false} otherwise.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Check whether a hostname matches any pattern.
+     *
+     * @param hostname The hostname to check.
+     * @return {@code true} if the hostname matches at least one pattern, {@code false} otherwise.
+     */
+    public boolean matches(String hostname) {
+        Node node = this.root;
+        int end = hostname.length();
+        while (true) {
+            // Check the patterns whose suffix matched the end of the hostname
+            if (node.matchesPrefix(hostname, end)) {
+                return true;
+            }
+            if (end == 0) {
+                return node.exact;
+            }
+            end--;
+            node = node.getChild(toLowerCase(hostname.charAt(end)));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Check whether a wildcard prefix matches the start of a hostname.
+     *
+     * @param prefix   The wildcard prefix.
+     * @param hostname The hostname.
+     * @param end      The end index of the hostname part to check.
+     * @return {@code true} if the prefix matches the hostname part, {@code false} otherwise.
+     */
+    private static boolean matchesPrefix(String prefix, String hostname, int end) {
+        int prefixIndex = 0;
+        int hostnameIndex = 0;
+        int sequencePrefixIndex = -1;
+        int sequenceHostnameIndex = 0;
+        while (hostnameIndex < end) {
+            if (prefixIndex < prefix.length()) {
+                char c = prefix.charAt(prefixIndex);
+                if (isAnySequence(c)) {
+                    sequencePrefixIndex = prefixIndex++;
+                    sequenceHostnameIndex = hostnameIndex;
+                    continue;
+                }
+                if (isAnyChar(c) || c == toLowerCase(hostname.charAt(hostnameIndex))) {
+                    prefixIndex++;
+                    hostnameIndex++;
+                    continue;
+                }
+            }
+            // Backtrack to the last any sequence wildcard, making it match one more character
+            if (sequencePrefixIndex == -1) {
+                return false;
+            }
+            prefixIndex = sequencePrefixIndex + 1;
+            hostnameIndex = ++sequenceHostnameIndex;
+        }
+        while (prefixIndex < prefix.length() && isAnySequence(prefix.charAt(prefixIndex))) {
+            prefixIndex++;
+        }
+        return prefixIndex == prefix.length();
+    }
+
+    private static boolean isWildcard(char c) {
+        return isAnySequence(c) || isAnyChar(c);
+    }
+
+    private static boolean isAnySequence(char c) {
+        return c == '*' || c == '%';
+    }
+
+    private static boolean isAnyChar(char c) {
+        return c == '?' || c == '_';
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * This class is a trie node, reached by the reversed literal suffix of its patterns.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        /**
+         * The wildcard prefixes of the patterns with this suffix.
+         */
+        private final List<String> prefixes = new ArrayList<>(0);
+        /**
+         * Whether a pattern without wildcard ends on this node.
+         */
+        private boolean exact;
+
+        private Node getChild(char key) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == key) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAddChild(char key) {
+            Node child = getChild(key);
+            if (child == null) {
+                child = new Node();
+                int length = this.keys.length;
+                this.keys = Arrays.copyOf(this.keys, length + 1);
+                this.children = Arrays.copyOf(this.children, length + 1);
+                this.keys[length] = key;
+                this.children[length] = child;
+            }
+            return child;
+        }
+
+        private void addPrefix(String prefix) {
+            char[] chars = prefix.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = toLowerCase(chars[i]);
+            }
+            String lowerCasePrefix = new String(chars);
+            if (!this.prefixes.contains(lowerCasePrefix)) {
+                this.prefixes.add(lowerCasePrefix);
+            }
+        }
+
+        private boolean matchesPrefix(String hostname, int end) {
+            for (int i = 0; i < this.prefixes.size(); i++) {
+                if (WildcardMatcher.matchesPrefix(this.prefixes.get(i), hostname, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -17,17 +17,8 @@ package org.adaway.vpn.dns;
 import android.content.Context;
 
 import org.adaway.AdAwayApplication;
-import org.adaway.db.entity.HostEntry;
 import org.adaway.db.entity.ListType;
 import org.adaway.model.vpn.VpnModel;
-import org.pcap4j.packet.IpPacket;
-import org.pcap4j.packet.IpSelector;
-import org.pcap4j.packet.IpV4Packet;
-import org.pcap4j.packet.IpV6Packet;
-import org.pcap4j.packet.Packet;
-import org.pcap4j.packet.UdpPacket;
-import org.pcap4j.packet.UnknownPacket;
-import org.pcap4j.packet.namednumber.IpNumber;
 import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.DClass;
@@ -42,10 +33,10 @@ import org.xbill.DNS.TextParseException;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -59,6 +50,8 @@ public class DnsPacketProxy {
     // Choose a value that is smaller than the time needed to unblock a host.
     private static final int NEGATIVE_CACHE_TTL_SECONDS = 5;
     private static final SOARecord NEGATIVE_CACHE_SOA_RECORD;
+    // The memory budget of the upstream responses cache, in bytes.
+    private static final int RESPONSE_CACHE_MEMORY_BUDGET = 512 * 1024;
 
     static {
         try {
@@ -74,11 +67,19 @@ public class DnsPacketProxy {
 
     private final EventLoop eventLoop;
     private final DnsServerMapper dnsServerMapper;
+    private final IpUdpPacket requestPacket;
+    private final DnsQuestion requestQuestion;
+    private final DnsResponseCache responseCache;
+    private byte[] responsePayload;
     private VpnModel vpnModel;
 
     public DnsPacketProxy(EventLoop eventLoop, DnsServerMapper dnsServerMapper) {
         this.eventLoop = eventLoop;
         this.dnsServerMapper = dnsServerMapper;
+        this.requestPacket = new IpUdpPacket();
+        this.requestQuestion = new DnsQuestion(NEGATIVE_CACHE_SOA_RECORD);
+        this.responseCache = new DnsResponseCache(RESPONSE_CACHE_MEMORY_BUDGET);
+        this.responsePayload = new byte[0];
     }
 
     /**
@@ -90,89 +91,71 @@ public class DnsPacketProxy {
         this.vpnModel = (VpnModel) ((AdAwayApplication) context.getApplicationContext()).getAdBlockModel();
     }
 
+    /**
+     * Get the cache of the upstream DNS server responses.
+     *
+     * @return The cache of the upstream DNS server responses.
+     */
+    public DnsResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
     /**
      * Handles a responsePayload from an upstream DNS server
      *
-     * @param requestPacket   The original request packet
+     * @param requestHeaders  The IP and UDP headers of the original request packet
      * @param responsePayload The payload of the response
      */
-    public void handleDnsResponse(IpPacket requestPacket, byte[] responsePayload) {
-        UdpPacket udpOutPacket = (UdpPacket) requestPacket.getPayload();
-        UdpPacket.Builder payLoadBuilder = new UdpPacket.Builder(udpOutPacket)
-                .srcPort(udpOutPacket.getHeader().getDstPort())
-                .dstPort(udpOutPacket.getHeader().getSrcPort())
-                .srcAddr(requestPacket.getHeader().getDstAddr())
-                .dstAddr(requestPacket.getHeader().getSrcAddr())
-                .correctChecksumAtBuild(true)
-                .correctLengthAtBuild(true)
-                .payloadBuilder(
-                        new UnknownPacket.Builder().rawData(responsePayload)
-                );
+    public void handleDnsResponse(ByteBuffer requestHeaders, byte[] responsePayload) {
+        handleDnsResponse(requestHeaders, responsePayload, responsePayload.length);
+    }
 
-        IpPacket ipOutPacket;
-        if (requestPacket instanceof IpV4Packet) {
-            ipOutPacket = new IpV4Packet.Builder((IpV4Packet) requestPacket)
-                    .srcAddr((Inet4Address) requestPacket.getHeader().getDstAddr())
-                    .dstAddr((Inet4Address) requestPacket.getHeader().getSrcAddr())
-                    .correctChecksumAtBuild(true)
-                    .correctLengthAtBuild(true)
-                    .payloadBuilder(payLoadBuilder)
-                    .build();
+    private void handleDnsResponse(ByteBuffer requestHeaders, byte[] responsePayload, int payloadLength) {
+        int length = IpUdpPacket.getResponseLength(requestHeaders, payloadLength);
+        ByteBuffer responsePacket = this.eventLoop.getDeviceWriteBuffer(length);
+        IpUdpPacket.writeResponse(requestHeaders, responsePayload, 0, payloadLength, responsePacket);
+        responsePacket.flip();
+        this.eventLoop.queueDeviceWrite(responsePacket);
+    }
 
-        } else {
-            ipOutPacket = new IpV6Packet.Builder((IpV6Packet) requestPacket)
-                    .srcAddr((Inet6Address) requestPacket.getHeader().getDstAddr())
-                    .dstAddr((Inet6Address) requestPacket.getHeader().getSrcAddr())
-                    .correctLengthAtBuild(true)
-                    .payloadBuilder(payLoadBuilder)
-                    .build();
+    /**
+     * Get the buffer to write a response payload into, before it is copied to a device write buffer.
+     *
+     * @param length The maximum length of the response payload.
+     * @return The buffer to write the response payload into.
+     */
+    private byte[] getResponsePayload(int length) {
+        if (this.responsePayload.length < length) {
+            this.responsePayload = new byte[length];
         }
-
-        this.eventLoop.queueDeviceWrite(ipOutPacket);
+        return this.responsePayload;
     }
 
     /**
      * Handles a DNS request, by either blocking it or forwarding it to the remote location.
      *
-     * @param packetData The packet data to read
+     * @param packet The packet to read, from its position to its limit, in an array backed buffer.
+     *               The buffer is not retained.
      * @throws IOException If some network error occurred
      */
-    public void handleDnsRequest(byte[] packetData) throws IOException {
-        IpPacket ipPacket;
-        try {
-            ipPacket = (IpPacket) IpSelector.newPacket(packetData, 0, packetData.length);
-        } catch (Exception e) {
-            Timber.i(e, "handleDnsRequest: Discarding invalid IP packet");
-            return;
-        }
-
-        // Check UDP protocol
-        if (ipPacket.getHeader().getProtocol() != IpNumber.UDP) {
-            return;
-        }
-
-        UdpPacket updPacket;
-        Packet udpPayload;
-
-        try {
-            updPacket = (UdpPacket) ipPacket.getPayload();
-            udpPayload = updPacket.getPayload();
-        } catch (Exception e) {
-            Timber.i(e, "handleDnsRequest: Discarding unknown packet type %s", ipPacket.getHeader());
+    public void handleDnsRequest(ByteBuffer packet) throws IOException {
+        IpUdpPacket ipPacket = this.requestPacket;
+        if (!ipPacket.read(packet)) {
+            Timber.i("handleDnsRequest: Discarding invalid or non UDP IP packet");
             return;
         }
 
-        InetAddress packetAddress = ipPacket.getHeader().getDstAddr();
-        int packetPort = updPacket.getHeader().getDstPort().valueAsInt();
-        Optional<InetAddress> dnsAddressOptional = this.dnsServerMapper.getDnsServerFromFakeAddress(packetAddress);
+        int packetPort = ipPacket.getDestinationPort();
+        int fakeAddressLastByte = ipPacket.getDestinationAddressLastByte();
+        Optional<InetAddress> dnsAddressOptional = this.dnsServerMapper.getDnsServerFromFakeAddress(fakeAddressLastByte);
         if (!dnsAddressOptional.isPresent()) {
-            Timber.w("Cannot find mapped DNS for %s.", packetAddress.getHostAddress());
+            Timber.w("Cannot find mapped DNS for fake address ending with %d.", fakeAddressLastByte);
             return;
         }
         InetAddress dnsAddress = dnsAddressOptional.get();
 
-        if (udpPayload == null) {
-            Timber.i("handleDnsRequest: Sending UDP packet without payload: %s", updPacket);
+        if (ipPacket.getPayloadLength() == 0) {
+            Timber.i("handleDnsRequest: Sending UDP packet without payload: %s", ipPacket);
 
             // Let's be nice to Firefox. Firefox uses an empty UDP packet to
             // the gateway to reduce the RTT. For further details, please see
@@ -182,71 +165,97 @@ public class DnsPacketProxy {
             return;
         }
 
-        byte[] dnsRawData = udpPayload.getRawData();
-        Message dnsMsg;
-        try {
-            dnsMsg = new Message(dnsRawData);
-        } catch (IOException e) {
-            Timber.i(e, "handleDnsRequest: Discarding non-DNS or invalid packet");
-            return;
-        }
-        if (dnsMsg.getQuestion() == null) {
-            Timber.i("handleDnsRequest: Discarding DNS packet with no query %s", dnsMsg);
-            return;
+        byte[] packetData = packet.array();
+        int payloadOffset = packet.arrayOffset() + ipPacket.getPayloadOffset();
+        int payloadLength = ipPacket.getPayloadLength();
+        // Read common queries in place and fall back to dnsjava for the others
+        DnsQuestion question = this.requestQuestion;
+        Message dnsMsg = null;
+        String hostname;
+        if (question.read(packetData, payloadOffset, payloadLength)) {
+            hostname = question.getName();
+        } else {
+            try {
+                dnsMsg = new Message(ByteBuffer.wrap(packetData, payloadOffset, payloadLength));
+            } catch (IOException e) {
+                Timber.i(e, "handleDnsRequest: Discarding non-DNS or invalid packet");
+                return;
+            }
+            if (dnsMsg.getQuestion() == null) {
+                Timber.i("handleDnsRequest: Discarding DNS packet with no query %s", dnsMsg);
+                return;
+            }
+            hostname = dnsMsg.getQuestion().getName().toString(true).toLowerCase(Locale.ENGLISH);
         }
-        Name name = dnsMsg.getQuestion().getName();
-        String dnsQueryName = name.toString(true);
-        HostEntry entry = getHostEntry(dnsQueryName);
-        switch (entry.getType()) {
+        ListType type = this.vpnModel == null ? ListType.ALLOWED : this.vpnModel.getType(hostname);
+        switch (type) {
             case BLOCKED:
-                Timber.i("handleDnsRequest: DNS Name %s blocked!", dnsQueryName);
-                dnsMsg.getHeader().setFlag(Flags.QR);
-                dnsMsg.getHeader().setRcode(Rcode.NOERROR);
-                dnsMsg.addRecord(NEGATIVE_CACHE_SOA_RECORD, Section.AUTHORITY);
-                handleDnsResponse(ipPacket, dnsMsg.toWire());
+                Timber.i("handleDnsRequest: DNS Name %s blocked!", hostname);
+                if (dnsMsg == null) {
+                    byte[] response = getResponsePayload(question.getMaxResponseLength());
+                    handleDnsResponse(packet, response, question.writeBlockedResponse(response));
+                } else {
+                    dnsMsg.getHeader().setFlag(Flags.QR);
+                    dnsMsg.getHeader().setRcode(Rcode.NOERROR);
+                    dnsMsg.addRecord(NEGATIVE_CACHE_SOA_RECORD, Section.AUTHORITY);
+                    handleDnsResponse(packet, dnsMsg.toWire());
+                }
                 break;
             case ALLOWED:
-                Timber.i("handleDnsRequest: DNS Name %s allowed, sending to %s.", dnsQueryName, dnsAddress);
-                DatagramPacket outPacket = new DatagramPacket(dnsRawData, 0, dnsRawData.length, dnsAddress, packetPort);
-                this.eventLoop.forwardPacket(outPacket, data -> handleDnsResponse(ipPacket, data));
+                // Answer from the cache the common queries already answered by the upstream server
+                DnsResponseCache.Key cacheKey = dnsMsg == null ? DnsResponseCache.getKey(question, fakeAddressLastByte) : null;
+                byte[] cachedResponse = cacheKey == null ? null : this.responseCache.get(cacheKey, question);
+                if (cachedResponse != null) {
+                    Timber.i("handleDnsRequest: DNS Name %s allowed, answered from cache.", hostname);
+                    handleDnsResponse(packet, cachedResponse);
+                    break;
+                }
+                Timber.i("handleDnsRequest: DNS Name %s allowed, sending to %s.", hostname, dnsAddress);
+                // The payload is sent before the packet buffer is reused but the headers must be kept
+                DatagramPacket outPacket = new DatagramPacket(packetData, payloadOffset, payloadLength, dnsAddress, packetPort);
+                ByteBuffer requestHeaders = ByteBuffer.wrap(ipPacket.copyHeaders());
+                this.eventLoop.forwardPacket(outPacket, data -> {
+                    if (cacheKey != null) {
+                        this.responseCache.put(cacheKey, data);
+                    }
+                    handleDnsResponse(requestHeaders, data);
+                });
                 break;
             case REDIRECTED:
-                Timber.i("handleDnsRequest: DNS Name %s redirected to %s.", dnsQueryName, entry.getRedirection());
-                dnsMsg.getHeader().setFlag(Flags.QR);
-                dnsMsg.getHeader().setFlag(Flags.AA);
-                dnsMsg.getHeader().unsetFlag(Flags.RD);
-                dnsMsg.getHeader().setRcode(Rcode.NOERROR);
+                String redirection = this.vpnModel.getRedirection(hostname);
+                Timber.i("handleDnsRequest: DNS Name %s redirected to %s.", hostname, redirection);
+                InetAddress address = null;
                 try {
-                    InetAddress address = InetAddress.getByName(entry.getRedirection());
-                    Record record;
-                    if (address instanceof Inet6Address) {
-                        record = new AAAARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
-                    } else {
-                        record = new ARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
-                    }
-                    dnsMsg.addRecord(record, Section.ANSWER);
+                    address = InetAddress.getByName(redirection);
                 } catch (UnknownHostException e) {
-                    Timber.w(e, "Failed to get inet address for host %s.", dnsQueryName);
+                    Timber.w(e, "Failed to get inet address for host %s.", hostname);
+                }
+                if (dnsMsg == null) {
+                    byte[] response = getResponsePayload(question.getMaxResponseLength());
+                    int length = question.writeRedirectedResponse(response,
+                            address == null ? null : address.getAddress(), NEGATIVE_CACHE_TTL_SECONDS);
+                    handleDnsResponse(packet, response, length);
+                } else {
+                    Name name = dnsMsg.getQuestion().getName();
+                    dnsMsg.getHeader().setFlag(Flags.QR);
+                    dnsMsg.getHeader().setFlag(Flags.AA);
+                    dnsMsg.getHeader().unsetFlag(Flags.RD);
+                    dnsMsg.getHeader().setRcode(Rcode.NOERROR);
+                    if (address != null) {
+                        Record record;
+                        if (address instanceof Inet6Address) {
+                            record = new AAAARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
+                        } else {
+                            record = new ARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
+                        }
+                        dnsMsg.addRecord(record, Section.ANSWER);
+                    }
+                    handleDnsResponse(packet, dnsMsg.toWire());
                 }
-                handleDnsResponse(ipPacket, dnsMsg.toWire());
                 break;
         }
     }
 
-    private HostEntry getHostEntry(String dnsQueryName) {
-        String hostname = dnsQueryName.toLowerCase(Locale.ENGLISH);
-        HostEntry entry = null;
-        if (this.vpnModel != null) {
-            entry = this.vpnModel.getEntry(hostname);
-        }
-        if (entry == null) {
-            entry = new HostEntry();
-            entry.setHost(hostname);
-            entry.setType(ListType.ALLOWED);
-        }
-        return entry;
-    }
-
     /**
      * Interface abstracting away VpnWorker.
      */
@@ -268,11 +277,20 @@ public class DnsPacketProxy {
          */
         void forwardPacket(DatagramPacket packet, Consumer<byte[]> callback) throws IOException;
 
+        /**
+         * Get a buffer to write an IP packet to the local TUN device.
+         *
+         * @param length The length of the packet to write.
+         * @return A buffer with at least the packet length remaining, from position zero.
+         */
+        ByteBuffer getDeviceWriteBuffer(int length);
+
         /**
          * Write an IP packet to the local TUN device
          *
-         * @param packet The packet to write (a response to a DNS request)
+         * @param packet The packet to write (a response to a DNS request), from its position to its limit.
+         *               It must come from {@link #getDeviceWriteBuffer(int)}.
          */
-        void queueDeviceWrite(IpPacket packet);
+        void queueDeviceWrite(ByteBuffer packet);
     }
 }
@@ -8,6 +8,7 @@ import android.system.StructPollfd;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import timber.log.Timber;
@@ -85,7 +86,7 @@ class DnsQuery implements AutoCloseable {
             byte[] responseData = new byte[1024];
             DatagramPacket responsePacket = new DatagramPacket(responseData, responseData.length);
             this.socket.receive(responsePacket);
-            this.callback.accept(responseData);
+            this.callback.accept(Arrays.copyOf(responseData, responsePacket.getLength()));
         } catch (IOException e) {
             Timber.w(e, "Could not handle DNS response.");
         } finally {
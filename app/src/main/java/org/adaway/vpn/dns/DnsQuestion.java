@@ -0,0 +1,373 @@
+package org.adaway.vpn.dns;
+
+import androidx.annotation.Nullable;
+
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Type;
+
+import java.util.Locale;
+
+/**
+ * This class is a reusable view of a DNS query with a single question, read in place from its
+ * wire format.<br>
+ * It only supports the common queries: a single question about a plain hostname, and an optional
+ * EDNS record. The other queries must be handled by dnsjava, as their responses might not be
+ * byte-for-byte equivalent.<br>
+ * Blocked and redirected responses are written by patching the query header and appending a
+ * pre-encoded record, the same way dnsjava would compress and serialize it.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class DnsQuestion {
+    private static final int HEADER_LENGTH = 12;
+    private static final int MIN_PAYLOAD_SIZE = 512;
+    /**
+     * The maximum wire length of a supported name, without its root label.
+     */
+    private static final int MAX_NAME_LENGTH = 254;
+    private static final int COMPRESSION_POINTER = 0xC000;
+    private static final int QUESTION_NAME_POINTER = COMPRESSION_POINTER | HEADER_LENGTH;
+    private static final int RECORD_FIXED_LENGTH = 10;
+    private static final int FLAG_QR = 0x8000;
+    private static final int FLAG_AA = 0x0400;
+    private static final int FLAG_RD = 0x0100;
+    private static final int OPCODE_MASK = 0x7800;
+    private static final int RCODE_MASK = 0x000F;
+
+    private final byte[] soaRecord;
+    private final int soaPointerOffset;
+    private final char[] soaLastLabel;
+    private final char[] name;
+    private byte[] data;
+    private int offset;
+    private int length;
+    private int nameLength;
+    private int lastLabelStart;
+    private int questionEnd;
+    private int type;
+    private int dClass;
+
+    /**
+     * Constructor.
+     *
+     * @param negativeCacheRecord The SOA record to write to blocked responses.
+     */
+    public DnsQuestion(SOARecord negativeCacheRecord) {
+        this.soaRecord = encodeSoaRecord(negativeCacheRecord);
+        this.soaPointerOffset = negativeCacheRecord.getName().length() + RECORD_FIXED_LENGTH;
+        String soaName = negativeCacheRecord.getName().toString(true).toLowerCase(Locale.ENGLISH);
+        this.soaLastLabel = soaName.substring(soaName.lastIndexOf('.') + 1).toCharArray();
+        this.name = new char[MAX_NAME_LENGTH];
+    }
+
+    /**
+     * Read a DNS query.
+     *
+     * @param data   The array of the query.
+     * @param offset The offset of the query in the array.
+     * @param length The length of the query.
+     * @return {@code true} if the query is supported, {@code false} if it must be handled by dnsjava.
+     */
+    public boolean read(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        if (length < HEADER_LENGTH
+                || (getUnsignedShort(2) & OPCODE_MASK) != 0
+                || getUnsignedShort(4) != 1
+                || getUnsignedShort(6) != 0
+                || getUnsignedShort(8) != 0
+                || getUnsignedShort(10) > 1) {
+            return false;
+        }
+        int position = readName(HEADER_LENGTH);
+        if (position == -1 || position + 4 > length || isSoaNameSuffix()) {
+            return false;
+        }
+        this.type = getUnsignedShort(position);
+        this.dClass = getUnsignedShort(position + 2);
+        this.questionEnd = position + 4;
+        return getUnsignedShort(10) == 0 ? this.questionEnd == length : isEdnsRecord(this.questionEnd);
+    }
+
+    /**
+     * Read the question name into the name buffer.
+     *
+     * @param position The position of the name.
+     * @return The position after the name, {@code -1} if the name is not a plain hostname.
+     */
+    private int readName(int position) {
+        int wireLength = 0;
+        this.nameLength = 0;
+        while (position < this.length) {
+            int labelLength = getUnsignedByte(position++);
+            wireLength += labelLength + 1;
+            if (labelLength == 0) {
+                // Reject the root name
+                return this.nameLength == 0 ? -1 : position;
+            }
+            // Reject compression pointers, extended labels and too long names
+            if (labelLength > 63 || wireLength > MAX_NAME_LENGTH || position + labelLength > this.length) {
+                return -1;
+            }
+            if (this.nameLength > 0) {
+                this.name[this.nameLength++] = '.';
+            }
+            this.lastLabelStart = this.nameLength;
+            for (int i = 0; i < labelLength; i++) {
+                char c = (char) getUnsignedByte(position++);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                } else if ((c < 'a' || c > 'z') && (c < '0' || c > '9') && c != '-' && c != '_') {
+                    // Reject characters dnsjava would escape
+                    return -1;
+                }
+                this.name[this.nameLength++] = c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether the question name shares a suffix with the SOA record name, as dnsjava would
+     * compress the SOA record name against it.
+     *
+     * @return {@code true} if the question name ends with the SOA record top level domain.
+     */
+    private boolean isSoaNameSuffix() {
+        if (this.nameLength - this.lastLabelStart != this.soaLastLabel.length) {
+            return false;
+        }
+        for (int i = 0; i < this.soaLastLabel.length; i++) {
+            if (this.name[this.lastLabelStart + i] != this.soaLastLabel[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the end of the query is a single EDNS record whose options are kept as is by dnsjava.
+     *
+     * @param position The position of the record.
+     * @return {@code true} if the end of the query is a supported EDNS record, {@code false} otherwise.
+     */
+    private boolean isEdnsRecord(int position) {
+        if (position + 1 + RECORD_FIXED_LENGTH > this.length
+                || getUnsignedByte(position) != 0
+                || getUnsignedShort(position + 1) != Type.OPT) {
+            return false;
+        }
+        position += 1 + RECORD_FIXED_LENGTH;
+        int end = position + getUnsignedShort(position - 2);
+        if (end != this.length) {
+            return false;
+        }
+        while (position < end) {
+            if (position + 4 > end) {
+                return false;
+            }
+            int code = getUnsignedShort(position);
+            // Reject the options dnsjava parses
+            if (code == 3 || code == 5 || code == 6 || code == 7 || code == 8 || code == 10 || code == 11 || code == 15) {
+                return false;
+            }
+            position += 4 + getUnsignedShort(position + 2);
+        }
+        return position == end;
+    }
+
+    /**
+     * Get the question name, lower cased and without the final dot.
+     *
+     * @return The question name.
+     */
+    public String getName() {
+        return new String(this.name, 0, this.nameLength);
+    }
+
+    /**
+     * Get the question type.
+     *
+     * @return The question type.
+     */
+    public int getType() {
+        return this.type;
+    }
+
+    /**
+     * Get the question class.
+     *
+     * @return The question class.
+     */
+    public int getDClass() {
+        return this.dClass;
+    }
+
+    /**
+     * Get the query transaction ID.
+     *
+     * @return The query transaction ID.
+     */
+    public int getId() {
+        return getUnsignedShort(0);
+    }
+
+    /**
+     * Get the query header flags.
+     *
+     * @return The query header flags.
+     */
+    public int getFlags() {
+        return getUnsignedShort(2);
+    }
+
+    /**
+     * Check whether the query has an EDNS record.
+     *
+     * @return {@code true} if the query has an EDNS record, {@code false} otherwise.
+     */
+    public boolean hasEdnsRecord() {
+        return this.questionEnd < this.length;
+    }
+
+    /**
+     * Get the EDNS flags of the query.
+     *
+     * @return The EDNS flags of the query, {@code 0} if the query has no EDNS record.
+     */
+    public int getEdnsFlags() {
+        return hasEdnsRecord() ? getUnsignedShort(this.questionEnd + 7) : 0;
+    }
+
+    /**
+     * Get the maximum UDP payload size the client can receive.
+     *
+     * @return The EDNS UDP payload size, {@code 512} bytes at least.
+     */
+    public int getMaxPayloadSize() {
+        return hasEdnsRecord() ? Math.max(MIN_PAYLOAD_SIZE, getUnsignedShort(this.questionEnd + 3)) : MIN_PAYLOAD_SIZE;
+    }
+
+    /**
+     * Copy the question section, as written by the client, into a response.
+     *
+     * @param response The response to copy the question section into, after its header.
+     */
+    public void copyQuestion(byte[] response) {
+        System.arraycopy(this.data, this.offset + HEADER_LENGTH, response, HEADER_LENGTH, this.questionEnd - HEADER_LENGTH);
+    }
+
+    /**
+     * Get the maximum length of a response to the query.
+     *
+     * @return The maximum length of a response to the query.
+     */
+    public int getMaxResponseLength() {
+        return this.length + this.soaRecord.length;
+    }
+
+    /**
+     * Write a blocked response: a successful response without answer and with a SOA record for
+     * negative caching.
+     *
+     * @param response The array to write the response into, from its start, of at least
+     *                 {@link #getMaxResponseLength()} bytes.
+     * @return The length of the response.
+     */
+    public int writeBlockedResponse(byte[] response) {
+        int position = writeHeaderAndQuestion(response, FLAG_QR, RCODE_MASK, 0, 1);
+        System.arraycopy(this.soaRecord, 0, response, position, this.soaRecord.length);
+        // Point the SOA host and admin names to the SOA record name
+        putShort(response, position + this.soaPointerOffset, COMPRESSION_POINTER | position);
+        putShort(response, position + this.soaPointerOffset + 2, COMPRESSION_POINTER | position);
+        position += this.soaRecord.length;
+        return writeEdnsRecord(response, position);
+    }
+
+    /**
+     * Write a redirected response: an authoritative response with the redirection address.
+     *
+     * @param response The array to write the response into, from its start, of at least
+     *                 {@link #getMaxResponseLength()} bytes.
+     * @param address  The redirection address, {@code null} to write a response without answer.
+     * @param ttl      The TTL of the answer, in seconds.
+     * @return The length of the response.
+     */
+    public int writeRedirectedResponse(byte[] response, @Nullable byte[] address, int ttl) {
+        int position = writeHeaderAndQuestion(response, FLAG_QR | FLAG_AA, FLAG_RD | RCODE_MASK,
+                address == null ? 0 : 1, 0);
+        if (address != null) {
+            putShort(response, position, QUESTION_NAME_POINTER);
+            putShort(response, position + 2, address.length == 4 ? Type.A : Type.AAAA);
+            putShort(response, position + 4, DClass.IN);
+            putInt(response, position + 6, ttl);
+            putShort(response, position + 10, address.length);
+            System.arraycopy(address, 0, response, position + 12, address.length);
+            position += 2 + RECORD_FIXED_LENGTH + address.length;
+        }
+        return writeEdnsRecord(response, position);
+    }
+
+    private int writeHeaderAndQuestion(byte[] response, int setFlags, int clearedFlags, int answerCount, int authorityCount) {
+        System.arraycopy(this.data, this.offset, response, 0, this.questionEnd);
+        putShort(response, 2, getUnsignedShort(2) & ~clearedFlags | setFlags);
+        putShort(response, 6, answerCount);
+        putShort(response, 8, authorityCount);
+        return this.questionEnd;
+    }
+
+    private int writeEdnsRecord(byte[] response, int position) {
+        int ednsLength = this.length - this.questionEnd;
+        System.arraycopy(this.data, this.offset + this.questionEnd, response, position, ednsLength);
+        return position + ednsLength;
+    }
+
+    private int getUnsignedByte(int position) {
+        return this.data[this.offset + position] & 0xFF;
+    }
+
+    private int getUnsignedShort(int position) {
+        return (getUnsignedByte(position) << 8) | getUnsignedByte(position + 1);
+    }
+
+    private static void putShort(byte[] array, int position, int value) {
+        array[position] = (byte) (value >>> 8);
+        array[position + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] array, int position, long value) {
+        putShort(array, position, (int) (value >>> 16));
+        putShort(array, position + 2, (int) value);
+    }
+
+    /**
+     * Encode a SOA record as dnsjava would in the authority section of a response, its host and
+     * admin names being compressed to its name.
+     *
+     * @param record The SOA record to encode.
+     * @return The encoded record, with the compression pointers to set.
+     */
+    private static byte[] encodeSoaRecord(SOARecord record) {
+        if (!record.getHost().equals(record.getName()) || !record.getAdmin().equals(record.getName())) {
+            throw new IllegalArgumentException("The SOA record host and admin must be its name.");
+        }
+        byte[] name = record.getName().toWire();
+        byte[] encoded = new byte[name.length + RECORD_FIXED_LENGTH + 4 + 20];
+        System.arraycopy(name, 0, encoded, 0, name.length);
+        int position = name.length;
+        putShort(encoded, position, Type.SOA);
+        putShort(encoded, position + 2, record.getDClass());
+        putInt(encoded, position + 4, record.getTTL());
+        putShort(encoded, position + 8, 4 + 20);
+        // Skip the host and admin name pointers
+        position += RECORD_FIXED_LENGTH + 4;
+        putInt(encoded, position, record.getSerial());
+        putInt(encoded, position + 4, record.getRefresh());
+        putInt(encoded, position + 8, record.getRetry());
+        putInt(encoded, position + 12, record.getExpire());
+        putInt(encoded, position + 16, record.getMinimum());
+        return encoded;
+    }
+}
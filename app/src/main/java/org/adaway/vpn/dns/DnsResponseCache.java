@@ -0,0 +1,428 @@
+package org.adaway.vpn.dns;
+
+import androidx.annotation.Nullable;
+
+import org.xbill.DNS.Type;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * This class is a cache of the upstream DNS server responses, keyed by upstream server, question
+ * name, type and class. Upstream servers may answer differently, as filtering resolvers do, so
+ * their responses are not shared.<br>
+ * Successful responses are cached as long as their records TTL, and negative responses (name
+ * error or no data) as long as their SOA record TTL, both within a maximum. Cached responses are
+ * returned with the query transaction ID, question and recursion flag, and their remaining TTL.
+ * <br>
+ * The cache is bounded by a memory budget, evicting the least recently used responses first.
+ * It is not thread safe and must only be used from the VPN worker thread.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class DnsResponseCache {
+    private static final int HEADER_LENGTH = 12;
+    private static final int RECORD_FIXED_LENGTH = 10;
+    private static final int FLAG_QR = 0x8000;
+    private static final int FLAG_TC = 0x0200;
+    private static final int FLAG_RD = 0x0100;
+    private static final int FLAG_CD = 0x0010;
+    private static final int OPCODE_MASK = 0x7800;
+    private static final int RCODE_MASK = 0x000F;
+    private static final int RCODE_NOERROR = 0;
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final int EDNS_FLAG_DO = 0x8000;
+    /**
+     * The maximum TTL of a successful response, in seconds.
+     */
+    private static final long MAX_POSITIVE_TTL = 60 * 60;
+    /**
+     * The maximum TTL of a negative response, in seconds.
+     */
+    private static final long MAX_NEGATIVE_TTL = 5 * 60;
+    /**
+     * The estimated memory used by an entry, besides its name, response and TTL offsets.
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final int memoryBudget;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Key, Entry> entries;
+    private int memoryUsage;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget The maximum memory used by the cached responses, in bytes.
+     */
+    public DnsResponseCache(int memoryBudget) {
+        this(memoryBudget, () -> System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget The maximum memory used by the cached responses, in bytes.
+     * @param clock        The monotonic clock, in milliseconds.
+     */
+    DnsResponseCache(int memoryBudget, LongSupplier clock) {
+        this.memoryBudget = memoryBudget;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    /**
+     * Get the cache key of a query.
+     *
+     * @param question The query question.
+     * @param server   The index of the upstream server the query is sent to.
+     * @return The cache key of the query.
+     */
+    public static Key getKey(DnsQuestion question, int server) {
+        int variant = 0;
+        if (question.hasEdnsRecord()) {
+            variant |= 1;
+        }
+        if ((question.getEdnsFlags() & EDNS_FLAG_DO) != 0) {
+            variant |= 2;
+        }
+        if ((question.getFlags() & FLAG_CD) != 0) {
+            variant |= 4;
+        }
+        return new Key(server, question.getName(), question.getType(), question.getDClass(), variant);
+    }
+
+    /**
+     * Get a cached response to a query.
+     *
+     * @param key      The query cache key.
+     * @param question The query question.
+     * @return The response to the query, {@code null} if there is no cached response.
+     */
+    @Nullable
+    public byte[] get(Key key, DnsQuestion question) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            this.missCount++;
+            return null;
+        }
+        long elapsed = (this.clock.getAsLong() - entry.time) / 1000;
+        if (elapsed >= entry.ttl) {
+            remove(key, entry);
+            this.missCount++;
+            return null;
+        }
+        if (entry.response.length > question.getMaxPayloadSize()) {
+            this.missCount++;
+            return null;
+        }
+        this.hitCount++;
+        byte[] response = entry.response.clone();
+        putShort(response, 0, question.getId());
+        putShort(response, 2, getShort(response, 2) & ~FLAG_RD | question.getFlags() & FLAG_RD);
+        question.copyQuestion(response);
+        for (int offset : entry.ttlOffsets) {
+            putInt(response, offset, getInt(response, offset) - elapsed);
+        }
+        return response;
+    }
+
+    /**
+     * Cache a response from an upstream DNS server.
+     *
+     * @param key      The query cache key.
+     * @param response The response to cache.
+     */
+    public void put(Key key, byte[] response) {
+        Entry entry = createEntry(key, response);
+        if (entry == null) {
+            return;
+        }
+        Entry previous = this.entries.put(key, entry);
+        if (previous != null) {
+            this.memoryUsage -= previous.size;
+        }
+        this.memoryUsage += entry.size;
+        // Evict the least recently used entries
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.memoryUsage > this.memoryBudget && iterator.hasNext()) {
+            this.memoryUsage -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    private void remove(Key key, Entry entry) {
+        this.entries.remove(key);
+        this.memoryUsage -= entry.size;
+    }
+
+    /**
+     * Clear the cached responses.
+     */
+    public void clear() {
+        this.entries.clear();
+        this.memoryUsage = 0;
+    }
+
+    /**
+     * Get the number of cached responses.
+     *
+     * @return The number of cached responses.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the estimated memory used by the cached responses.
+     *
+     * @return The estimated memory used by the cached responses, in bytes.
+     */
+    public int getMemoryUsage() {
+        return this.memoryUsage;
+    }
+
+    /**
+     * Get the ratio of queries answered from the cache.
+     *
+     * @return The ratio of queries answered from the cache, between {@code 0} and {@code 1}.
+     */
+    public double getHitRatio() {
+        long count = this.hitCount + this.missCount;
+        return count == 0 ? 0 : (double) this.hitCount / count;
+    }
+
+    /**
+     * Get the number of upstream queries saved by the cache.
+     *
+     * @return The number of upstream queries saved by the cache.
+     */
+    public long getSavedQueryCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Create a cache entry for a response.
+     *
+     * @param key      The query cache key.
+     * @param response The response to cache.
+     * @return The cache entry, {@code null} if the response can not be cached.
+     */
+    @Nullable
+    private Entry createEntry(Key key, byte[] response) {
+        if (response.length < HEADER_LENGTH) {
+            return null;
+        }
+        int flags = getShort(response, 2);
+        int rcode = flags & RCODE_MASK;
+        if ((flags & FLAG_QR) == 0 || (flags & OPCODE_MASK) != 0 || (flags & FLAG_TC) != 0
+                || (rcode != RCODE_NOERROR && rcode != RCODE_NXDOMAIN)
+                || getShort(response, 4) != 1) {
+            return null;
+        }
+        int answerCount = getShort(response, 6);
+        int recordCount = answerCount + getShort(response, 8) + getShort(response, 10);
+        // Check the question is the query one
+        int position = matchName(response, key.name);
+        if (position == -1 || position + 4 > response.length
+                || getShort(response, position) != key.type || getShort(response, position + 2) != key.dClass) {
+            return null;
+        }
+        position += 4;
+        // Find the TTL of each record, and the TTL of the response
+        boolean negative = rcode == RCODE_NXDOMAIN || answerCount == 0;
+        long ttl = negative ? MAX_NEGATIVE_TTL : MAX_POSITIVE_TTL;
+        boolean soaRecord = false;
+        int[] ttlOffsets = new int[recordCount];
+        int ttlCount = 0;
+        for (int record = 0; record < recordCount; record++) {
+            position = skipName(response, position);
+            if (position == -1 || position + RECORD_FIXED_LENGTH > response.length) {
+                return null;
+            }
+            int type = getShort(response, position);
+            int rdataLength = getShort(response, position + 8);
+            int end = position + RECORD_FIXED_LENGTH + rdataLength;
+            if (end > response.length) {
+                return null;
+            }
+            // The EDNS record TTL field holds its flags
+            if (type != Type.OPT) {
+                long recordTtl = getInt(response, position + 4);
+                if (recordTtl > Integer.MAX_VALUE) {
+                    recordTtl = 0;
+                }
+                ttl = Math.min(ttl, recordTtl);
+                ttlOffsets[ttlCount++] = position + 4;
+                // Negative responses are cached as long as the SOA minimum TTL
+                if (type == Type.SOA && record >= answerCount && rdataLength >= 20) {
+                    soaRecord = true;
+                    ttl = Math.min(ttl, getInt(response, end - 4));
+                }
+            }
+            position = end;
+        }
+        if (position != response.length || ttl <= 0 || negative && !soaRecord) {
+            return null;
+        }
+        int[] offsets = new int[ttlCount];
+        System.arraycopy(ttlOffsets, 0, offsets, 0, ttlCount);
+        int size = ENTRY_OVERHEAD + 2 * key.name.length() + response.length + 4 * offsets.length;
+        return new Entry(response, offsets, ttl, this.clock.getAsLong(), size);
+    }
+
+    /**
+     * Match the question name of a response to a lower cased name.
+     *
+     * @param response The response to check.
+     * @param name     The name to match.
+     * @return The position after the question name, {@code -1} if the name does not match.
+     */
+    private static int matchName(byte[] response, String name) {
+        int position = HEADER_LENGTH;
+        int index = 0;
+        while (position < response.length) {
+            int labelLength = response[position++] & 0xFF;
+            if (labelLength == 0) {
+                return index == name.length() ? position : -1;
+            }
+            if (labelLength > 63 || position + labelLength > response.length) {
+                return -1;
+            }
+            if (index > 0 && (index >= name.length() || name.charAt(index++) != '.')) {
+                return -1;
+            }
+            for (int i = 0; i < labelLength; i++) {
+                char c = (char) (response[position++] & 0xFF);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (index >= name.length() || name.charAt(index++) != c) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip a record name, which may be compressed.
+     *
+     * @param response The response to read.
+     * @param position The position of the name.
+     * @return The position after the name, {@code -1} if the name is invalid.
+     */
+    private static int skipName(byte[] response, int position) {
+        while (position < response.length) {
+            int labelLength = response[position++] & 0xFF;
+            if (labelLength == 0) {
+                return position;
+            }
+            if ((labelLength & 0xC0) == 0xC0) {
+                return position + 1;
+            }
+            if (labelLength > 63) {
+                return -1;
+            }
+            position += labelLength;
+        }
+        return -1;
+    }
+
+    private static int getShort(byte[] array, int position) {
+        return (array[position] & 0xFF) << 8 | array[position + 1] & 0xFF;
+    }
+
+    private static long getInt(byte[] array, int position) {
+        return (long) getShort(array, position) << 16 | getShort(array, position + 2);
+    }
+
+    private static void putShort(byte[] array, int position, int value) {
+        array[position] = (byte) (value >>> 8);
+        array[position + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] array, int position, long value) {
+        putShort(array, position, (int) (value >>> 16));
+        putShort(array, position + 2, (int) value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "DnsResponseCache{size=%d, memoryUsage=%d, hitRatio=%.3f, savedQueries=%d}",
+                size(), this.memoryUsage, getHitRatio(), getSavedQueryCount());
+    }
+
+    /**
+     * This class is the cache key of a query.
+     */
+    public static final class Key {
+        /**
+         * The index of the upstream server, as the last byte of its fake address.
+         */
+        private final int server;
+        private final String name;
+        private final int type;
+        private final int dClass;
+        /**
+         * The query options that change the response: EDNS, DNSSEC OK and checking disabled.
+         */
+        private final int variant;
+
+        private Key(int server, String name, int type, int dClass, int variant) {
+            this.server = server;
+            this.name = name;
+            this.type = type;
+            this.dClass = dClass;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return this.server == key.server && this.type == key.type && this.dClass == key.dClass
+                    && this.variant == key.variant && this.name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.server, this.name, this.type, this.dClass, this.variant);
+        }
+    }
+
+    /**
+     * This class is a cached response.
+     */
+    private static final class Entry {
+        private final byte[] response;
+        private final int[] ttlOffsets;
+        /**
+         * The response TTL, in seconds.
+         */
+        private final long ttl;
+        /**
+         * The caching time, in milliseconds.
+         */
+        private final long time;
+        /**
+         * The estimated memory used by the entry, in bytes.
+         */
+        private final int size;
+
+        private Entry(byte[] response, int[] ttlOffsets, long ttl, long time, int size) {
+            this.response = response;
+            this.ttlOffsets = ttlOffsets;
+            this.ttl = ttl;
+            this.time = time;
+            this.size = size;
+        }
+    }
+}
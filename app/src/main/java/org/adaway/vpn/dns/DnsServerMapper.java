@@ -111,17 +111,16 @@ public class DnsServerMapper {
     /**
      * Get the original DNS server address from fake DNS server address.
      *
-     * @param fakeDnsAddress The fake DNS address to get the original DNS server address.
+     * @param fakeDnsAddressLastByte The last byte of the fake DNS address to get the original DNS server address, unsigned.
      * @return The original DNS server address, wrapped into an {@link Optional} or {@link Optional#empty()} if it does not exists.
      */
-    Optional<InetAddress> getDnsServerFromFakeAddress(InetAddress fakeDnsAddress) {
-        byte[] address = fakeDnsAddress.getAddress();
-        int index = address[address.length - 1] - 2;
+    Optional<InetAddress> getDnsServerFromFakeAddress(int fakeDnsAddressLastByte) {
+        int index = fakeDnsAddressLastByte - 2;
         if (index < 0 || index >= this.dnsServers.size()) {
             return Optional.empty();
         }
         InetAddress dnsAddress = this.dnsServers.get(index);
-        Timber.d("handleDnsRequest: Incoming packet to %s AKA %d AKA %s", fakeDnsAddress.getHostAddress(), index, dnsAddress.getHostAddress());
+        Timber.d("handleDnsRequest: Incoming packet to fake DNS %d AKA %s", index, dnsAddress);
         return Optional.of(dnsAddress);
     }
 
@@ -4,19 +4,10 @@ package org.adaway.vpn.dns;
 import android.content.Context;
 
 import org.adaway.AdAwayApplication;
-import org.adaway.db.entity.HostEntry;
 import org.adaway.db.entity.ListType;
 import org.adaway.model.vpn.VpnModel;
 import org.adaway.util.AppExecutors;
 import org.adaway.vpn.dns.DnsPacketProxy.EventLoop;
-import org.pcap4j.packet.IpPacket;
-import org.pcap4j.packet.IpSelector;
-import org.pcap4j.packet.IpV4Packet;
-import org.pcap4j.packet.IpV6Packet;
-import org.pcap4j.packet.Packet;
-import org.pcap4j.packet.UdpPacket;
-import org.pcap4j.packet.UnknownPacket;
-import org.pcap4j.packet.namednumber.IpNumber;
 import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.DClass;
@@ -31,10 +22,10 @@ import org.xbill.DNS.TextParseException;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -70,12 +61,14 @@ public class DohPacketProxy {
 
     private final EventLoop eventLoop;
     private final DnsServerMapper dnsServerMapper;
+    private final IpUdpPacket requestPacket;
     private VpnModel vpnModel;
     private DnsOverHttps dnsOverHttps;
 
     public DohPacketProxy(EventLoop eventLoop, DnsServerMapper dnsServerMapper) {
         this.eventLoop = eventLoop;
         this.dnsServerMapper = dnsServerMapper;
+        this.requestPacket = new IpUdpPacket();
     }
 
     private static InetAddress getByIp(String host) {
@@ -112,86 +105,42 @@ public class DohPacketProxy {
     /**
      * Handles a responsePayload from an upstream DNS server
      *
-     * @param requestPacket   The original request packet
+     * @param requestHeaders  The IP and UDP headers of the original request packet
      * @param responsePayload The payload of the response
      */
-    public void handleDnsResponse(IpPacket requestPacket, byte[] responsePayload) {
-        UdpPacket udpOutPacket = (UdpPacket) requestPacket.getPayload();
-        UdpPacket.Builder payLoadBuilder = new UdpPacket.Builder(udpOutPacket)
-                .srcPort(udpOutPacket.getHeader().getDstPort())
-                .dstPort(udpOutPacket.getHeader().getSrcPort())
-                .srcAddr(requestPacket.getHeader().getDstAddr())
-                .dstAddr(requestPacket.getHeader().getSrcAddr())
-                .correctChecksumAtBuild(true)
-                .correctLengthAtBuild(true)
-                .payloadBuilder(
-                        new UnknownPacket.Builder().rawData(responsePayload)
-                );
-
-        IpPacket ipOutPacket;
-        if (requestPacket instanceof IpV4Packet) {
-            ipOutPacket = new IpV4Packet.Builder((IpV4Packet) requestPacket)
-                    .srcAddr((Inet4Address) requestPacket.getHeader().getDstAddr())
-                    .dstAddr((Inet4Address) requestPacket.getHeader().getSrcAddr())
-                    .correctChecksumAtBuild(true)
-                    .correctLengthAtBuild(true)
-                    .payloadBuilder(payLoadBuilder)
-                    .build();
-
-        } else {
-            ipOutPacket = new IpV6Packet.Builder((IpV6Packet) requestPacket)
-                    .srcAddr((Inet6Address) requestPacket.getHeader().getDstAddr())
-                    .dstAddr((Inet6Address) requestPacket.getHeader().getSrcAddr())
-                    .correctLengthAtBuild(true)
-                    .payloadBuilder(payLoadBuilder)
-                    .build();
-        }
-
-        this.eventLoop.queueDeviceWrite(ipOutPacket);
+    public void handleDnsResponse(ByteBuffer requestHeaders, byte[] responsePayload) {
+        int length = IpUdpPacket.getResponseLength(requestHeaders, responsePayload.length);
+        ByteBuffer responsePacket = this.eventLoop.getDeviceWriteBuffer(length);
+        IpUdpPacket.writeResponse(requestHeaders, responsePayload, 0, responsePayload.length, responsePacket);
+        responsePacket.flip();
+        this.eventLoop.queueDeviceWrite(responsePacket);
     }
 
     /**
      * Handles a DNS request, by either blocking it or forwarding it to the remote location.
      *
-     * @param packetData The packet data to read
+     * @param packet The packet to read, from its position to its limit, in an array backed buffer.
+     *               The buffer is not retained.
      * @throws IOException If some network error occurred
      */
-    public void handleDnsRequest(byte[] packetData) throws IOException {
-        IpPacket ipPacket;
-        try {
-            ipPacket = (IpPacket) IpSelector.newPacket(packetData, 0, packetData.length);
-        } catch (Exception e) {
-            Timber.i(e, "handleDnsRequest: Discarding invalid IP packet");
-            return;
-        }
-
-        // Check UDP protocol
-        if (ipPacket.getHeader().getProtocol() != IpNumber.UDP) {
-            return;
-        }
-
-        UdpPacket updPacket;
-        Packet udpPayload;
-
-        try {
-            updPacket = (UdpPacket) ipPacket.getPayload();
-            udpPayload = updPacket.getPayload();
-        } catch (Exception e) {
-            Timber.i(e, "handleDnsRequest: Discarding unknown packet type %s", ipPacket.getHeader());
+    public void handleDnsRequest(ByteBuffer packet) throws IOException {
+        IpUdpPacket ipPacket = this.requestPacket;
+        if (!ipPacket.read(packet)) {
+            Timber.i("handleDnsRequest: Discarding invalid or non UDP IP packet");
             return;
         }
 
-        InetAddress packetAddress = ipPacket.getHeader().getDstAddr();
-        int packetPort = updPacket.getHeader().getDstPort().valueAsInt();
-        Optional<InetAddress> dnsAddressOptional = this.dnsServerMapper.getDnsServerFromFakeAddress(packetAddress);
+        int packetPort = ipPacket.getDestinationPort();
+        int fakeAddressLastByte = ipPacket.getDestinationAddressLastByte();
+        Optional<InetAddress> dnsAddressOptional = this.dnsServerMapper.getDnsServerFromFakeAddress(fakeAddressLastByte);
         if (!dnsAddressOptional.isPresent()) {
-            Timber.w("Cannot find mapped DNS for %s.", packetAddress.getHostAddress());
+            Timber.w("Cannot find mapped DNS for fake address ending with %d.", fakeAddressLastByte);
             return;
         }
         InetAddress dnsAddress = dnsAddressOptional.get();
 
-        if (udpPayload == null) {
-            Timber.i("handleDnsRequest: Sending UDP packet without payload: %s", updPacket);
+        if (ipPacket.getPayloadLength() == 0) {
+            Timber.i("handleDnsRequest: Sending UDP packet without payload: %s", ipPacket);
 
             // Let's be nice to Firefox. Firefox uses an empty UDP packet to
             // the gateway to reduce the RTT. For further details, please see
@@ -201,10 +150,9 @@ public class DohPacketProxy {
             return;
         }
 
-        byte[] dnsRawData = udpPayload.getRawData();
         Message dnsMsg;
         try {
-            dnsMsg = new Message(dnsRawData);
+            dnsMsg = new Message(ByteBuffer.wrap(packet.array(), packet.arrayOffset() + ipPacket.getPayloadOffset(), ipPacket.getPayloadLength()));
         } catch (IOException e) {
             Timber.i(e, "handleDnsRequest: Discarding non-DNS or invalid packet");
             return;
@@ -215,27 +163,31 @@ public class DohPacketProxy {
         }
         Name name = dnsMsg.getQuestion().getName();
         String dnsQueryName = name.toString(true);
-        HostEntry entry = getHostEntry(dnsQueryName);
-        switch (entry.getType()) {
+        String hostname = dnsQueryName.toLowerCase(Locale.ENGLISH);
+        ListType type = this.vpnModel == null ? ListType.ALLOWED : this.vpnModel.getType(hostname);
+        switch (type) {
             case BLOCKED:
                 Timber.i("handleDnsRequest: DNS Name %s blocked!", dnsQueryName);
                 dnsMsg.getHeader().setFlag(Flags.QR);
                 dnsMsg.getHeader().setRcode(Rcode.NOERROR);
                 dnsMsg.addRecord(NEGATIVE_CACHE_SOA_RECORD, Section.AUTHORITY);
-                handleDnsResponse(ipPacket, dnsMsg.toWire());
+                handleDnsResponse(packet, dnsMsg.toWire());
                 break;
             case ALLOWED:
                 Timber.i("handleDnsRequest: DNS Name %s allowed, sending to %s.", dnsQueryName, dnsAddress);
-                EXECUTOR.execute(() -> queryDohServer(ipPacket, dnsMsg, name));
+                // The packet buffer is reused once the request is handled but the headers must be kept
+                ByteBuffer requestHeaders = ByteBuffer.wrap(ipPacket.copyHeaders());
+                EXECUTOR.execute(() -> queryDohServer(requestHeaders, dnsMsg, name));
                 break;
             case REDIRECTED:
-                Timber.i("handleDnsRequest: DNS Name %s redirected to %s.", dnsQueryName, entry.getRedirection());
+                String redirection = this.vpnModel.getRedirection(hostname);
+                Timber.i("handleDnsRequest: DNS Name %s redirected to %s.", dnsQueryName, redirection);
                 dnsMsg.getHeader().setFlag(Flags.QR);
                 dnsMsg.getHeader().setFlag(Flags.AA);
                 dnsMsg.getHeader().unsetFlag(Flags.RD);
                 dnsMsg.getHeader().setRcode(Rcode.NOERROR);
                 try {
-                    InetAddress address = InetAddress.getByName(entry.getRedirection());
+                    InetAddress address = InetAddress.getByName(redirection);
                     Record dnsRecord;
                     if (address instanceof Inet6Address) {
                         dnsRecord = new AAAARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
@@ -246,12 +198,12 @@ public class DohPacketProxy {
                 } catch (UnknownHostException e) {
                     Timber.w(e, "Failed to get inet address for host %s.", dnsQueryName);
                 }
-                handleDnsResponse(ipPacket, dnsMsg.toWire());
+                handleDnsResponse(packet, dnsMsg.toWire());
                 break;
         }
     }
 
-    private void queryDohServer(IpPacket ipPacket, Message dnsMsg, Name name) {
+    private void queryDohServer(ByteBuffer requestHeaders, Message dnsMsg, Name name) {
         String dnsQueryName = name.toString(true);
         InetAddress address = null;
         try {
@@ -280,20 +232,6 @@ public class DohPacketProxy {
             dnsRecord = new ARecord(name, DClass.IN, NEGATIVE_CACHE_TTL_SECONDS, address);
         }
         dnsMsg.addRecord(dnsRecord, Section.ANSWER);
-        handleDnsResponse(ipPacket, dnsMsg.toWire());
-    }
-
-    private HostEntry getHostEntry(String dnsQueryName) {
-        String hostname = dnsQueryName.toLowerCase(Locale.ENGLISH);
-        HostEntry entry = null;
-        if (this.vpnModel != null) {
-            entry = this.vpnModel.getEntry(hostname);
-        }
-        if (entry == null) {
-            entry = new HostEntry();
-            entry.setHost(hostname);
-            entry.setType(ListType.ALLOWED);
-        }
-        return entry;
+        handleDnsResponse(requestHeaders, dnsMsg.toWire());
     }
 }
@@ -0,0 +1,278 @@
+package org.adaway.vpn.dns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is a reusable view of an IPv4 or IPv6 UDP packet, read in place from a buffer.<br>
+ * It only reads the IP and UDP headers and locates the UDP payload, without copying it nor
+ * allocating any object. Fragmented packets and IPv6 packets with extension headers are not
+ * supported.<br>
+ * Buffers are read and written in network byte order.<br>
+ * Responses are written in place into a buffer from the request headers: the addresses and ports
+ * are swapped, the lengths are set, the IPv4 header checksum is incrementally updated and the UDP
+ * checksum is computed over the new payload.
+ *
+ * @author Bruce BUJON (bruce.bujon(at)gmail(dot)com)
+ */
+public final class IpUdpPacket {
+    private static final int IPV4_VERSION = 4;
+    private static final int IPV6_VERSION = 6;
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+    private static final int IPV6_HEADER_LENGTH = 40;
+    private static final int UDP_HEADER_LENGTH = 8;
+    private static final int UDP_PROTOCOL = 17;
+    /**
+     * The IPv4 more fragments flag and fragment offset mask.
+     */
+    private static final int IPV4_FRAGMENT_MASK = 0x3FFF;
+
+    private ByteBuffer buffer;
+    private int start;
+    private int version;
+    private int ipHeaderLength;
+    private int payloadLength;
+
+    /**
+     * Read a packet.<br>
+     * The packet is read from the buffer position to its limit. The buffer must not be changed
+     * while the packet is used.
+     *
+     * @param packet The buffer of the packet to read.
+     * @return {@code true} if the packet is a valid IPv4 or IPv6 UDP packet, {@code false} otherwise.
+     */
+    public boolean read(ByteBuffer packet) {
+        this.buffer = packet;
+        this.start = packet.position();
+        int length = packet.remaining();
+        if (length < 1) {
+            return false;
+        }
+        this.version = (packet.get(this.start) & 0xFF) >>> 4;
+        int ipPayloadLength;
+        if (this.version == IPV4_VERSION) {
+            if (length < IPV4_MIN_HEADER_LENGTH) {
+                return false;
+            }
+            this.ipHeaderLength = (packet.get(this.start) & 0x0F) * 4;
+            int totalLength = getUnsignedShort(2);
+            if (this.ipHeaderLength < IPV4_MIN_HEADER_LENGTH || totalLength < this.ipHeaderLength || totalLength > length
+                    || (getUnsignedShort(6) & IPV4_FRAGMENT_MASK) != 0
+                    || getUnsignedByte(9) != UDP_PROTOCOL) {
+                return false;
+            }
+            ipPayloadLength = totalLength - this.ipHeaderLength;
+        } else if (this.version == IPV6_VERSION) {
+            if (length < IPV6_HEADER_LENGTH) {
+                return false;
+            }
+            this.ipHeaderLength = IPV6_HEADER_LENGTH;
+            ipPayloadLength = getUnsignedShort(4);
+            if (IPV6_HEADER_LENGTH + ipPayloadLength > length || getUnsignedByte(6) != UDP_PROTOCOL) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        if (ipPayloadLength < UDP_HEADER_LENGTH) {
+            return false;
+        }
+        int udpLength = getUnsignedShort(this.ipHeaderLength + 4);
+        if (udpLength < UDP_HEADER_LENGTH || udpLength > ipPayloadLength) {
+            return false;
+        }
+        this.payloadLength = udpLength - UDP_HEADER_LENGTH;
+        return true;
+    }
+
+    /**
+     * Get the IP version of the packet.
+     *
+     * @return The IP version of the packet, {@code 4} or {@code 6}.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the last byte of the destination address.
+     *
+     * @return The last byte of the destination address, unsigned.
+     */
+    public int getDestinationAddressLastByte() {
+        int destinationEnd = this.version == IPV4_VERSION ? 20 : 40;
+        return getUnsignedByte(destinationEnd - 1);
+    }
+
+    /**
+     * Get the UDP destination port.
+     *
+     * @return The UDP destination port.
+     */
+    public int getDestinationPort() {
+        return getUnsignedShort(this.ipHeaderLength + 2);
+    }
+
+    /**
+     * Get the length of the IP and UDP headers.
+     *
+     * @return The length of the IP and UDP headers.
+     */
+    public int getHeadersLength() {
+        return this.ipHeaderLength + UDP_HEADER_LENGTH;
+    }
+
+    /**
+     * Get the offset of the UDP payload in the buffer.
+     *
+     * @return The offset of the UDP payload in the buffer.
+     */
+    public int getPayloadOffset() {
+        return this.start + getHeadersLength();
+    }
+
+    /**
+     * Get the length of the UDP payload.
+     *
+     * @return The length of the UDP payload, {@code 0} if there is no payload.
+     */
+    public int getPayloadLength() {
+        return this.payloadLength;
+    }
+
+    /**
+     * Copy the IP and UDP headers, to write a response once the packet buffer is reused.
+     *
+     * @return A copy of the IP and UDP headers.
+     */
+    public byte[] copyHeaders() {
+        byte[] headers = new byte[getHeadersLength()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = this.buffer.get(this.start + i);
+        }
+        return headers;
+    }
+
+    private int getUnsignedByte(int offset) {
+        return this.buffer.get(this.start + offset) & 0xFF;
+    }
+
+    private int getUnsignedShort(int offset) {
+        return this.buffer.getShort(this.start + offset) & 0xFFFF;
+    }
+
+    /**
+     * Get the length of a response.
+     *
+     * @param requestHeaders The request headers, from its position.
+     * @param payloadLength  The length of the response payload.
+     * @return The length of the response.
+     */
+    public static int getResponseLength(ByteBuffer requestHeaders, int payloadLength) {
+        return getIpHeaderLength(requestHeaders) + UDP_HEADER_LENGTH + payloadLength;
+    }
+
+    /**
+     * Write a response to a request.<br>
+     * The response is written from the response buffer position, which is moved after it.
+     *
+     * @param requestHeaders The request headers, from its position. It may be the whole request packet.
+     * @param payload        The array of the response payload.
+     * @param payloadOffset  The offset of the response payload in the array.
+     * @param payloadLength  The length of the response payload.
+     * @param response       The buffer to write the response into.
+     */
+    public static void writeResponse(ByteBuffer requestHeaders, byte[] payload, int payloadOffset, int payloadLength, ByteBuffer response) {
+        int requestStart = requestHeaders.position();
+        int ipHeaderLength = getIpHeaderLength(requestHeaders);
+        int start = response.position();
+        int udpStart = start + ipHeaderLength;
+        int udpLength = UDP_HEADER_LENGTH + payloadLength;
+        boolean ipv4 = (requestHeaders.get(requestStart) & 0xFF) >>> 4 == IPV4_VERSION;
+        // Copy the IP header with swapped addresses
+        int addressOffset = ipv4 ? 12 : 8;
+        int addressLength = ipv4 ? 4 : 16;
+        for (int i = 0; i < addressOffset; i++) {
+            response.put(start + i, requestHeaders.get(requestStart + i));
+        }
+        for (int i = 0; i < addressLength; i++) {
+            response.put(start + addressOffset + i, requestHeaders.get(requestStart + addressOffset + addressLength + i));
+            response.put(start + addressOffset + addressLength + i, requestHeaders.get(requestStart + addressOffset + i));
+        }
+        for (int i = addressOffset + 2 * addressLength; i < ipHeaderLength; i++) {
+            response.put(start + i, requestHeaders.get(requestStart + i));
+        }
+        // Set the IP length
+        if (ipv4) {
+            int previousTotalLength = response.getShort(start + 2) & 0xFFFF;
+            int totalLength = ipHeaderLength + udpLength;
+            response.putShort(start + 2, (short) totalLength);
+            // Update the header checksum as of RFC 1624: HC' = ~(~HC + ~m + m')
+            int checksum = ~response.getShort(start + 10) & 0xFFFF;
+            checksum = foldChecksum(checksum + (~previousTotalLength & 0xFFFF) + totalLength);
+            response.putShort(start + 10, (short) ~checksum);
+        } else {
+            response.putShort(start + 4, (short) udpLength);
+        }
+        // Write the UDP header with swapped ports
+        int requestUdpStart = requestStart + ipHeaderLength;
+        response.putShort(udpStart, requestHeaders.getShort(requestUdpStart + 2));
+        response.putShort(udpStart + 2, requestHeaders.getShort(requestUdpStart));
+        response.putShort(udpStart + 4, (short) udpLength);
+        response.putShort(udpStart + 6, (short) 0);
+        // Copy the payload
+        int payloadStart = udpStart + UDP_HEADER_LENGTH;
+        response.position(payloadStart);
+        response.put(payload, payloadOffset, payloadLength);
+        // Compute the UDP checksum over the pseudo header, the UDP header and the payload
+        long sum = UDP_PROTOCOL + udpLength;
+        sum += sum(response, start + addressOffset, 2 * addressLength);
+        sum += sum(response, udpStart, udpLength);
+        int checksum = ~foldChecksum(sum) & 0xFFFF;
+        // A zero checksum means no checksum
+        response.putShort(udpStart + 6, (short) (checksum == 0 ? 0xFFFF : checksum));
+    }
+
+    private static int getIpHeaderLength(ByteBuffer headers) {
+        int versionAndLength = headers.get(headers.position()) & 0xFF;
+        return versionAndLength >>> 4 == IPV4_VERSION ? (versionAndLength & 0x0F) * 4 : IPV6_HEADER_LENGTH;
+    }
+
+    /**
+     * Sum the 16 bits words of a buffer part, the last odd byte being padded with zero.
+     *
+     * @param buffer The buffer to sum.
+     * @param offset The offset of the part to sum.
+     * @param length The length of the part to sum.
+     * @return The unfolded sum.
+     */
+    private static long sum(ByteBuffer buffer, int offset, int length) {
+        long sum = 0;
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            sum += buffer.getShort(i) & 0xFFFF;
+        }
+        if ((length & 1) != 0) {
+            sum += (buffer.get(end) & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Fold a sum into a 16 bits one's complement sum.
+     *
+     * @param sum The sum to fold.
+     * @return The folded sum.
+     */
+    private static int foldChecksum(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    @Override
+    public String toString() {
+        return "IpUdpPacket{version=" + this.version + ", headersLength=" + getHeadersLength() +
+                ", payloadLength=" + this.payloadLength + "}";
+    }
+}
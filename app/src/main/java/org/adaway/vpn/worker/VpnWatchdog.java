@@ -146,13 +146,13 @@ class VpnWatchdog {
     /**
      * Handles an incoming packet on a device.
      *
-     * @param packetData The data of the packet
+     * @param packetLength The length of the packet
      */
-    void handlePacket(byte[] packetData) {
+    void handlePacket(int packetLength) {
         if (!this.enabled) {
             return;
         }
-        Timber.d("handlePacket: Received packet of length %s", packetData.length);
+        Timber.d("handlePacket: Received packet of length %s", packetLength);
         this.lastPacketReceived = System.currentTimeMillis();
     }
 
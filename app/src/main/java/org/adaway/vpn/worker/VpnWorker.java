@@ -35,14 +35,15 @@ import org.adaway.vpn.VpnService;
 import org.adaway.vpn.dns.DnsPacketProxy;
 import org.adaway.vpn.dns.DnsQueryQueue;
 import org.adaway.vpn.dns.DnsServerMapper;
-import org.pcap4j.packet.IpPacket;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.ExecutorService;
@@ -61,6 +62,14 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
      * Maximum packet size is constrained by the MTU, which is given as a signed short.
      */
     private static final int MAX_PACKET_SIZE = Short.MAX_VALUE;
+    /**
+     * The size of the pooled buffers to write packets to the device, enough for any DNS response.
+     */
+    private static final int WRITE_BUFFER_SIZE = 2048;
+    /**
+     * The maximum number of pooled buffers to write packets to the device.
+     */
+    private static final int MAX_WRITE_BUFFER_COUNT = 32;
 
     /**
      * The VPN service, also used as {@link android.content.Context}.
@@ -69,7 +78,11 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
     /**
      * The queue of packets to send to the device.
      */
-    private final Queue<byte[]> deviceWrites;
+    private final Queue<ByteBuffer> deviceWrites;
+    /**
+     * The pool of buffers to write packets to the device.
+     */
+    private final Deque<ByteBuffer> writeBuffers;
     /**
      * The queue of DNS queries.
      */
@@ -103,6 +116,7 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
     public VpnWorker(VpnService vpnService) {
         this.vpnService = vpnService;
         this.deviceWrites = new LinkedList<>();
+        this.writeBuffers = new ArrayDeque<>();
         this.dnsQueryQueue = new DnsQueryQueue();
         this.dnsServerMapper = new DnsServerMapper();
         this.dnsPacketProxy = new DnsPacketProxy(this, this.dnsServerMapper);
@@ -192,12 +206,13 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
             }
         }
         this.vpnService.notifyVpnStatus(STOPPED);
+        Timber.i("DNS response cache statistics: %s.", this.dnsPacketProxy.getResponseCache());
         Timber.d("Exiting work.");
     }
 
     private void runVpn() throws IOException, VpnNetworkException {
         // Allocate the buffer for a single packet.
-        byte[] packet = new byte[MAX_PACKET_SIZE];
+        ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
 
         // Authenticate and configure the virtual network interface.
         try (ParcelFileDescriptor pfd = establish(this.vpnService, this.dnsServerMapper);
@@ -211,6 +226,8 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
 
             // Update address to ping with default DNS server
             this.vpnWatchDog.setTarget(this.dnsServerMapper.getDefaultDnsServerAddress());
+            // Drop the responses from the previous network DNS servers
+            this.dnsPacketProxy.getResponseCache().clear();
 
             // Now we are connected. Set the flag and show the message.
             this.vpnService.notifyVpnStatus(RUNNING);
@@ -223,7 +240,7 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
         }
     }
 
-    private boolean doOne(FileInputStream inputStream, FileOutputStream fileOutputStream, byte[] packet)
+    private boolean doOne(FileInputStream inputStream, FileOutputStream fileOutputStream, ByteBuffer packet)
             throws IOException, VpnNetworkException {
         // Create poll FD on tunnel
         StructPollfd deviceFd = new StructPollfd();
@@ -271,27 +288,29 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
         Timber.d("Write to device %d packets.", this.deviceWrites.size());
         try {
             while (!this.deviceWrites.isEmpty()) {
-                byte[] ipPacketData = this.deviceWrites.poll();
-                fileOutputStream.write(ipPacketData);
+                ByteBuffer packet = this.deviceWrites.poll();
+                fileOutputStream.write(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+                releaseDeviceWriteBuffer(packet);
             }
         } catch (IOException e) {
             throw new IOException("Failed to write to tunnel output stream.", e);
         }
     }
 
-    private int readPacketFromDevice(FileInputStream inputStream, byte[] packet) throws IOException {
+    private int readPacketFromDevice(FileInputStream inputStream, ByteBuffer packet) throws IOException {
         Timber.d("Read a packet from device.");
         // Read the outgoing packet from the input stream.
-        int length = inputStream.read(packet);
+        int length = inputStream.read(packet.array());
         if (length < 0) {
             // TODO Stream closed. Is there anything else to do?
             Timber.d("Tunnel input stream closed.");
         } else if (length == 0) {
             Timber.d("Read empty packet from tunnel.");
         } else {
-            byte[] readPacket = Arrays.copyOf(packet, length);
-            vpnWatchDog.handlePacket(readPacket);
-            dnsPacketProxy.handleDnsRequest(readPacket);
+            // Handle the packet in place, the buffer is reused for the next one
+            packet.clear().limit(length);
+            vpnWatchDog.handlePacket(length);
+            dnsPacketProxy.handleDnsRequest(packet);
         }
         return length;
     }
@@ -331,11 +350,23 @@ public class VpnWorker implements DnsPacketProxy.EventLoop {
     }
 
     @Override
-    public void queueDeviceWrite(IpPacket ipOutPacket) {
-        byte[] rawData = ipOutPacket.getRawData();
-        // TODO Check why data could be null
-        if (rawData != null) {
-            this.deviceWrites.add(rawData);
+    public ByteBuffer getDeviceWriteBuffer(int length) {
+        ByteBuffer buffer = length <= WRITE_BUFFER_SIZE ? this.writeBuffers.poll() : null;
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(Math.max(length, WRITE_BUFFER_SIZE));
+        }
+        return buffer;
+    }
+
+    @Override
+    public void queueDeviceWrite(ByteBuffer packet) {
+        this.deviceWrites.add(packet);
+    }
+
+    private void releaseDeviceWriteBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() == WRITE_BUFFER_SIZE && this.writeBuffers.size() < MAX_WRITE_BUFFER_COUNT) {
+            buffer.clear();
+            this.writeBuffers.push(buffer);
         }
     }
 }
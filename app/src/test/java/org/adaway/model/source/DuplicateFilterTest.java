@@ -0,0 +1,70 @@
+package org.adaway.model.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFilterTest {
+    private static final int STRIPE_COUNT = 16;
+    private static final int MAX_STRIPE_CAPACITY = 4096;
+    private static final int SLOT_SIZE = 12;
+
+    @Test
+    public void testDuplicates() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertTrue(filter.accept(fingerprint(1), 2));
+        assertFalse(filter.accept(fingerprint(1), 2));
+        assertTrue(filter.accept(fingerprint(1), 3));
+        assertTrue(filter.accept(fingerprint(2), 3));
+        assertEquals(1, filter.getSuppressed());
+        assertEquals(1, filter.getCrossSource());
+        assertEquals(0, filter.getUntracked());
+    }
+
+    @Test
+    public void testGrowth() {
+        DuplicateFilter filter = new DuplicateFilter(MAX_STRIPE_CAPACITY);
+        long initialUsage = filter.getMemoryUsage();
+        // Fill the stripes over their initial capacity, still under their maximum one
+        int count = STRIPE_COUNT * MAX_STRIPE_CAPACITY / 2;
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.accept(fingerprint(i), 2));
+        }
+        assertTrue(filter.getMemoryUsage() > initialUsage);
+        // Check the fingerprints moved while growing are still found
+        for (int i = 0; i < count; i++) {
+            assertFalse(filter.accept(fingerprint(i), 2));
+        }
+        assertEquals(count, filter.getSuppressed());
+        assertEquals(0, filter.getUntracked());
+    }
+
+    @Test
+    public void testMaximumCapacity() {
+        DuplicateFilter filter = new DuplicateFilter(MAX_STRIPE_CAPACITY);
+        long maxUsage = (long) STRIPE_COUNT * MAX_STRIPE_CAPACITY * SLOT_SIZE;
+        int count = STRIPE_COUNT * MAX_STRIPE_CAPACITY * 2;
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.accept(fingerprint(i), 2));
+            assertTrue(filter.getMemoryUsage() <= maxUsage);
+        }
+        assertEquals(maxUsage, filter.getMemoryUsage());
+        int untracked = filter.getUntracked();
+        assertTrue(untracked > 0);
+        assertTrue(untracked <= count - STRIPE_COUNT * MAX_STRIPE_CAPACITY * 3 / 4);
+        // Check the remembered fingerprints are still filtered and the others are kept
+        for (int i = 0; i < count; i++) {
+            filter.accept(fingerprint(i), 2);
+        }
+        assertEquals(count - untracked, filter.getSuppressed());
+        assertEquals(untracked * 2, filter.getUntracked());
+    }
+
+    private static long fingerprint(int value) {
+        // Spread the values over the high bits picking the stripe and the low bits picking the slot
+        long fingerprint = value * 0x9E3779B97F4A7C15L;
+        return fingerprint ^ (fingerprint >>> 32);
+    }
+}
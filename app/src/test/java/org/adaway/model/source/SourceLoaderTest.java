@@ -6,11 +6,59 @@ import org.junit.Test;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import static org.adaway.model.source.SourceLoader.HOSTS_PARSER_PATTERN;
 import static org.junit.Assert.*;
 
 public class SourceLoaderTest {
+    // The former hosts line parser, kept as reference for the hosts line tokenizer
+    private static final Pattern HOSTS_PARSER_PATTERN = Pattern.compile("^\\s*([^#\\s]+)\\s+([^#\\s]+).*$");
+    private static final String[] HOSTS_LINES = {
+            "",
+            " ",
+            "#",
+            "# [mocean.mobi]",
+            "127.0.0.1 www.domain.com ## some comments #",
+            "127.0.0.1 ad.domain.net ## some comments",
+            "0.0.0.0 ads.example.com",
+            "0.0.0.0\tads.example.com",
+            "  0.0.0.0   ads.example.com   ",
+            "\t0.0.0.0\t\tads.example.com\t# tracker",
+            "::1 localhost",
+            "::1 ip6-localhost ip6-loopback",
+            "fe80::1%lo0 localhost",
+            "127.0.0.1 localhost.localdomain",
+            "255.255.255.255 broadcasthost",
+            "0.0.0.0 ads.example.com#inline",
+            "0.0.0.0#inline ads.example.com",
+            "0.0.0.0 #ads.example.com",
+            "0.0.0.0",
+            "0.0.0.0 ",
+            "ads.example.com",
+            "0.0.0.0 ads.example.com extra.example.com",
+            "0.0.0.0 ads.example.com\r",
+            "0.0.0.0 ads.example.com\r\n",
+            "0.0.0.0 ads.example.com\n",
+            "0.0.0.0 ads.example.com\n\n",
+            "0.0.0.0\nads.example.com",
+            "0.0.0.0 ads.example.com \u2028",
+            "0.0.0.0 ads.example.com \u2028 ",
+            "0.0.0.0 ads.example.com \u0085 # comment",
+            "0.0.0.0\u00A0ads.example.com",
+            "0.0.0.0 ads.example.com\u00A0x",
+            "0.0.0.0\u000Bads.example.com\f",
+            "1.2.3.4 redirected.example.com",
+            "2001:db8::1 redirected.example.com",
+            "127.0.0.1  ads.example.com",
+            "127.0.0.10 ads.example.com",
+            "0.0.0.00 ads.example.com",
+            "\ufeff0.0.0.0 ads.example.com",
+            "0.0.0.0 \u00e9xample.com",
+            "0.0.0.0 *.example.com",
+            "0.0.0.0 xn--80ak6aa92e.com",
+            "## 0.0.0.0 ads.example.com",
+            " # 0.0.0.0 ads.example.com",
+    };
 
     // Test data comes from Guava InternetDomainName unit test
     // https://github.com/google/guava/blob/master/android/guava-tests/test/com/google/common/net/InternetDomainNameTest.java
@@ -117,6 +165,39 @@ public class SourceLoaderTest {
         assertEquals("ad.domain.net", matcher.group(2));
     }
 
+    @Test
+    public void testHostTokenizer() {
+        HostsLineTokenizer tokenizer = new HostsLineTokenizer();
+        assertFalse(tokenizer.tokenize("# [mocean.mobi]"));
+        assertTrue(tokenizer.tokenize("127.0.0.1 www.domain.com ## some comments #"));
+        assertEquals("127.0.0.1", tokenizer.getAddress());
+        assertEquals("www.domain.com", tokenizer.getHostname());
+        assertTrue(tokenizer.isBlockingAddress());
+        assertTrue(tokenizer.tokenize("127.0.0.1 ad.domain.net ## some comments"));
+        assertEquals("127.0.0.1", tokenizer.getAddress());
+        assertEquals("ad.domain.net", tokenizer.getHostname());
+        assertTrue(tokenizer.tokenize("::1 localhost"));
+        assertTrue(tokenizer.isBlockingAddress());
+        assertTrue(tokenizer.isLocalhostHostname());
+        assertTrue(tokenizer.tokenize("1.2.3.4 localhost.localdomain"));
+        assertFalse(tokenizer.isBlockingAddress());
+        assertFalse(tokenizer.isLocalhostHostname());
+    }
+
+    @Test
+    public void testHostTokenizerMatchesParser() {
+        HostsLineTokenizer tokenizer = new HostsLineTokenizer();
+        for (String line : HOSTS_LINES) {
+            Matcher matcher = HOSTS_PARSER_PATTERN.matcher(line);
+            boolean matches = matcher.matches();
+            assertEquals("The line '" + line + "' should be tokenized as parsed.", matches, tokenizer.tokenize(line));
+            if (matches) {
+                assertEquals(matcher.group(1), tokenizer.getAddress());
+                assertEquals(matcher.group(2), tokenizer.getHostname());
+            }
+        }
+    }
+
     @Test
     public void isValidHostname() {
         for (String validName : VALID_NAMES) {
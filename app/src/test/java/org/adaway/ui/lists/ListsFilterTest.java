@@ -0,0 +1,132 @@
+package org.adaway.ui.lists;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ListsFilterTest {
+    private static final List<String> HOSTS = Arrays.asList(
+            "google.com", "ads.google.com", "www.googleadservices.com", "xgoogle.co.uk",
+            "google-analytics.com", "doubleclick.net", "ad.doubleclick.net"
+    );
+
+    @Test
+    public void testMatchQuery() {
+        assertEquals("\"goog*\"", new ListsFilter(true, ".goog").ftsQuery);
+        assertEquals("\"goog*\"", new ListsFilter(true, "ads.goog").ftsQuery);
+        assertEquals("\"co uk*\"", new ListsFilter(true, "oogle.co.uk").ftsQuery);
+        assertNull(new ListsFilter(true, "").ftsQuery);
+        assertNull(new ListsFilter(true, "google").ftsQuery);
+        assertNull(new ListsFilter(true, "google.").ftsQuery);
+        assertNull(new ListsFilter(true, "*.google.com").ftsQuery);
+        assertNull(new ListsFilter(true, "goo?le.com").ftsQuery);
+    }
+
+    @Test
+    public void testMidLabelSubstringMatches() {
+        ListsFilter filter = new ListsFilter(true, "oogle");
+        assertNull(filter.ftsQuery);
+        assertEquals(Arrays.asList("google.com", "ads.google.com", "www.googleadservices.com", "xgoogle.co.uk",
+                "google-analytics.com"), search(filter));
+        filter = new ListsFilter(true, "ubleclick.net");
+        assertEquals("\"net*\"", filter.ftsQuery);
+        assertEquals(Arrays.asList("doubleclick.net", "ad.doubleclick.net"), search(filter));
+    }
+
+    @Test
+    public void testMatchQueryKeepsLikeMatches() {
+        List<String> queries = Arrays.asList(
+                "oogle", ".google", "google.", "oogle.co", "le.co.u", "-analytics", "ad.double", "e.c", "."
+        );
+        for (String query : queries) {
+            ListsFilter filter = new ListsFilter(true, query);
+            if (filter.ftsQuery == null) {
+                continue;
+            }
+            for (String host : HOSTS) {
+                if (like(filter.sqlQuery, host)) {
+                    assertTrue(query + " should match " + host, match(filter.ftsQuery, host));
+                }
+            }
+        }
+        assertFalse(match("\"goog*\"", "xgoogle.co.uk"));
+    }
+
+    /**
+     * Search the hosts as the lists do: narrow them down with the full-text search index if
+     * possible, then filter them with the like query.
+     */
+    private static List<String> search(ListsFilter filter) {
+        List<String> hosts = new ArrayList<>();
+        for (String host : HOSTS) {
+            if ((filter.ftsQuery == null || match(filter.ftsQuery, host)) && like(filter.sqlQuery, host)) {
+                hosts.add(host);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Evaluate a SQL like pattern as SQLite does for ASCII text.
+     */
+    private static boolean like(String pattern, String text) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE).matcher(text).matches();
+    }
+
+    /**
+     * Evaluate a full-text search phrase, its last term being a prefix, as the FTS4 simple
+     * tokenizer splits text.
+     */
+    private static boolean match(String ftsQuery, String text) {
+        String[] terms = ftsQuery.substring(1, ftsQuery.length() - 2).split(" ");
+        List<String> tokens = tokenize(text);
+        for (int start = 0; start + terms.length <= tokens.size(); start++) {
+            boolean matched = true;
+            for (int i = 0; i < terms.length && matched; i++) {
+                String token = tokens.get(start + i);
+                String term = terms[i].toLowerCase(Locale.ROOT);
+                matched = i == terms.length - 1 ? token.startsWith(term) : token.equals(term);
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (char c : text.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (c >= 128 || Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,109 @@
+package org.adaway.util;
+
+import com.google.common.net.InetAddresses;
+import com.google.common.net.InternetDomainName;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HostValidatorTest {
+    private static final String ALPHABET = "aZz09f-_.:%*? \u3002\uFF0E\uFF61\u00E9\u0661\uFF11";
+    private static final String[] HANDCRAFTED = {
+            "", ".", "..", "a.", "a..", "A.B.C", "foo.com.", "foo.com\uFF0E", "-a.com", "a-.com", "a.1com", "1a.com",
+            "0.0.0.0", "127.0.0.1", "255.255.255.255", "256.0.0.1", "01.2.3.4", "1.2.3", "1.2.3.4.5", "1..2.3",
+            "\u0661.2.3.4", "\uFF11.2.3.4", "::", "::1", "1::", ":1", "1:", ":::", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7:8:9",
+            "1:2:3:4:5:6:7::", "::1:2:3:4:5:6:7", "1::2::3", "12345::1", "fe80::1%lo0", "fe80::1%", "%", "1.2.3.4%eth0",
+            "::ffff:1.2.3.4", "::1.2.3.4", "1:2:3:4:5:6:1.2.3.4", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3.4%x",
+            "::1.2%a:1.2.3.4", "1.2.3.4:5", "*", "?", "*.example.com", "example.*", "*.", "*..", "a*.", ".*", "a.*.",
+    };
+
+    @Test
+    public void testHostnameMatchesGuava() {
+        for (String hostname : corpus()) {
+            assertEquals("Hostname '" + hostname + "' verdict", InternetDomainName.isValid(hostname), HostValidator.isValidHostname(hostname));
+        }
+    }
+
+    @Test
+    public void testWildcardHostnameMatchesGuava() {
+        for (String hostname : corpus()) {
+            boolean expected = InternetDomainName.isValid(hostname.replaceAll("[*?]", ""))
+                    || InternetDomainName.isValid(hostname.replaceAll("[*?]", "a"));
+            assertEquals("Wildcard hostname '" + hostname + "' verdict", expected, HostValidator.isValidWildcardHostname(hostname));
+        }
+    }
+
+    @Test
+    public void testIpMatchesGuava() {
+        for (String ip : corpus()) {
+            assertEquals("IP '" + ip + "' verdict", InetAddresses.isInetAddress(ip), HostValidator.isValidIP(ip));
+        }
+    }
+
+    @Test
+    public void testNormalizeHostname() {
+        String hostname = "ads.example.com";
+        assertSame(hostname, HostValidator.normalizeHostname(hostname));
+        assertEquals("ads.example.com", HostValidator.normalizeHostname("Ads.EXAMPLE.com."));
+        assertEquals("ads.example.com", HostValidator.normalizeHostname("ads\u3002example\uFF0Ecom"));
+        assertEquals("", HostValidator.normalizeHostname("."));
+        assertEquals("\u00C9xample.com", HostValidator.normalizeHostname("\u00C9xample.COM"));
+    }
+
+    private static List<String> corpus() {
+        Random random = new Random(42);
+        List<String> corpus = new ArrayList<>();
+        for (String value : HANDCRAFTED) {
+            corpus.add(value);
+        }
+        // Random strings
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            corpus.add(builder.toString());
+        }
+        // IPv4 and IPv6 like strings
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int parts = 1 + random.nextInt(10);
+            for (int j = 0; j < parts; j++) {
+                if (j > 0) {
+                    builder.append(random.nextInt(4) == 0 ? "::" : random.nextBoolean() ? ":" : ".");
+                }
+                builder.append(Integer.toString(random.nextInt(random.nextBoolean() ? 300 : 0x1FFFF), random.nextBoolean() ? 10 : 16));
+            }
+            if (random.nextInt(10) == 0) {
+                builder.append('%').append(random.nextInt(10));
+            }
+            corpus.add(builder.toString());
+        }
+        // Hostnames around label count and length limits
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int labels = random.nextBoolean() ? 1 + random.nextInt(5) : 120 + random.nextInt(10);
+            int labelLength = labels > 5 ? 1 : random.nextBoolean() ? 60 + random.nextInt(6) : 1 + random.nextInt(60);
+            for (int j = 0; j < labels; j++) {
+                if (j > 0) {
+                    builder.append('.');
+                }
+                for (int k = 0; k < labelLength; k++) {
+                    builder.append(random.nextInt(20) == 0 ? ALPHABET.charAt(random.nextInt(ALPHABET.length())) : 'a');
+                }
+            }
+            if (random.nextBoolean()) {
+                builder.append('.');
+            }
+            corpus.add(builder.toString());
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,40 @@
+package org.adaway.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReversedHostTest {
+    private static final String[] HOSTS = {
+            "", ".", "..", "a", "a.", ".a", "a.b", "ads.example.com", "a..b", "*.example.com", "example.*",
+            "x-y.sub.domain.co.uk",
+    };
+
+    @Test
+    public void testReverseMatchesLabelSplit() {
+        for (String host : HOSTS) {
+            List<String> labels = new ArrayList<>();
+            Collections.addAll(labels, host.split("\\.", -1));
+            Collections.reverse(labels);
+            assertEquals("Reversed host '" + host + "'", String.join(".", labels), ReversedHost.reverse(host));
+        }
+    }
+
+    @Test
+    public void testReverseIsInvolution() {
+        for (String host : HOSTS) {
+            assertEquals(host, ReversedHost.reverse(ReversedHost.reverse(host)));
+        }
+    }
+
+    @Test
+    public void testSubdomainsShareReversedPrefix() {
+        assertEquals("com.example", ReversedHost.reverse("example.com"));
+        assertEquals("com.example.ads", ReversedHost.reverse("ads.example.com"));
+        assertEquals("com.example.ads.tracker", ReversedHost.reverse("tracker.ads.example.com"));
+    }
+}
@@ -0,0 +1,89 @@
+package org.adaway.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WildcardMatcherTest {
+    private static final String ALPHABET = "abAB.-_x";
+    private static final String PATTERN_ALPHABET = ALPHABET + "*?%";
+
+    @Test
+    public void testMatches() {
+        WildcardMatcher matcher = new WildcardMatcher(Arrays.asList(
+                "example.com", "*.doubleclick.net", "ads?.example.org", "tracker.*", "*metrics*"
+        ));
+        assertTrue(matcher.matches("example.com"));
+        assertTrue(matcher.matches("EXAMPLE.com"));
+        assertFalse(matcher.matches("www.example.com"));
+        assertTrue(matcher.matches("ad.doubleclick.net"));
+        assertTrue(matcher.matches(".doubleclick.net"));
+        assertFalse(matcher.matches("doubleclick.net"));
+        assertTrue(matcher.matches("ads1.example.org"));
+        assertFalse(matcher.matches("ads.example.org"));
+        assertTrue(matcher.matches("tracker.io"));
+        assertTrue(matcher.matches("app-metrics.io"));
+        assertFalse(matcher.matches("adaway.org"));
+    }
+
+    @Test
+    public void testEmpty() {
+        WildcardMatcher matcher = new WildcardMatcher(Collections.emptyList());
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("example.com"));
+    }
+
+    @Test
+    public void testMatchesLikeOperator() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            List<String> patterns = new ArrayList<>();
+            for (int j = random.nextInt(5); j > 0; j--) {
+                patterns.add(randomString(random, PATTERN_ALPHABET, 7));
+            }
+            WildcardMatcher matcher = new WildcardMatcher(patterns);
+            for (int j = 0; j < 10; j++) {
+                String hostname = randomString(random, ALPHABET, 8);
+                boolean expected = false;
+                for (String pattern : patterns) {
+                    expected |= like(hostname, pattern);
+                }
+                assertEquals("Hostname '" + hostname + "' against " + patterns, expected, matcher.matches(hostname));
+            }
+        }
+    }
+
+    /**
+     * Emulate the SQL LIKE operator, with * and ? converted as % and _.
+     */
+    private static boolean like(String hostname, String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '%') {
+                regex.append(".*");
+            } else if (c == '?' || c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(hostname).matches();
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        char[] chars = new char[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,251 @@
+package org.adaway.vpn.dns;
+
+import org.junit.Test;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.ClientSubnetOption;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.GenericEDNSOption;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DnsQuestionTest {
+    private static final int QUERY_COUNT = 5_000;
+    private static final int OFFSET = 7;
+    private static final int TTL = 5;
+    private static final String ALPHABET = "abcxyzABCXYZ0189-_";
+    private static final String[] ODD_CHARACTERS = {"*", "\\.", "\\\\", "\\032", "\\200", "\"", "(", "@", "$", ";"};
+    private static final SOARecord SOA_RECORD;
+
+    static {
+        try {
+            Name name = new Name("adaway.vpn.invalid.");
+            SOA_RECORD = new SOARecord(name, DClass.IN, TTL, name, name, 0, 0, 0, 0, TTL);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testCommonQueriesMatchDnsjava() throws Exception {
+        Random random = new Random(42);
+        DnsQuestion question = new DnsQuestion(SOA_RECORD);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            byte[] query = buildQuery(random, randomName(random, false), random.nextBoolean(), false);
+            assertTrue(question.read(atOffset(query), OFFSET, query.length));
+            assertMatchesDnsjava(question, query);
+        }
+    }
+
+    @Test
+    public void testUnusualQueriesFallBack() throws Exception {
+        Random random = new Random(42);
+        DnsQuestion question = new DnsQuestion(SOA_RECORD);
+        byte[] query = buildQuery(random, "ads.example.com", false, false);
+        assertTrue(question.read(query, 0, query.length));
+        assertEquals("ads.example.com", question.getName());
+        // Truncated or padded query
+        assertFalse(question.read(query, 0, query.length - 1));
+        assertFalse(question.read(Arrays.copyOf(query, query.length + 1), 0, query.length + 1));
+        assertFalse(question.read(query, 0, 11));
+        // Characters dnsjava escapes
+        assertFalse(readQuery(question, buildQuery(random, "a\\.b.example.com", false, false)));
+        assertFalse(readQuery(question, buildQuery(random, "a*b.example.com", false, false)));
+        assertFalse(readQuery(question, buildQuery(random, "\\200.example.com", false, false)));
+        // Names sharing a suffix with the SOA record name
+        assertFalse(readQuery(question, buildQuery(random, "ads.invalid", false, false)));
+        assertFalse(readQuery(question, buildQuery(random, "ads.INVALID", false, false)));
+        assertTrue(readQuery(question, buildQuery(random, "ads.invalids", false, false)));
+        // Root name
+        assertFalse(readQuery(question, buildQuery(random, ".", false, false)));
+        // Option parsed by dnsjava
+        assertFalse(readQuery(question, buildQuery(random, "ads.example.com", true, true)));
+        // Update query
+        Message update = Message.newQuery(Record.newRecord(Name.fromString("example.com."), Type.SOA, DClass.IN));
+        update.getHeader().setOpcode(Opcode.UPDATE);
+        assertFalse(readQuery(question, update.toWire()));
+        // Query with an answer
+        Message answered = new Message(query);
+        answered.addRecord(new ARecord(Name.fromString("ads.example.com."), DClass.IN, TTL,
+                InetAddress.getByName("1.2.3.4")), Section.ANSWER);
+        assertFalse(readQuery(question, answered.toWire()));
+        // Compressed question name
+        byte[] compressed = Arrays.copyOf(query, 12 + 2 + 4);
+        compressed[12] = (byte) 0xC0;
+        compressed[13] = 12;
+        assertFalse(readQuery(question, compressed));
+    }
+
+    @Test
+    public void testNameLengthLimit() throws Exception {
+        Random random = new Random(42);
+        DnsQuestion question = new DnsQuestion(SOA_RECORD);
+        for (int length = 240; length < 260; length++) {
+            StringBuilder builder = new StringBuilder();
+            while (builder.length() < length) {
+                builder.append(builder.length() % 2 == 0 ? 'a' : '.');
+            }
+            byte[] query;
+            try {
+                query = buildQuery(random, builder.toString(), false, false);
+            } catch (IOException e) {
+                continue;
+            }
+            if (readQuery(question, query)) {
+                assertMatchesDnsjava(question, query);
+            }
+        }
+    }
+
+    @Test
+    public void testFuzzedQueriesMatchDnsjava() throws Exception {
+        Random random = new Random(42);
+        DnsQuestion question = new DnsQuestion(SOA_RECORD);
+        int accepted = 0;
+        for (int i = 0; i < 20 * QUERY_COUNT; i++) {
+            byte[] query = buildQuery(random, randomName(random, random.nextInt(10) == 0), random.nextBoolean(), random.nextInt(10) == 0);
+            // Corrupt a few bytes and maybe truncate the query
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                query[random.nextInt(query.length)] = (byte) random.nextInt(256);
+            }
+            if (random.nextInt(10) == 0) {
+                query = Arrays.copyOf(query, random.nextInt(query.length));
+            }
+            if (readQuery(question, query)) {
+                assertMatchesDnsjava(question, query);
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 0);
+    }
+
+    private static boolean readQuery(DnsQuestion question, byte[] query) {
+        return question.read(atOffset(query), OFFSET, query.length);
+    }
+
+    private static void assertMatchesDnsjava(DnsQuestion question, byte[] query) throws IOException {
+        Message message = new Message(query);
+        Record expected = message.getQuestion();
+        assertEquals(expected.getName().toString(true).toLowerCase(Locale.ENGLISH), question.getName());
+        assertEquals(expected.getType(), question.getType());
+        assertEquals(expected.getDClass(), question.getDClass());
+        byte[] response = new byte[question.getMaxResponseLength()];
+        int length = question.writeBlockedResponse(response);
+        assertArrayEquals(createBlockedResponse(query), Arrays.copyOf(response, length));
+        for (String redirection : new String[]{"127.0.0.1", "::1"}) {
+            InetAddress address = InetAddress.getByName(redirection);
+            response = new byte[question.getMaxResponseLength()];
+            length = question.writeRedirectedResponse(response, address.getAddress(), TTL);
+            assertArrayEquals(createRedirectedResponse(query, address), Arrays.copyOf(response, length));
+        }
+        response = new byte[question.getMaxResponseLength()];
+        length = question.writeRedirectedResponse(response, null, TTL);
+        assertArrayEquals(createRedirectedResponse(query, null), Arrays.copyOf(response, length));
+    }
+
+    /**
+     * Create a blocked response the way {@link DnsPacketProxy} does with dnsjava.
+     */
+    private static byte[] createBlockedResponse(byte[] query) throws IOException {
+        Message dnsMsg = new Message(query);
+        dnsMsg.getHeader().setFlag(Flags.QR);
+        dnsMsg.getHeader().setRcode(Rcode.NOERROR);
+        dnsMsg.addRecord(SOA_RECORD, Section.AUTHORITY);
+        return dnsMsg.toWire();
+    }
+
+    /**
+     * Create a redirected response the way {@link DnsPacketProxy} does with dnsjava.
+     */
+    private static byte[] createRedirectedResponse(byte[] query, InetAddress address) throws IOException {
+        Message dnsMsg = new Message(query);
+        Name name = dnsMsg.getQuestion().getName();
+        dnsMsg.getHeader().setFlag(Flags.QR);
+        dnsMsg.getHeader().setFlag(Flags.AA);
+        dnsMsg.getHeader().unsetFlag(Flags.RD);
+        dnsMsg.getHeader().setRcode(Rcode.NOERROR);
+        if (address != null) {
+            Record record;
+            if (address instanceof Inet6Address) {
+                record = new AAAARecord(name, DClass.IN, TTL, address);
+            } else {
+                record = new ARecord(name, DClass.IN, TTL, address);
+            }
+            dnsMsg.addRecord(record, Section.ANSWER);
+        }
+        return dnsMsg.toWire();
+    }
+
+    private static byte[] atOffset(byte[] query) {
+        byte[] array = new byte[OFFSET + query.length + 3];
+        System.arraycopy(query, 0, array, OFFSET, query.length);
+        return array;
+    }
+
+    private static String randomName(Random random, boolean odd) {
+        StringBuilder builder = new StringBuilder();
+        int labels = 1 + random.nextInt(5);
+        for (int i = 0; i < labels; i++) {
+            if (i > 0) {
+                builder.append('.');
+            }
+            int length = 1 + random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                if (odd && random.nextInt(5) == 0) {
+                    builder.append(ODD_CHARACTERS[random.nextInt(ODD_CHARACTERS.length)]);
+                } else {
+                    builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static byte[] buildQuery(Random random, String name, boolean edns, boolean clientSubnet) throws IOException {
+        int type = random.nextInt(4) == 0 ? random.nextInt(0x10000) : random.nextBoolean() ? Type.A : Type.AAAA;
+        int dClass = random.nextInt(10) == 0 ? random.nextInt(0x10000) : DClass.IN;
+        Message query = Message.newQuery(Record.newRecord(Name.fromString(name, Name.root), type, dClass));
+        query.getHeader().setID(random.nextInt(0x10000));
+        for (int flag : new int[]{Flags.RD, Flags.AD, Flags.CD, Flags.TC}) {
+            if (random.nextBoolean()) {
+                query.getHeader().setFlag(flag);
+            } else {
+                query.getHeader().unsetFlag(flag);
+            }
+        }
+        if (edns) {
+            OPTRecord opt;
+            if (clientSubnet) {
+                opt = new OPTRecord(1232, 0, 0, 0, new ClientSubnetOption(24, InetAddress.getByName("1.2.3.0")));
+            } else if (random.nextBoolean()) {
+                byte[] padding = new byte[random.nextInt(64)];
+                opt = new OPTRecord(1232 + random.nextInt(4096), 0, 0, random.nextBoolean() ? 0x8000 : 0,
+                        new GenericEDNSOption(12, padding));
+            } else {
+                opt = new OPTRecord(4096, 0, 0);
+            }
+            query.addRecord(opt, Section.ADDITIONAL);
+        }
+        return query.toWire();
+    }
+}
@@ -0,0 +1,245 @@
+package org.adaway.vpn.dns;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DnsResponseCacheTest {
+    private static final int MEMORY_BUDGET = 64 * 1024;
+    private static final int SERVER = 2;
+    private static final int OTHER_SERVER = 3;
+    private static final SOARecord SOA_RECORD;
+
+    static {
+        try {
+            Name name = new Name("adaway.vpn.invalid.");
+            SOA_RECORD = new SOARecord(name, DClass.IN, 5, name, name, 0, 0, 0, 0, 5);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long time;
+    private DnsResponseCache cache;
+    private DnsQuestion question;
+
+    @Before
+    public void setUp() {
+        this.time = 1_000_000;
+        this.cache = new DnsResponseCache(MEMORY_BUDGET, () -> this.time);
+        this.question = new DnsQuestion(SOA_RECORD);
+    }
+
+    @Test
+    public void testHitRewritesIdQuestionAndTtl() throws Exception {
+        Message query = createQuery("ads.example.com", Type.A, 1, false);
+        Message response = createResponse(query, Rcode.NOERROR);
+        response.addRecord(new CNAMERecord(Name.fromString("ads.example.com."), DClass.IN, 300,
+                Name.fromString("cdn.example.net.")), Section.ANSWER);
+        response.addRecord(new ARecord(Name.fromString("cdn.example.net."), DClass.IN, 60,
+                InetAddress.getByName("1.2.3.4")), Section.ANSWER);
+        DnsResponseCache.Key key = read(query);
+        assertNull(this.cache.get(key, this.question));
+        this.cache.put(key, response.toWire());
+        // Query again with another ID, case and recursion flag
+        this.time += 10_500;
+        Message otherQuery = createQuery("ADS.Example.COM", Type.A, 2, false);
+        otherQuery.getHeader().unsetFlag(Flags.RD);
+        byte[] cached = this.cache.get(read(otherQuery), this.question);
+        assertNotNull(cached);
+        Message expected = createResponse(otherQuery, Rcode.NOERROR);
+        expected.addRecord(new CNAMERecord(Name.fromString("ADS.Example.COM."), DClass.IN, 290,
+                Name.fromString("cdn.example.net.")), Section.ANSWER);
+        expected.addRecord(new ARecord(Name.fromString("cdn.example.net."), DClass.IN, 50,
+                InetAddress.getByName("1.2.3.4")), Section.ANSWER);
+        assertArrayEquals(expected.toWire(), cached);
+        // Expire with the lowest TTL
+        this.time += 49_500;
+        assertNull(this.cache.get(read(otherQuery), this.question));
+        assertEquals(0, this.cache.size());
+        assertEquals(1, this.cache.getSavedQueryCount());
+        assertEquals(1 / 3D, this.cache.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testNegativeResponses() throws Exception {
+        Message query = createQuery("missing.example.com", Type.A, 1, false);
+        DnsResponseCache.Key key = read(query);
+        // Name error with a SOA record is cached as long as the SOA minimum TTL
+        Message response = createResponse(query, Rcode.NXDOMAIN);
+        Name zone = Name.fromString("example.com.");
+        response.addRecord(new SOARecord(zone, DClass.IN, 3600, zone, zone, 1, 2, 3, 4, 30), Section.AUTHORITY);
+        this.cache.put(key, response.toWire());
+        this.time += 29_000;
+        byte[] cached = this.cache.get(key, this.question);
+        assertNotNull(cached);
+        assertEquals(Rcode.NXDOMAIN, new Message(cached).getRcode());
+        List<Record> authority = new Message(cached).getSection(Section.AUTHORITY);
+        assertEquals(3600 - 29, authority.get(0).getTTL());
+        this.time += 1_000;
+        assertNull(this.cache.get(key, this.question));
+        // No data with a SOA record is capped to the maximum negative TTL
+        response = createResponse(query, Rcode.NOERROR);
+        response.addRecord(new SOARecord(zone, DClass.IN, 3600, zone, zone, 1, 2, 3, 4, 3600), Section.AUTHORITY);
+        this.cache.put(key, response.toWire());
+        this.time += 299_000;
+        assertNotNull(this.cache.get(key, this.question));
+        this.time += 1_000;
+        assertNull(this.cache.get(key, this.question));
+        // Negative responses without SOA record are not cached
+        this.cache.put(key, createResponse(query, Rcode.NXDOMAIN).toWire());
+        assertEquals(0, this.cache.size());
+    }
+
+    @Test
+    public void testUncacheableResponses() throws Exception {
+        Message query = createQuery("ads.example.com", Type.A, 1, false);
+        DnsResponseCache.Key key = read(query);
+        // Server failure
+        Message response = createResponse(query, Rcode.SERVFAIL);
+        this.cache.put(key, response.toWire());
+        // Truncated response
+        response = createAnswer(query, 300);
+        response.getHeader().setFlag(Flags.TC);
+        this.cache.put(key, response.toWire());
+        // Zero TTL
+        this.cache.put(key, createAnswer(query, 0).toWire());
+        // Another question
+        this.cache.put(key, createAnswer(createQuery("other.example.com", Type.A, 1, false), 300).toWire());
+        this.cache.put(key, createAnswer(createQuery("ads.example.com", Type.AAAA, 1, false), 300).toWire());
+        // Truncated or padded response
+        byte[] wire = createAnswer(query, 300).toWire();
+        this.cache.put(key, Arrays.copyOf(wire, wire.length - 1));
+        this.cache.put(key, Arrays.copyOf(wire, wire.length + 1));
+        assertEquals(0, this.cache.size());
+        this.cache.put(key, wire);
+        assertEquals(1, this.cache.size());
+    }
+
+    @Test
+    public void testQueryVariants() throws Exception {
+        Message query = createQuery("ads.example.com", Type.A, 1, false);
+        this.cache.put(read(query), createAnswer(query, 300).toWire());
+        // EDNS queries do not share plain query responses
+        Message ednsQuery = createQuery("ads.example.com", Type.A, 1, true);
+        assertNull(this.cache.get(read(ednsQuery), this.question));
+        Message ednsResponse = createAnswer(ednsQuery, 300);
+        ednsResponse.addRecord(new OPTRecord(1232, 0, 0), Section.ADDITIONAL);
+        this.cache.put(read(ednsQuery), ednsResponse.toWire());
+        assertEquals(2, this.cache.size());
+        byte[] cached = this.cache.get(read(ednsQuery), this.question);
+        assertNotNull(cached);
+        assertNotNull(new Message(cached).getOPT());
+        // Checking disabled queries do not share responses either
+        Message checkingDisabledQuery = createQuery("ads.example.com", Type.A, 1, false);
+        checkingDisabledQuery.getHeader().setFlag(Flags.CD);
+        assertNull(this.cache.get(read(checkingDisabledQuery), this.question));
+    }
+
+    @Test
+    public void testUpstreamServers() throws Exception {
+        Message query = createQuery("ads.example.com", Type.A, 1, false);
+        this.cache.put(read(query), createAnswer(query, 300).toWire());
+        assertNotNull(this.cache.get(read(query), this.question));
+        // Other upstream servers do not share responses
+        assertNull(this.cache.get(read(query, OTHER_SERVER), this.question));
+        this.cache.put(read(query, OTHER_SERVER), createAnswer(query, 300).toWire());
+        assertEquals(2, this.cache.size());
+    }
+
+    @Test
+    public void testPayloadSize() throws Exception {
+        Message query = createQuery("txt.example.com", Type.TXT, 1, true);
+        Message response = createResponse(query, Rcode.NOERROR);
+        for (int i = 0; i < 10; i++) {
+            char[] text = new char[100];
+            Arrays.fill(text, (char) ('a' + i));
+            response.addRecord(new TXTRecord(Name.fromString("txt.example.com."), DClass.IN, 300,
+                    new String(text)), Section.ANSWER);
+        }
+        response.addRecord(new OPTRecord(1232, 0, 0), Section.ADDITIONAL);
+        this.cache.put(read(query), response.toWire());
+        assertNotNull(this.cache.get(read(query), this.question));
+        // Responses larger than the client payload size are not returned
+        Message smallQuery = createQuery("txt.example.com", Type.TXT, 1, false);
+        smallQuery.addRecord(new OPTRecord(512, 0, 0), Section.ADDITIONAL);
+        assertNull(this.cache.get(read(smallQuery), this.question));
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        int count = 1_000;
+        for (int i = 0; i < count; i++) {
+            Message query = createQuery("host" + i + ".example.com", Type.A, i, false);
+            this.cache.put(read(query), createAnswer(query, 300).toWire());
+            assertTrue(this.cache.getMemoryUsage() <= MEMORY_BUDGET);
+        }
+        assertTrue(this.cache.size() < count);
+        // Least recently used responses are evicted first
+        Message first = createQuery("host0.example.com", Type.A, 0, false);
+        Message last = createQuery("host" + (count - 1) + ".example.com", Type.A, 0, false);
+        assertNull(this.cache.get(read(first), this.question));
+        assertNotNull(this.cache.get(read(last), this.question));
+        this.cache.clear();
+        assertEquals(0, this.cache.size());
+        assertEquals(0, this.cache.getMemoryUsage());
+    }
+
+    private DnsResponseCache.Key read(Message query) {
+        return read(query, SERVER);
+    }
+
+    private DnsResponseCache.Key read(Message query, int server) {
+        byte[] wire = query.toWire();
+        assertTrue(this.question.read(wire, 0, wire.length));
+        return DnsResponseCache.getKey(this.question, server);
+    }
+
+    private static Message createQuery(String name, int type, int id, boolean edns) throws IOException {
+        Message query = Message.newQuery(Record.newRecord(Name.fromString(name, Name.root), type, DClass.IN));
+        query.getHeader().setID(id);
+        if (edns) {
+            query.addRecord(new OPTRecord(1232, 0, 0), Section.ADDITIONAL);
+        }
+        return query;
+    }
+
+    private static Message createResponse(Message query, int rcode) throws IOException {
+        Message response = new Message(query.toWire());
+        response.removeAllRecords(Section.ADDITIONAL);
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.RA);
+        response.getHeader().setRcode(rcode);
+        return response;
+    }
+
+    private static Message createAnswer(Message query, long ttl) throws IOException {
+        Message response = createResponse(query, Rcode.NOERROR);
+        Name name = query.getQuestion().getName();
+        response.addRecord(new ARecord(name, DClass.IN, ttl, InetAddress.getByName("1.2.3.4")), Section.ANSWER);
+        return response;
+    }
+}
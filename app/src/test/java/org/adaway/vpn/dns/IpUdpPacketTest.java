@@ -0,0 +1,272 @@
+package org.adaway.vpn.dns;
+
+import org.junit.Test;
+import org.pcap4j.packet.IllegalRawDataException;
+import org.pcap4j.packet.IpPacket;
+import org.pcap4j.packet.IpSelector;
+import org.pcap4j.packet.IpV4NoOperationOption;
+import org.pcap4j.packet.IpV4Packet;
+import org.pcap4j.packet.IpV4Rfc791Tos;
+import org.pcap4j.packet.IpV6Packet;
+import org.pcap4j.packet.IpV6SimpleFlowLabel;
+import org.pcap4j.packet.IpV6SimpleTrafficClass;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.UdpPacket;
+import org.pcap4j.packet.UnknownPacket;
+import org.pcap4j.packet.namednumber.IpNumber;
+import org.pcap4j.packet.namednumber.IpVersion;
+import org.pcap4j.packet.namednumber.UdpPort;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class IpUdpPacketTest {
+    private static final int PACKET_COUNT = 2_000;
+    private static final int OFFSET = 3;
+
+    @Test
+    public void testReadMatchesPcap4j() throws Exception {
+        Random random = new Random(42);
+        IpUdpPacket packet = new IpUdpPacket();
+        for (int i = 0; i < PACKET_COUNT; i++) {
+            byte[] data = randomPacket(random).getRawData();
+            IpPacket expected = (IpPacket) IpSelector.newPacket(data, 0, data.length);
+            UdpPacket expectedUdp = (UdpPacket) expected.getPayload();
+            assertTrue(packet.read(atOffset(data)));
+            byte[] dstAddress = expected.getHeader().getDstAddr().getAddress();
+            assertEquals(dstAddress[dstAddress.length - 1] & 0xFF, packet.getDestinationAddressLastByte());
+            assertEquals(expectedUdp.getHeader().getDstPort().valueAsInt(), packet.getDestinationPort());
+            assertArrayEquals(getPayload(expectedUdp), Arrays.copyOfRange(data,
+                    packet.getPayloadOffset() - OFFSET, packet.getPayloadOffset() - OFFSET + packet.getPayloadLength()));
+        }
+    }
+
+    @Test
+    public void testResponseMatchesPcap4j() throws Exception {
+        Random random = new Random(42);
+        IpUdpPacket packet = new IpUdpPacket();
+        for (int i = 0; i < PACKET_COUNT; i++) {
+            byte[] data = randomPacket(random).getRawData();
+            IpPacket request = (IpPacket) IpSelector.newPacket(data, 0, data.length);
+            byte[] payload = randomBytes(random, random.nextInt(600));
+            byte[] expected = buildPcap4jResponse(request, payload);
+            // Write from the whole request packet
+            ByteBuffer requestBuffer = atOffset(data);
+            assertTrue(packet.read(requestBuffer));
+            assertArrayEquals(expected, writeResponse(requestBuffer, payload));
+            // Write from the copied request headers
+            assertArrayEquals(expected, writeResponse(ByteBuffer.wrap(packet.copyHeaders()), payload));
+        }
+    }
+
+    @Test
+    public void testOddPacketsAreDiscarded() throws Exception {
+        Random random = new Random(42);
+        IpUdpPacket packet = new IpUdpPacket();
+        byte[] ipv4 = buildIpV4Packet(random, 0, randomBytes(random, 32)).getRawData();
+        byte[] ipv6 = buildIpV6Packet(random, randomBytes(random, 32)).getRawData();
+        assertTrue(packet.read(ByteBuffer.wrap(ipv4)));
+        assertTrue(packet.read(ByteBuffer.wrap(ipv6)));
+        // Empty and truncated packets
+        assertFalse(packet.read(ByteBuffer.allocate(0)));
+        assertFalse(packet.read(ByteBuffer.wrap(ipv4, 0, 19)));
+        assertFalse(packet.read(ByteBuffer.wrap(ipv4, 0, ipv4.length - 1)));
+        assertFalse(packet.read(ByteBuffer.wrap(ipv6, 0, 39)));
+        assertFalse(packet.read(ByteBuffer.wrap(ipv6, 0, ipv6.length - 1)));
+        // Unknown IP version
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 0, 0x55))));
+        // IPv4 header length too short
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 0, 0x44))));
+        // IPv4 fragments
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 6, 0x20))));
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 7, 0x01))));
+        // Not UDP, or UDP after an IPv6 extension header
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 9, IpNumber.TCP.value()))));
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv6, 6, IpNumber.IPV6_HOPOPT.value()))));
+        // UDP length out of the IP payload
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 24 + 1, 41))));
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv4, 24 + 1, 7))));
+        assertFalse(packet.read(ByteBuffer.wrap(with(ipv6, 44 + 1, 41))));
+        // Trailing bytes after the IP packet are ignored
+        byte[] padded = Arrays.copyOf(ipv4, ipv4.length + 10);
+        assertTrue(packet.read(ByteBuffer.wrap(padded)));
+        assertEquals(32, packet.getPayloadLength());
+        // UDP payload shorter than the IP payload
+        assertTrue(packet.read(ByteBuffer.wrap(with(ipv4, 24 + 1, 30))));
+        assertEquals(22, packet.getPayloadLength());
+        // No payload
+        byte[] empty = buildIpV4Packet(random, 0, new byte[0]).getRawData();
+        assertTrue(packet.read(ByteBuffer.wrap(empty)));
+        assertEquals(0, packet.getPayloadLength());
+    }
+
+    @Test
+    public void testFuzzedPacketsMatchPcap4j() throws Exception {
+        Random random = new Random(42);
+        IpUdpPacket packet = new IpUdpPacket();
+        for (int i = 0; i < 20 * PACKET_COUNT; i++) {
+            byte[] data = randomPacket(random).getRawData();
+            // Corrupt a few header bytes and maybe truncate the packet
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                data[random.nextInt(Math.min(data.length, 48))] = (byte) random.nextInt(256);
+            }
+            if (random.nextInt(4) == 0) {
+                data = Arrays.copyOf(data, random.nextInt(data.length));
+            }
+            if (!packet.read(ByteBuffer.wrap(data))) {
+                continue;
+            }
+            // Accepted packets must be UDP packets with the same payload for pcap4j
+            Packet expected = IpSelector.newPacket(data, 0, data.length);
+            assertTrue(expected instanceof IpPacket);
+            Packet expectedUdp = expected.getPayload();
+            assertTrue(expectedUdp instanceof UdpPacket);
+            assertArrayEquals(getPayload((UdpPacket) expectedUdp), Arrays.copyOfRange(data,
+                    packet.getPayloadOffset(), packet.getPayloadOffset() + packet.getPayloadLength()));
+        }
+    }
+
+    private static ByteBuffer atOffset(byte[] data) {
+        byte[] array = new byte[OFFSET + data.length];
+        System.arraycopy(data, 0, array, OFFSET, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        buffer.position(OFFSET);
+        return buffer;
+    }
+
+    private static byte[] writeResponse(ByteBuffer requestHeaders, byte[] payload) {
+        int length = IpUdpPacket.getResponseLength(requestHeaders, payload.length);
+        ByteBuffer response = ByteBuffer.allocate(OFFSET + length + 5);
+        response.position(OFFSET);
+        IpUdpPacket.writeResponse(requestHeaders, payload, 0, payload.length, response);
+        assertEquals(OFFSET + length, response.position());
+        return Arrays.copyOfRange(response.array(), OFFSET, OFFSET + length);
+    }
+
+    private static byte[] getPayload(UdpPacket packet) {
+        Packet payload = packet.getPayload();
+        return payload == null ? new byte[0] : payload.getRawData();
+    }
+
+    private static byte[] with(byte[] data, int index, int value) {
+        byte[] copy = data.clone();
+        copy[index] = (byte) value;
+        return copy;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static IpPacket randomPacket(Random random) throws UnknownHostException {
+        byte[] payload = randomBytes(random, random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(512));
+        return random.nextBoolean() ?
+                buildIpV4Packet(random, random.nextInt(4) == 0 ? 1 + random.nextInt(10) : 0, payload) :
+                buildIpV6Packet(random, payload);
+    }
+
+    private static IpV4Packet buildIpV4Packet(Random random, int optionCount, byte[] payload) throws UnknownHostException {
+        Inet4Address srcAddr = (Inet4Address) InetAddress.getByAddress(randomBytes(random, 4));
+        Inet4Address dstAddr = (Inet4Address) InetAddress.getByAddress(randomBytes(random, 4));
+        List<IpV4Packet.IpV4Option> options = new ArrayList<>();
+        for (int i = 0; i < optionCount; i++) {
+            options.add(IpV4NoOperationOption.getInstance());
+        }
+        return new IpV4Packet.Builder()
+                .version(IpVersion.IPV4)
+                .tos(IpV4Rfc791Tos.newInstance((byte) random.nextInt(256)))
+                .identification((short) random.nextInt())
+                .dontFragmentFlag(random.nextBoolean())
+                .ttl((byte) random.nextInt(256))
+                .protocol(IpNumber.UDP)
+                .srcAddr(srcAddr)
+                .dstAddr(dstAddr)
+                .options(options)
+                .payloadBuilder(buildUdpPacket(random, srcAddr, dstAddr, payload))
+                .correctChecksumAtBuild(true)
+                .correctLengthAtBuild(true)
+                .paddingAtBuild(true)
+                .build();
+    }
+
+    private static IpV6Packet buildIpV6Packet(Random random, byte[] payload) throws UnknownHostException {
+        Inet6Address srcAddr = (Inet6Address) InetAddress.getByAddress(randomBytes(random, 16));
+        Inet6Address dstAddr = (Inet6Address) InetAddress.getByAddress(randomBytes(random, 16));
+        return new IpV6Packet.Builder()
+                .version(IpVersion.IPV6)
+                .trafficClass(IpV6SimpleTrafficClass.newInstance((byte) random.nextInt(256)))
+                .flowLabel(IpV6SimpleFlowLabel.newInstance(random.nextInt(0x100000)))
+                .nextHeader(IpNumber.UDP)
+                .hopLimit((byte) random.nextInt(256))
+                .srcAddr(srcAddr)
+                .dstAddr(dstAddr)
+                .payloadBuilder(buildUdpPacket(random, srcAddr, dstAddr, payload))
+                .correctLengthAtBuild(true)
+                .build();
+    }
+
+    private static UdpPacket.Builder buildUdpPacket(Random random, InetAddress srcAddr, InetAddress dstAddr, byte[] payload) {
+        UdpPacket.Builder builder = new UdpPacket.Builder()
+                .srcPort(UdpPort.getInstance((short) random.nextInt(0x10000)))
+                .dstPort(UdpPort.getInstance(random.nextBoolean() ? (short) 53 : (short) random.nextInt(0x10000)))
+                .srcAddr(srcAddr)
+                .dstAddr(dstAddr)
+                .correctChecksumAtBuild(true)
+                .correctLengthAtBuild(true);
+        if (payload.length > 0) {
+            builder.payloadBuilder(new UnknownPacket.Builder().rawData(payload));
+        }
+        return builder;
+    }
+
+    /**
+     * Build a response the way {@link DnsPacketProxy} did with pcap4j.
+     */
+    private static byte[] buildPcap4jResponse(IpPacket requestPacket, byte[] responsePayload) throws IllegalRawDataException {
+        UdpPacket udpOutPacket = (UdpPacket) requestPacket.getPayload();
+        assertNotNull(udpOutPacket);
+        UdpPacket.Builder payLoadBuilder = new UdpPacket.Builder(udpOutPacket)
+                .srcPort(udpOutPacket.getHeader().getDstPort())
+                .dstPort(udpOutPacket.getHeader().getSrcPort())
+                .srcAddr(requestPacket.getHeader().getDstAddr())
+                .dstAddr(requestPacket.getHeader().getSrcAddr())
+                .correctChecksumAtBuild(true)
+                .correctLengthAtBuild(true)
+                .payloadBuilder(
+                        new UnknownPacket.Builder().rawData(responsePayload)
+                );
+        IpPacket ipOutPacket;
+        if (requestPacket instanceof IpV4Packet) {
+            ipOutPacket = new IpV4Packet.Builder((IpV4Packet) requestPacket)
+                    .srcAddr((Inet4Address) requestPacket.getHeader().getDstAddr())
+                    .dstAddr((Inet4Address) requestPacket.getHeader().getSrcAddr())
+                    .correctChecksumAtBuild(true)
+                    .correctLengthAtBuild(true)
+                    .payloadBuilder(payLoadBuilder)
+                    .build();
+        } else {
+            ipOutPacket = new IpV6Packet.Builder((IpV6Packet) requestPacket)
+                    .srcAddr((Inet6Address) requestPacket.getHeader().getDstAddr())
+                    .dstAddr((Inet6Address) requestPacket.getHeader().getSrcAddr())
+                    .correctLengthAtBuild(true)
+                    .payloadBuilder(payLoadBuilder)
+                    .build();
+        }
+        return ipOutPacket.getRawData();
+    }
+}